@@ -0,0 +1,16 @@
+package exception;
+
+public class InvalidQueryException extends Exception{
+
+	private static final long serialVersionUID = 5167480532187215304L;
+
+	/**
+	 * Deal with exception that if a tag query cannot be understood.
+	 *
+	 * @param message
+	 */
+	public InvalidQueryException(String message){
+		super(message);
+	}
+
+}
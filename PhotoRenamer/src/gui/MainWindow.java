@@ -2,18 +2,24 @@ package gui;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
-import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.GridLayout;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.BorderFactory;
+import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.DefaultListModel;
 import javax.swing.ImageIcon;
@@ -28,8 +34,10 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
@@ -41,15 +49,25 @@ import exception.InvalidTagNameException;
 import exception.TagNotExistException;
 import model.Mediator;
 import model.Photo;
-import model.PhotoLoader;
 import model.PhotoManager;
+import model.PhotoWatcher;
+import model.ScanReport;
 import model.Tag;
 import model.TagManager;
+import model.WatchListener;
+import util.PreviewListener;
+import util.PreviewService;
 import util.Thumbnail;
+import util.ThumbnailImageCache;
+import util.TilePyramid;
 
 
 public class MainWindow {
 
+	/** Logger instance for logging use */
+	private static final Logger logger =
+			Logger.getLogger(MainWindow.class.getName());
+
 	private static final int blockWidth = 300;
 	
 	// Util
@@ -57,7 +75,6 @@ public class MainWindow {
 	public JFrame mainFrame;
 	private MainWindow mainWindow;
 	private File selectedFile;
-	private List<JLabel> thumbNailList;
 	private Photo currPhoto;
 	private String currTagName;
 	
@@ -86,6 +103,7 @@ public class MainWindow {
 	private JScrollPane previewScroll;
 	protected ImageIcon usingImage; // preview image part
 	private JLabel imageUsingLabel; // preview image part
+	private TileView tileView; // zoomable view, null unless zooming
 	
 	// Right block
 	
@@ -108,7 +126,16 @@ public class MainWindow {
 	
 	private JScrollPane downBlockInit;
 	private JScrollPane downBlockScrollPane;
-	private JPanel downBlockContent;
+	private ThumbnailGrid thumbGrid;
+	
+	// Loading
+	
+	private PhotoLoadWorker loadWorker;
+	private JProgressBar loadProgress;
+	private JButton cancelLoadButton;
+	
+	// Follows changes made to the loaded directory outside of the application
+	private PhotoWatcher watcher;
 	
 	//Mediater
 	
@@ -157,7 +184,6 @@ public class MainWindow {
 		// Init down block
 		downBlockInit = initializeDownBlock();
 		downBlockInit.setVisible(true);
-		thumbNailList = new ArrayList<JLabel>();
 		mainFrame.getContentPane().add(downBlockInit, BorderLayout.SOUTH);
 		
 		mainFrame.pack();
@@ -177,73 +203,22 @@ public class MainWindow {
 			// Add action preform to this menu item
 			public void actionPerformed(ActionEvent arg0) {
 				selectedFile = DirectoryReader.display();
-				try {
-					// Init tag manager and photo manager
-					tManager = new TagManager("Tag.ser");
-					pManager = new PhotoManager("Photo.ser");
-					
-					// Load photos into photo managers 
-					PhotoLoader.loadPhotos(pManager, selectedFile);
-					
-					// Make mediator
-					mediator = Mediator.getInstance(tManager, pManager);
-					
-					// Get thumbnail image list
-					List<Thumbnail> thumbList= mediator.getThumbList();
-					setThumbs(thumbList);
-					setAllTags(mediator.getAllTags());
-					
-					// Add action to log button
-					logButton.addActionListener(new ActionListener() {
-					@Override
-					public void actionPerformed(ActionEvent e) {
-				
-						JFrame photoLog = new JFrame("Photo's Renaming Log" );
-						photoLog.setSize( 1500, 1000 );
-						photoLog.setVisible( true );
-						JTextArea displayArea = new JTextArea();
-						String content = null;
-						try {
-						content = getPreviousNameLog(mediator.getNamingLogList());
-						} catch (IOException e1) {
-						e1.printStackTrace();
-						}
-						displayArea.setText(content);
-						photoLog.add(displayArea);
-						}});
-					
-
-					// Add action to revert button
-					revertButton.addActionListener(new ActionListener() {
-					@Override
-					public void actionPerformed(ActionEvent e) {
-						try {
-							mediator.revertToPreName(currPhoto, currSelectedName);
-							setPastNamesList(mediator, currPhoto);
-							getTitle().setText(currPhoto.getName());
-							mainFrame.repaint();
-						} catch (DuplicateTagException | IOException e1) {
-							e1.printStackTrace();
-						}
-						catch(InvalidPhotoPathException e2){
-							// Reference from Oracle
-							// http://docs.oracle.com/javase/tutorial/uiswing/components/dialog.html
-							JOptionPane.showMessageDialog(mainFrame,
-								    "Cannot Find Photo. Check if You Renamed Photo through Opration System",
-								    "Inane warning",
-								    JOptionPane.WARNING_MESSAGE);
-						}
-						catch(InvalidTagNameException e3){
-						}
-						catch(TagNotExistException e4){}
-					}});
-					
-				} catch (ClassNotFoundException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
+				if(selectedFile == null)
+					return;
+				if(loadWorker != null)
+					loadWorker.cancel(true);
+				if(watcher != null){
+					watcher.close();
+					watcher = null;
 				}
 				
+				// Load in background, photos show up as they are found
+				thumbGrid.setPhotos(new ArrayList<Photo>());
+				loadProgress.setString("Loading...");
+				loadProgress.setVisible(true);
+				cancelLoadButton.setVisible(true);
+				loadWorker = new PhotoLoadWorker(mainWindow, selectedFile);
+				loadWorker.execute();
 			}
 		});
 		
@@ -281,6 +256,25 @@ public class MainWindow {
 					}
 		});
 		helpMenu.add(mntmContactAuthor);
+		
+		// Progress of loading photos, with a button to stop it
+		loadProgress = new JProgressBar();
+		loadProgress.setIndeterminate(true);
+		loadProgress.setStringPainted(true);
+		loadProgress.setMaximumSize(new Dimension(300, 20));
+		loadProgress.setVisible(false);
+		cancelLoadButton = new JButton("Cancel");
+		cancelLoadButton.setVisible(false);
+		cancelLoadButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(loadWorker != null)
+					loadWorker.cancel(true);
+			}
+		});
+		menuBar.add(Box.createHorizontalGlue());
+		menuBar.add(loadProgress);
+		menuBar.add(cancelLoadButton);
 		mainFrame.getContentPane().setLayout(null);
 		
 		// Save file and exit 
@@ -379,6 +373,14 @@ public class MainWindow {
 		// Image preview panel
 		imageUsingLabel = new JLabel();
 		imageUsingLabel.setVisible(true);
+		// Double click the preview to zoom into the original
+		imageUsingLabel.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if(e.getClickCount() == 2 && currPhoto != null)
+					showZoomable(currPhoto);
+			}
+		});
 		previewScroll = new JScrollPane(imageUsingLabel, 
 			    JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, 
 				JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
@@ -599,10 +601,10 @@ public class MainWindow {
 		 */
 	public JScrollPane initializeDownBlock() throws IOException{
 		
-		downBlockContent = new JPanel();
-		downBlockContent.setLayout(new FlowLayout());
+		// Grid only creates and decodes what is in view
+		thumbGrid = new ThumbnailGrid(mainWindow);
 			
-		downBlockScrollPane = new JScrollPane(downBlockContent, 
+		downBlockScrollPane = new JScrollPane(thumbGrid, 
 			    JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, 
 				JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
 		downBlockScrollPane.setPreferredSize(new Dimension( 700, 300));
@@ -615,24 +617,162 @@ public class MainWindow {
 	
 	
 	/**
-	 * Set Thumbs to thumbnails' list in Down Block
+	 * Set the managers and mediator for the photos being loaded.
+	 * Called by PhotoLoadWorker once the managers are read, before
+	 * any photo is added.
 	 * 
-	 * @param thumbList
-	 * 					the thumbnails to set
-	 * @throws IOException
+	 * @param tManager
+	 * 				the tag manager
+	 * @param pManager
+	 * 				the photo manager
+	 * @param mediator
+	 * 				the mediator of both managers
 	 */
-	public void setThumbs(List<Thumbnail> thumbList) throws IOException{
+	public void setManagers(TagManager tManager, PhotoManager pManager, Mediator mediator){
+		this.tManager = tManager;
+		this.pManager = pManager;
+		this.mediator = mediator;
+		thumbGrid.setMediator(mediator);
 		
-		for(Thumbnail thumb:thumbList){
-		ThumbNail thumbNailFromPhoto = new ThumbNail(thumb.getPhoto(),  mainWindow, mediator);
-		downBlockContent.add(thumbNailFromPhoto);
-		thumbNailList.add(thumbNailFromPhoto);
+		// Add action to log button
+		logButton.addActionListener(new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+	
+			JFrame photoLog = new JFrame("Photo's Renaming Log" );
+			photoLog.setSize( 1500, 1000 );
+			photoLog.setVisible( true );
+			JTextArea displayArea = new JTextArea();
+			String content = null;
+			try {
+			content = getPreviousNameLog(mediator.getNamingLogList());
+			} catch (IOException e1) {
+			e1.printStackTrace();
+			}
+			displayArea.setText(content);
+			photoLog.add(displayArea);
+			}});
 		
-		downBlockContent.setVisible(true);
-		downBlockContent.doLayout();
-		downBlockScrollPane.doLayout();
-		mainFrame.repaint();
-	}	
+
+		// Add action to revert button
+		revertButton.addActionListener(new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			try {
+				mediator.revertToPreName(currPhoto, currSelectedName);
+				setPastNamesList(mediator, currPhoto);
+				getTitle().setText(currPhoto.getName());
+				mainFrame.repaint();
+			} catch (DuplicateTagException | IOException e1) {
+				e1.printStackTrace();
+			}
+			catch(InvalidPhotoPathException e2){
+				// Reference from Oracle
+				// http://docs.oracle.com/javase/tutorial/uiswing/components/dialog.html
+				JOptionPane.showMessageDialog(mainFrame,
+					    "Cannot Find Photo. Check if You Renamed Photo through Opration System",
+					    "Inane warning",
+					    JOptionPane.WARNING_MESSAGE);
+			}
+			catch(InvalidTagNameException e3){
+			}
+			catch(TagNotExistException e4){}
+		}});
+	}
+	
+	
+	
+	/**
+	 * Show the photos already tracked by the photo manager in the
+	 * thumbnails' grid, replacing what it showed.
+	 * 
+	 * @param photos
+	 * 				the photos to show, read only when they come into view
+	 */
+	public void showPhotos(List<Photo> photos){
+		thumbGrid.setPhotos(photos);
+		loadProgress.setString("Loading... " + photos.size() + " photos");
+	}
+	
+	
+	
+	/**
+	 * Add a batch of loaded photos to the thumbnails' grid.
+	 * 
+	 * @param photos
+	 * 				the photos to add
+	 */
+	public void addPhotos(List<Photo> photos){
+		thumbGrid.addPhotos(photos);
+		loadProgress.setString("Loading... " + thumbGrid.getModel().getSize() + " photos");
+	}
+	
+	
+	
+	/**
+	 * Finish loading: show the tags and hide the progress bar.
+	 * Nothing is done for a worker that has been replaced by a new load.
+	 * 
+	 * @param worker
+	 * 				the worker that finished
+	 * @param report
+	 * 				the finished scan's report, null if the 
+	 * 				scan was cancelled or failed
+	 */
+	public void loadFinished(PhotoLoadWorker worker, ScanReport report){
+		if(worker != loadWorker)
+			return;
+		loadProgress.setVisible(false);
+		cancelLoadButton.setVisible(false);
+		if(report != null)
+			logger.log(Level.INFO, "Loaded " + report);
+		// Most used tags first
+		if(mediator != null)
+			setAllTags(mediator.getMostUsedTags(Integer.MAX_VALUE));
+		if(report != null)
+			watch(worker.getDirectory());
+	}
+	
+	
+	
+	/**
+	 * Keep the window in sync with files created, deleted or renamed in
+	 * the given directory outside of the application.
+	 * 
+	 * @param directory
+	 * 				the loaded directory
+	 */
+	private void watch(File directory){
+		final PhotoManager pManager = this.pManager;
+		final Mediator mediator = this.mediator;
+		try {
+			watcher = new PhotoWatcher(pManager, new WatchListener() {
+				@Override
+				public void photosChanged(final List<Photo> removed) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							if(pManager != MainWindow.this.pManager)
+								return;
+							mediator.photosRemoved(removed);
+							thumbGrid.setPhotos(pManager.getPhotoList());
+							setAllTags(mediator.getMostUsedTags(Integer.MAX_VALUE));
+						}
+					});
+				}
+			});
+			watcher.watch(directory);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot watch " + directory, e);
+			if(watcher != null){
+				watcher.close();
+				watcher = null;
+			}
+			JOptionPane.showMessageDialog(mainFrame,
+				    "Cannot Watch This Folder. Changes Made Outside the Application Will Not Show Until It Is Loaded Again",
+				    "Inane warning",
+				    JOptionPane.WARNING_MESSAGE);
+		}
 	}
 	
 	
@@ -734,6 +874,123 @@ public class MainWindow {
 	
 	
 	
+	/**
+	 * Show the photo in the preview, rendered at the size of the preview's
+	 * viewport off the event dispatch thread. Its thumbnail is shown until
+	 * the preview is ready; a preview rendered before shows at once.
+	 * 
+	 * @param photo
+	 * 				the photo to show, the current photo.
+	 */
+	public void showPreview(Photo photo){
+		if(tileView != null){
+			tileView.close();
+			tileView = null;
+			previewScroll.setViewportView(imageUsingLabel);
+		}
+		Dimension box = getPreviewSize();
+		int w = box.width;
+		int h = box.height;
+		PreviewService previews = PreviewService.getInstance();
+		BufferedImage cached = previews.getCached(photo, w, h);
+		if(cached != null){
+			imageUsingLabel.setIcon(new ImageIcon(cached));
+			return;
+		}
+		Thumbnail thumb = photo.getThumb();
+		BufferedImage placeholder = thumb.isReady() 
+				? ThumbnailImageCache.getInstance().get(thumb.getPath()) : null;
+		imageUsingLabel.setIcon(placeholder != null ? new ImageIcon(placeholder) : null);
+		previews.request(photo, w, h, new PreviewListener() {
+			@Override
+			public void previewReady(final Photo p, final BufferedImage image) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						// Another photo may have been clicked meanwhile
+						if(p == currPhoto)
+							imageUsingLabel.setIcon(new ImageIcon(image));
+					}
+				});
+			}
+			
+			@Override
+			public void previewFailed(Photo p, IOException e) {
+				// The thumbnail stays
+			}
+		});
+	}
+	
+	
+	
+	/**
+	 * Show the photo in the preview as a TileView, which reads only the 
+	 * tiles in view at the zoom level shown, so that even a very large 
+	 * photo can be zoomed into. The mouse wheel zooms, a double click 
+	 * goes back to the normal preview.
+	 * 
+	 * @param photo
+	 * 				the photo to show, the current photo.
+	 */
+	public void showZoomable(final Photo photo){
+		TilePyramid pyramid;
+		try {
+			pyramid = new TilePyramid(photo.getFile());
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(mainFrame,
+				    "Cannot Zoom into This Photo",
+				    "Inane warning",
+				    JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		Dimension box = getPreviewSize();
+		if(tileView != null)
+			tileView.close();
+		// A few screens' worth of tiles, however big the photo is
+		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+		tileView = new TileView(pyramid, 4L * 4 * screen.width * screen.height);
+		tileView.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if(e.getClickCount() == 2)
+					showPreview(photo);
+			}
+		});
+		tileView.fit(box);
+		previewScroll.setViewportView(tileView);
+	}
+	
+	
+	
+	/**
+	 * Render the previews of photos the user is likely to look at next,
+	 * nearest first, on low priority threads, so showing them later is
+	 * instant. Previews still waiting from an earlier call are cancelled.
+	 * 
+	 * @param photos
+	 * 				the photos to prefetch, nearest first.
+	 */
+	public void prefetchPreviews(List<Photo> photos){
+		Dimension box = getPreviewSize();
+		PreviewService.getInstance().prefetch(photos, box.width, box.height);
+	}
+	
+	
+	
+	/**
+	 * Get the size previews are rendered at, the preview viewport's size.
+	 * 
+	 * @return box
+	 * 				the size of the preview.
+	 */
+	public Dimension getPreviewSize(){
+		Dimension box = previewScroll.getViewport().getExtentSize();
+		return new Dimension(box.width > 0 ? box.width : 800, 
+				box.height > 0 ? box.height : 700);
+	}
+	
+	
+	
 	/**
 	 * Return the title on the preview photo.
 	 * 
@@ -0,0 +1,67 @@
+package gui;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+import model.Photo;
+
+/**
+ * PhotoListModel is the model of a ThumbnailGrid. It shows a list of
+ * photos without copying it, so a list that reads its photos only when
+ * asked, like PhotoManager.getPhotoList, is only read for the cells
+ * painted. Photos added later are kept after it.
+ */
+public class PhotoListModel extends AbstractListModel<Photo> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The photos shown first, never copied */
+	private List<Photo> base;
+
+	/** Photos added after base */
+	private List<Photo> added;
+
+
+	/**
+	 * Create a PhotoListModel showing the given photos.
+	 *
+	 * @param base
+	 * 			photos to show, which must not change afterwards
+	 */
+	public PhotoListModel(List<Photo> base){
+		this.base = base;
+		added = new ArrayList<Photo>();
+	}
+
+
+	/**
+	 * Add photos after the ones shown.
+	 *
+	 * @param photos
+	 * 			photos to add
+	 */
+	public void addAll(Collection<Photo> photos){
+		if(photos.isEmpty())
+			return;
+		int first = getSize();
+		added.addAll(photos);
+		fireIntervalAdded(this, first, getSize() - 1);
+	}
+
+
+	@Override
+	public int getSize() {
+		return base.size() + added.size();
+	}
+
+
+	@Override
+	public Photo getElementAt(int index) {
+		if(index < base.size())
+			return base.get(index);
+		return added.get(index - base.size());
+	}
+}
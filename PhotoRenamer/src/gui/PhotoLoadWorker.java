@@ -0,0 +1,157 @@
+package gui;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import model.LoadListener;
+import model.Mediator;
+import model.Photo;
+import model.PhotoLoader;
+import model.PhotoManager;
+import model.ScanReport;
+import model.TagManager;
+
+/**
+ * PhotoLoadWorker loads a directory off the event dispatch thread.
+ * Photos are published to the MainWindow in batches as they are found,
+ * so the first thumbnails show up while the scan is still running.
+ * The directory is rescanned, so photos tracked already cost little.
+ */
+public class PhotoLoadWorker extends SwingWorker<ScanReport, Photo> implements LoadListener {
+
+	/** Logger instance for logging use */
+	private static final Logger logger =
+			Logger.getLogger(PhotoLoadWorker.class.getName());
+
+	/** The window photos are shown in */
+	private MainWindow mainWindow;
+
+	/** The directory to load */
+	private File directory;
+
+	/** The managers, set once they are read */
+	private PhotoManager pManager;
+	private Mediator mediator;
+
+	/** Photos the rescan stopped tracking */
+	private List<Photo> removed = Collections.synchronizedList(new ArrayList<Photo>());
+
+
+	/**
+	 * Create a PhotoLoadWorker.
+	 *
+	 * @param mainWindow
+	 * 			the window photos are shown in
+	 * @param directory
+	 * 			the directory to load
+	 */
+	public PhotoLoadWorker(MainWindow mainWindow, File directory){
+		this.mainWindow = mainWindow;
+		this.directory = directory;
+	}
+
+
+	/**
+	 * Get the directory this worker loads.
+	 *
+	 * @return File
+	 * 			the directory
+	 */
+	public File getDirectory(){
+		return directory;
+	}
+
+
+	/**
+	 * Read the managers, show the photos they already track, then scan
+	 * the directory for new ones. Tracked photos are not read here, the
+	 * grid reads the ones it shows.
+	 */
+	@Override
+	protected ScanReport doInBackground() throws Exception {
+		// Init tag manager and photo manager
+		final TagManager tManager = new TagManager("Tag.ser");
+		final PhotoManager pManager = new PhotoManager("Photo.ser");
+		final Mediator mediator = Mediator.getInstance(tManager, pManager);
+		// Taken before the scan adds photos, which are published instead
+		final List<Photo> tracked = pManager.getPhotoList();
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if(!isCancelled()){
+					mainWindow.setManagers(tManager, pManager, mediator);
+					mainWindow.showPhotos(tracked);
+				}
+			}
+		});
+
+		this.pManager = pManager;
+		this.mediator = mediator;
+
+		// Bring photo manager up to date with the directory
+		return PhotoLoader.rescanParallel(pManager, directory,
+				PhotoLoader.DEFAULT_PARALLELISM, this);
+	}
+
+
+	/**
+	 * Publish a photo found by the scan.
+	 */
+	@Override
+	public void photoLoaded(Photo photo) {
+		publish(photo);
+	}
+
+
+	/**
+	 * Remember a photo whose file is gone, to be taken out of the window
+	 * once the scan is over.
+	 */
+	@Override
+	public void photoRemoved(Photo photo) {
+		removed.add(photo);
+	}
+
+
+	/**
+	 * Add a batch of published photos to the window.
+	 */
+	@Override
+	protected void process(List<Photo> chunks) {
+		if(!isCancelled())
+			mainWindow.addPhotos(chunks);
+	}
+
+
+	/**
+	 * Tell the window the scan is over, whether it finished,
+	 * was cancelled or failed.
+	 */
+	@Override
+	protected void done() {
+		ScanReport report = null;
+		try {
+			report = get();
+		} catch (CancellationException e) {
+			// Keep the photos loaded so far
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.log(Level.SEVERE, "Cannot load " + directory, e.getCause());
+		}
+		if(!removed.isEmpty() && !isCancelled()){
+			mediator.photosRemoved(removed);
+			mainWindow.showPhotos(pManager.getPhotoList());
+		}
+		mainWindow.loadFinished(this, report);
+	}
+}
@@ -1,47 +1,107 @@
 package gui;
 
 
+import java.awt.Component;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.SwingConstants;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import model.Mediator;
 import model.Photo;
+import util.PreviewService;
 import gui.MainWindow;
 
-public class ThumbNail extends JLabel implements MouseListener {
+/**
+ * ThumbNail draws one cell of a ThumbnailGrid. A single ThumbNail is
+ * reused as a stamp for every cell, so it shows whichever photo was
+ * rendered last. It also handles mouse clicks on the grid's cells and
+ * selection changes, e.g. by the arrow keys, showing the chosen photo.
+ *
+ * When the mouse hovers a cell, or a cell is selected, the previews of
+ * that photo and its neighbors are prefetched, so the photo clicked or
+ * moved to next is usually shown at once.
+ */
+public class ThumbNail extends JLabel implements MouseListener, MouseMotionListener,
+		ListSelectionListener, ListCellRenderer<Photo> {
+
+	private static final long serialVersionUID = 1L;
 	
 	private Photo photo;
+	private ThumbnailGrid grid;
 	private MainWindow mainWindow;
 	private Mediator mediator;
 
+	/** Index of the cell under the mouse, -1 if none */
+	private int hovered = -1;
+
+	/** The photo last shown in the main window */
+	private Photo shown;
+
 	/**
 	 * The ThumbNail
 	 *  
-	 * @param photo
-	 * 			photo that pass in to make ThumbNail
+	 * @param grid
+	 * 			grid whose cells this ThumbNail draws
 	 * 
 	 * @param mainWindow
 	 * 			main window that pass in to display 
-	 *  
-	 * @param mediator
-	 * 			mediator that pass in.
-	 * 
-	 * @throws IOException
 	 */
-	public ThumbNail(Photo photo, MainWindow mainWindow, Mediator mediator) throws IOException {
+	public ThumbNail(ThumbnailGrid grid, MainWindow mainWindow) {
 
-		super(new ImageIcon(photo.getThumbImage()));
-		this.photo = photo; 
+		this.grid = grid;
 		this.mainWindow = mainWindow; 
-		this.addMouseListener(this);
+		setHorizontalAlignment(SwingConstants.CENTER);
+		setVerticalAlignment(SwingConstants.CENTER);
+		setOpaque(true);
+	}
+	
+	
+	
+	/**
+	 * Set the mediator that pass in.
+	 *
+	 * @param mediator
+	 * 			mediator that pass in.
+	 */
+	public void setMediator(Mediator mediator){
 		this.mediator = mediator;
 	}
 	
 	
 	
+	/**
+	 * Prepare this ThumbNail to draw the given photo's cell. If the
+	 * thumbnail image is not in memory yet, the cell is left empty and
+	 * the grid is asked to load it.
+	 */
+	@Override
+	public Component getListCellRendererComponent(JList<? extends Photo> list,
+			Photo value, int index, boolean isSelected, boolean cellHasFocus) {
+		this.photo = value;
+		BufferedImage image = grid.cachedImage(value.getThumb());
+		if(image != null){
+			setIcon(new ImageIcon(image));
+		}else{
+			setIcon(null);
+			grid.request(index);
+		}
+		setToolTipText(value.getName());
+		setBackground(isSelected ? list.getSelectionBackground() : list.getBackground());
+		setBorder(cellHasFocus ? BorderFactory.createLineBorder(list.getSelectionForeground()) : null);
+		return this;
+	}
+	
+	
+	
 	/**
 	 * Get photo that pass in
 	 * 
@@ -89,20 +149,51 @@ public class ThumbNail extends JLabel implements MouseListener {
 	 */
 	@Override
 	public void mouseClicked(MouseEvent arg0) {
-			if (arg0.getSource().getClass().equals(this.getClass())){
-				ThumbNail source = (ThumbNail) arg0.getSource();
-				System.out.println(source.getPhoto().getPath());
-				
-				mainWindow.getImageUsingLabel().setIcon(new ImageIcon(source.getPhoto().getPath()));
-				mainWindow.getImageUsingLabel().setVisible(true);
-				
-				mainWindow.getTitle().setText(photo.getName());
-				mainWindow.getTitle().setVisible(true);
-				
-				mainWindow.setPastNamesList(mediator,photo);
-				
-				mainWindow.setCurrPhoto(source.getPhoto());
-				}
+			int index = grid.indexAt(arg0.getPoint());
+			// Selecting the cell has shown it already
+			if (index >= 0 && grid.getModel().getElementAt(index) != shown){
+				show(index);
+			}
+	}
+
+
+
+	/**
+	 * Show the photo whose cell was selected, by the mouse or the keys.
+	 */
+	@Override
+	public void valueChanged(ListSelectionEvent e) {
+		int index = grid.getSelectedIndex();
+		if (!e.getValueIsAdjusting() && index >= 0){
+			show(index);
+		}
+	}
+
+
+
+	/**
+	 * Show the photo at the given index in the main window, and prefetch
+	 * the previews of its neighbors.
+	 *
+	 * @param index
+	 * 			index of the photo's cell
+	 */
+	private void show(int index){
+		Photo clicked = grid.getModel().getElementAt(index);
+		shown = clicked;
+
+		mainWindow.setCurrPhoto(clicked);
+
+		// Rendered at the preview's size off the EDT, not decoded in full here
+		mainWindow.showPreview(clicked);
+		mainWindow.getImageUsingLabel().setVisible(true);
+
+		mainWindow.getTitle().setText(clicked.getName());
+		mainWindow.getTitle().setVisible(true);
+
+		mainWindow.setPastNamesList(mediator,clicked);
+
+		mainWindow.prefetchPreviews(grid.getNeighbors(index));
 	}
 	
 
@@ -119,15 +210,54 @@ public class ThumbNail extends JLabel implements MouseListener {
 		
 	}
 
+	/**
+	 * Prefetch the previews around the cell the mouse comes in on.
+	 */
 	@Override
 	public void mouseEntered(MouseEvent e) {
-		
-			}
-	
+		hover(grid.indexAt(e.getPoint()));
+	}
+
 
+	/**
+	 * Cancel the prefetches the mouse asked for, as it has moved on, and
+	 * go back to the neighbors of the selected photo, if any.
+	 */
 	@Override
 	public void mouseExited(MouseEvent e) {
+		hovered = -1;
+		int selected = grid.getSelectedIndex();
+		if(selected >= 0)
+			mainWindow.prefetchPreviews(grid.getNeighbors(selected));
+		else
+			PreviewService.getInstance().cancelPrefetch();
+	}
+
+
+	/**
+	 * Prefetch the previews around the hovered cell when it changes.
+	 */
+	@Override
+	public void mouseMoved(MouseEvent e) {
+		hover(grid.indexAt(e.getPoint()));
+	}
+	
+
+	@Override
+	public void mouseDragged(MouseEvent e) {
+	}
+
 
+	/**
+	 * Prefetch the previews of the hovered photo and its neighbors,
+	 * cancelling the ones for the cell hovered before.
+	 */
+	private void hover(int index){
+		if(index == hovered)
+			return;
+		hovered = index;
+		if(index >= 0)
+			mainWindow.prefetchPreviews(grid.getNeighbors(index));
 	}
 
 }
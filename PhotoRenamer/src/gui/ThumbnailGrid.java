@@ -0,0 +1,297 @@
+package gui;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JList;
+import javax.swing.JViewport;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import model.Mediator;
+import model.Photo;
+import util.Thumbnail;
+import util.ThumbnailImageCache;
+import util.ThumbnailListener;
+import util.ThumbnailPipeline;
+
+/**
+ * ThumbnailGrid shows the thumbnails of all photos in a wrapping grid.
+ * Like any JList it only paints the cells in view, using one ThumbNail
+ * as a stamp for every cell, so no component is created per photo.
+ * Thumbnail images are loaded lazily for the cells in view plus a
+ * prefetch margin of one screen on each side, and are kept in
+ * ThumbnailImageCache, so memory is bounded by the cache and not
+ * by the number of photos. The photos themselves are not copied
+ * into the grid, see PhotoListModel.
+ */
+public class ThumbnailGrid extends JList<Photo> implements ThumbnailListener {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Logger instance for logging use */
+	private static final Logger logger =
+			Logger.getLogger(ThumbnailGrid.class.getName());
+
+	/** Width and height of a grid cell */
+	public static final int cellSize = 136;
+
+	/** Number of photos on each side of the hovered or selected one whose previews are prefetched */
+	public static final int PREFETCH_NEIGHBORS = 3;
+
+	/** The model holding all photos of the grid */
+	private PhotoListModel photos;
+
+	/** The cell renderer, also handling mouse clicks on cells */
+	private ThumbNail renderer;
+
+	/** Thumbnails being loaded, mapping to their cell index (EDT only) */
+	private Map<Thumbnail, Integer> loading;
+
+	/** The viewport this grid listens to for scrolling */
+	private JViewport viewport;
+
+
+	/**
+	 * Create an empty ThumbnailGrid.
+	 *
+	 * @param mainWindow
+	 * 			main window that clicked photos are displayed in
+	 */
+	public ThumbnailGrid(MainWindow mainWindow){
+		photos = new PhotoListModel(new ArrayList<Photo>());
+		loading = new IdentityHashMap<Thumbnail, Integer>();
+		renderer = new ThumbNail(this, mainWindow);
+		setModel(photos);
+		setCellRenderer(renderer);
+		addMouseListener(renderer);
+		addMouseMotionListener(renderer);
+		addListSelectionListener(renderer);
+		setLayoutOrientation(JList.HORIZONTAL_WRAP);
+		setVisibleRowCount(-1);
+		// Fixed cell size, so that JList never measures every cell
+		setFixedCellWidth(cellSize);
+		setFixedCellHeight(cellSize);
+		setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+	}
+
+
+	/**
+	 * Set the mediator used when a photo is clicked.
+	 *
+	 * @param mediator
+	 * 			the mediator we are using
+	 */
+	public void setMediator(Mediator mediator){
+		renderer.setMediator(mediator);
+	}
+
+
+	/**
+	 * Replace all photos of the grid. The list is shown as it is,
+	 * and only asked for the photos of the cells in view.
+	 *
+	 * @param newPhotos
+	 * 			photos to show, which must not change afterwards
+	 */
+	public void setPhotos(List<Photo> newPhotos){
+		photos = new PhotoListModel(newPhotos);
+		loading.clear();
+		setModel(photos);
+		prefetch();
+	}
+
+
+	/**
+	 * Add photos after the ones the grid already shows, e.g. a batch
+	 * found by a running scan.
+	 *
+	 * @param newPhotos
+	 * 			photos to add
+	 */
+	public void addPhotos(Collection<Photo> newPhotos){
+		photos.addAll(newPhotos);
+		prefetch();
+	}
+
+
+	/**
+	 * Get the photo shown in the cell at the given point.
+	 *
+	 * @param point
+	 * 			a point in this grid
+	 * @return Photo
+	 * 			the photo at the point, or null if there is none
+	 */
+	public Photo getPhotoAt(Point point){
+		int index = indexAt(point);
+		return index < 0 ? null : photos.getElementAt(index);
+	}
+
+
+	/**
+	 * Get the index of the cell at the given point.
+	 *
+	 * @param point
+	 * 			a point in this grid
+	 * @return int
+	 * 			the cell's index, or -1 if there is no cell there
+	 */
+	public int indexAt(Point point){
+		int index = locationToIndex(point);
+		if(index < 0 || !getCellBounds(index, index).contains(point))
+			return -1;
+		return index;
+	}
+
+
+	/**
+	 * Get the photo at the given index and its neighbors in grid order,
+	 * nearest first, next before previous: the photos whose previews are
+	 * worth prefetching when that cell is hovered or selected.
+	 *
+	 * @param index
+	 * 			index of the cell
+	 * @return List<Photo>
+	 * 			the photo and up to PREFETCH_NEIGHBORS photos on each side
+	 */
+	public List<Photo> getNeighbors(int index){
+		int size = photos.getSize();
+		if(index < 0 || index >= size)
+			return new ArrayList<Photo>();
+		List<Photo> near = new ArrayList<Photo>(2 * PREFETCH_NEIGHBORS + 1);
+		near.add(photos.getElementAt(index));
+		for(int d = 1; d <= PREFETCH_NEIGHBORS; d++){
+			if(index + d < size)
+				near.add(photos.getElementAt(index + d));
+			if(index - d >= 0)
+				near.add(photos.getElementAt(index - d));
+		}
+		return near;
+	}
+
+
+	/**
+	 * Start listening to the scroll position once this grid is put
+	 * in a scroll pane, so that scrolling loads the cells coming into view.
+	 */
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if(viewport == null && getParent() instanceof JViewport){
+			viewport = (JViewport) getParent();
+			viewport.addChangeListener(new ChangeListener() {
+				@Override
+				public void stateChanged(ChangeEvent e) {
+					prefetch();
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Request the thumbnails of the cells in view and a margin of one
+	 * screen before and after them.
+	 */
+	public void prefetch(){
+		if(photos.getSize() == 0)
+			return;
+		Rectangle view = getVisibleRect();
+		int first = locationToIndex(view.getLocation());
+		int last = locationToIndex(new Point(view.x + view.width - 1, view.y + view.height - 1));
+		if(first < 0 || last < 0)
+			return;
+		int margin = last - first + 1;
+		int from = Math.max(0, first - margin);
+		int to = Math.min(photos.getSize() - 1, last + margin);
+		for(int i = from; i <= to; i++){
+			request(i);
+		}
+	}
+
+
+	/**
+	 * Request the thumbnail image of the cell at the given index, unless
+	 * it is already in memory or being loaded.
+	 *
+	 * @param index
+	 * 			index of the cell
+	 */
+	public void request(int index){
+		Thumbnail thumb = photos.getElementAt(index).getThumb();
+		if(loading.containsKey(thumb) || cachedImage(thumb) != null)
+			return;
+		loading.put(thumb, index);
+		ThumbnailPipeline.getInstance().submitFirst(thumb, this);
+	}
+
+
+	/**
+	 * Get the thumbnail image if it is in memory already.
+	 *
+	 * @param thumb
+	 * 			the thumbnail
+	 * @return BufferedImage
+	 * 			the image, or null if it has to be loaded first
+	 */
+	BufferedImage cachedImage(Thumbnail thumb){
+		if(!thumb.isReady())
+			return null;
+		return ThumbnailImageCache.getInstance().get(thumb.getPath());
+	}
+
+
+	/**
+	 * Read the finished thumbnail into ThumbnailImageCache on the
+	 * pipeline thread, then repaint its cell.
+	 */
+	@Override
+	public void thumbnailReady(final Thumbnail thumb) {
+		try {
+			thumb.readThumbImage();
+		} catch (IOException e) {
+			thumbnailFailed(thumb, e);
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				Integer index = loading.remove(thumb);
+				if(index != null && index < photos.getSize()){
+					Rectangle cell = getCellBounds(index, index);
+					if(cell != null)
+						repaint(cell);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Leave the cell empty when the thumbnail cannot be written, and
+	 * forget it is loading so that it is requested again when its cell
+	 * next comes into view.
+	 */
+	@Override
+	public void thumbnailFailed(final Thumbnail thumb, IOException e) {
+		logger.log(Level.WARNING, "Cannot load thumbnail of " + thumb.getPhoto().getPath(), e);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				loading.remove(thumb);
+			}
+		});
+	}
+}
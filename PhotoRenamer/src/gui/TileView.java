@@ -0,0 +1,273 @@
+package gui;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+
+import util.ThumbnailImageCache;
+import util.TilePyramid;
+
+/**
+ * TileView shows a very large image one level of its TilePyramid at a
+ * time, at 1:1, inside a scroll pane. Only the tiles in view are read,
+ * in background, and kept in a ThumbnailImageCache bounded by bytes, so
+ * the memory used depends on the size of the screen, not of the image.
+ * Until a tile is read, the tile of a coarser level covering it is
+ * drawn scaled up if it is in memory.
+ *
+ * The mouse wheel zooms in and out by one level, keeping the point
+ * under the mouse in place.
+ */
+public class TileView extends JComponent implements MouseWheelListener {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Logger instance for logging use */
+	private static final Logger logger =
+			Logger.getLogger(TileView.class.getName());
+
+	/** The image shown */
+	private TilePyramid pyramid;
+
+	/** The level shown */
+	private volatile int level;
+
+	/** The tiles in memory, by level/column/row */
+	private ThumbnailImageCache tiles;
+
+	/** The executor that reads tiles */
+	private ThreadPoolExecutor loader;
+
+	/** Tiles being read, or that failed (EDT only) */
+	private Set<String> loading = new HashSet<String>();
+
+	/** The tiles in view, as columns and rows of the level shown */
+	private volatile Rectangle wanted = new Rectangle();
+
+
+	/**
+	 * Create a TileView.
+	 *
+	 * @param pyramid
+	 * 			the image to show
+	 * @param budget
+	 * 			largest number of bytes of tiles kept in memory
+	 */
+	public TileView(TilePyramid pyramid, long budget){
+		this.pyramid = pyramid;
+		this.tiles = new ThumbnailImageCache(budget);
+		loader = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "tile-loader");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		setLevel(pyramid.getLevels() - 1);
+		addMouseWheelListener(this);
+	}
+
+
+	/**
+	 * Get the level shown.
+	 *
+	 * @return int
+	 * 			the level, 0 for the original size
+	 */
+	public int getLevel(){
+		return level;
+	}
+
+
+	/**
+	 * Show the given level, from its top left corner.
+	 *
+	 * @param level
+	 * 			the level, 0 for the original size
+	 */
+	public void setLevel(int level){
+		this.level = Math.max(0, Math.min(pyramid.getLevels() - 1, level));
+		setPreferredSize(new Dimension(pyramid.getWidth(this.level), pyramid.getHeight(this.level)));
+		revalidate();
+		repaint();
+	}
+
+
+	/**
+	 * Show the largest level that fits in a box, e.g. the viewport.
+	 *
+	 * @param box
+	 * 			the size of the box
+	 */
+	public void fit(Dimension box){
+		double scale = Math.min(1.0 * box.width / pyramid.getWidth(0),
+				1.0 * box.height / pyramid.getHeight(0));
+		int fit = pyramid.getLevelFor(scale);
+		// getLevelFor may give a level a bit too big to fit
+		if(pyramid.getWidth(fit) > box.width || pyramid.getHeight(fit) > box.height)
+			fit = Math.min(pyramid.getLevels() - 1, fit + 1);
+		setLevel(fit);
+	}
+
+
+	/**
+	 * Zoom in or out by one level, keeping the point under the mouse in place.
+	 */
+	@Override
+	public void mouseWheelMoved(MouseWheelEvent e) {
+		int newLevel = level + (e.getWheelRotation() < 0 ? -1 : 1);
+		if(newLevel < 0 || newLevel >= pyramid.getLevels())
+			return;
+		JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+		Point anchor = e.getPoint();
+		double factor = 1.0 * (1L << level) / (1L << newLevel);
+		setLevel(newLevel);
+		if(viewport != null){
+			Point view = viewport.getViewPosition();
+			Dimension extent = viewport.getExtentSize();
+			Dimension size = getPreferredSize();
+			viewport.setViewSize(size);
+			int x = (int) (anchor.x * factor) - (anchor.x - view.x);
+			int y = (int) (anchor.y * factor) - (anchor.y - view.y);
+			viewport.setViewPosition(new Point(
+					Math.max(0, Math.min(x, size.width - extent.width)),
+					Math.max(0, Math.min(y, size.height - extent.height))));
+		}
+	}
+
+
+	/**
+	 * Stop reading tiles, once this view is not shown any more.
+	 */
+	public void close(){
+		loader.shutdownNow();
+	}
+
+
+	/**
+	 * Draw the tiles in the clip, asking for the ones not in memory.
+	 */
+	@Override
+	protected void paintComponent(Graphics g) {
+		int size = TilePyramid.TILE_SIZE;
+		int lastCol = pyramid.getColumns(level) - 1;
+		int lastRow = pyramid.getRows(level) - 1;
+
+		Rectangle visible = getVisibleRect();
+		int c0 = Math.max(0, visible.x / size);
+		int r0 = Math.max(0, visible.y / size);
+		wanted = new Rectangle(c0, r0,
+				Math.min(lastCol, (visible.x + visible.width - 1) / size) - c0 + 1,
+				Math.min(lastRow, (visible.y + visible.height - 1) / size) - r0 + 1);
+
+		Rectangle clip = g.getClipBounds();
+		if(clip == null)
+			clip = new Rectangle(getSize());
+		g.setColor(getBackground());
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		for(int row = Math.max(0, clip.y / size);
+				row <= Math.min(lastRow, (clip.y + clip.height - 1) / size); row++){
+			for(int col = Math.max(0, clip.x / size);
+					col <= Math.min(lastCol, (clip.x + clip.width - 1) / size); col++){
+				BufferedImage tile = tiles.get(keyOf(level, col, row));
+				if(tile != null){
+					g.drawImage(tile, col * size, row * size, null);
+				}else{
+					paintCoarser(g, col, row);
+					load(level, col, row);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Draw the part of the closest coarser tile in memory that covers a
+	 * tile not read yet, scaled up.
+	 */
+	private void paintCoarser(Graphics g, int col, int row){
+		int size = TilePyramid.TILE_SIZE;
+		int x = col * size;
+		int y = row * size;
+		int w = Math.min(size, pyramid.getWidth(level) - x);
+		int h = Math.min(size, pyramid.getHeight(level) - y);
+		for(int up = level + 1; up < pyramid.getLevels(); up++){
+			int factor = 1 << (up - level);
+			BufferedImage parent = tiles.get(keyOf(up, col / factor, row / factor));
+			if(parent != null){
+				int sx = x / factor - (col / factor) * size;
+				int sy = y / factor - (row / factor) * size;
+				g.drawImage(parent, x, y, x + w, y + h, sx, sy,
+						sx + Math.max(1, w / factor), sy + Math.max(1, h / factor), null);
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Read a tile in background and repaint it once read. A tile that
+	 * has left the view before its turn comes is not read.
+	 */
+	private void load(final int tileLevel, final int col, final int row){
+		final String key = keyOf(tileLevel, col, row);
+		if(!loading.add(key))
+			return;
+		loader.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(tileLevel != level || !wanted.contains(col, row)){
+					done(key, false);
+					return;
+				}
+				try {
+					tiles.put(key, pyramid.readTile(tileLevel, col, row));
+					done(key, true);
+				} catch (IOException e) {
+					// Left in loading, so it is not read again and again
+					logger.log(Level.WARNING, "Cannot read tile " + key, e);
+				}
+			}
+
+			private void done(final String key, final boolean read){
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						loading.remove(key);
+						if(read && tileLevel == level){
+							int size = TilePyramid.TILE_SIZE;
+							repaint(col * size, row * size, size, size);
+						}
+					}
+				});
+			}
+		});
+	}
+
+
+	/**
+	 * Get the cache key of a tile.
+	 */
+	private static String keyOf(int level, int col, int row){
+		return level + "/" + col + "/" + row;
+	}
+}
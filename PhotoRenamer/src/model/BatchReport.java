@@ -0,0 +1,170 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * BatchReport tells what a batch operation on many photos did to each
+ * of them: renamed, left unchanged, or failed with an exception.
+ */
+public class BatchReport {
+
+	/** What happened to one photo */
+	public enum Status { RENAMED, UNCHANGED, FAILED }
+
+	/**
+	 * The result of a batch operation for one photo.
+	 */
+	public static class Result {
+
+		/** The photo */
+		private Photo photo;
+
+		/** What happened to it */
+		private Status status;
+
+		/** Its name before the operation */
+		private String oldName;
+
+		/** Its name after the operation */
+		private String newName;
+
+		/** Why it failed, null unless FAILED */
+		private Exception error;
+
+
+		/**
+		 * Create a Result.
+		 *
+		 * @param photo
+		 * 			the photo
+		 * @param status
+		 * 			what happened to it
+		 * @param oldName
+		 * 			its name before the operation
+		 * @param newName
+		 * 			its name after the operation
+		 * @param error
+		 * 			why it failed, null unless FAILED
+		 */
+		public Result(Photo photo, Status status, String oldName, String newName, Exception error){
+			this.photo = photo;
+			this.status = status;
+			this.oldName = oldName;
+			this.newName = newName;
+			this.error = error;
+		}
+
+
+		/**
+		 * @return the photo
+		 */
+		public Photo getPhoto(){
+			return photo;
+		}
+
+
+		/**
+		 * @return what happened to the photo
+		 */
+		public Status getStatus(){
+			return status;
+		}
+
+
+		/**
+		 * @return the photo's name before the operation
+		 */
+		public String getOldName(){
+			return oldName;
+		}
+
+
+		/**
+		 * @return the photo's name after the operation
+		 */
+		public String getNewName(){
+			return newName;
+		}
+
+
+		/**
+		 * @return why the photo failed, null unless FAILED
+		 */
+		public Exception getError(){
+			return error;
+		}
+
+
+		@Override
+		public String toString(){
+			if(status == Status.FAILED)
+				return status + " " + oldName + ": " + error.getMessage();
+			return status + " " + oldName + " -> " + newName;
+		}
+	}
+
+
+	/** The results, in the order the photos were given */
+	private List<Result> results;
+
+
+	/**
+	 * Create a BatchReport of the given results.
+	 *
+	 * @param results
+	 * 			the results, in the order the photos were given
+	 */
+	public BatchReport(List<Result> results){
+		this.results = results;
+	}
+
+
+	/**
+	 * Get the result for every photo.
+	 *
+	 * @return List<Result>
+	 * 			the results, in the order the photos were given
+	 */
+	public List<Result> getResults(){
+		return Collections.unmodifiableList(results);
+	}
+
+
+	/**
+	 * Get the results with the given status.
+	 *
+	 * @param status
+	 * 			the status
+	 * @return List<Result>
+	 * 			the results with that status
+	 */
+	public List<Result> getResults(Status status){
+		List<Result> result = new ArrayList<Result>();
+		for(Result r: results){
+			if(r.getStatus() == status)
+				result.add(r);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Tell if no photo failed.
+	 *
+	 * @return boolean
+	 * 			true if every photo was renamed or left unchanged
+	 */
+	public boolean isSuccessful(){
+		return getResults(Status.FAILED).isEmpty();
+	}
+
+
+	@Override
+	public String toString(){
+		return getResults(Status.RENAMED).size() + " renamed, "
+				+ getResults(Status.UNCHANGED).size() + " unchanged, "
+				+ getResults(Status.FAILED).size() + " failed";
+	}
+}
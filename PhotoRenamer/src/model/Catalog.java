@@ -0,0 +1,403 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Catalog gives access to a catalog file written by CatalogWriter
+ * without reading it: the file is memory-mapped and an entry, or a
+ * string, is only decoded when asked for. Entries are sorted by key,
+ * so finding one by key only touches the pages a binary search visits.
+ *
+ * Files of version 1 have no index; their entries can only be read
+ * one after another, starting from getReader(). Entries of files before
+ * version 4 have no id of their own; their index is used as id.
+ *
+ * A Catalog never changes the file, and is safe to use from several
+ * threads at once.
+ */
+public class Catalog {
+
+	/** The whole file, only ever read with absolute gets */
+	private ByteBuffer buffer;
+
+	/** The format version of the file */
+	private int version;
+
+	/** Number of strings in the string table */
+	private int stringCount;
+
+	/** Number of entries */
+	private int size;
+
+	/** Number of ids removed before the file was written */
+	private int removedCount;
+
+	/** Where each table of the file starts */
+	private int stringIndex, entryIndex, keyIndex, idIndex, flagIndex, byIdIndex, removedIndex, 
+			stringData, entryData;
+
+	/** The string table of a version 1 file, read when opened */
+	private String[] strings;
+
+	/** The mapped file, null if the bytes were not mapped by map */
+	private Path path;
+
+
+	/**
+	 * Create a Catalog over the given bytes of a catalog file,
+	 * reading only its header.
+	 *
+	 * @param buffer
+	 * 			the bytes of the file
+	 * @throws IOException
+	 * 			if the bytes are not a catalog file this class understands
+	 */
+	public Catalog(ByteBuffer buffer) throws IOException{
+		this.buffer = buffer;
+		if(buffer.limit() < 5 || buffer.getInt(0) != CatalogWriter.MAGIC)
+			throw new IOException("Not a catalog file");
+		version = buffer.get(4) & 0xFF;
+		if(version == 1){
+			readVersion1();
+		}else if(version == CatalogWriter.VERSION){
+			// The tables are after the data, and found through the last bytes
+			int end = buffer.limit() - 12;
+			if(end < 5)
+				throw new IOException("Truncated catalog file");
+			size = buffer.getInt(end);
+			removedCount = buffer.getInt(end + 4);
+			entryIndex = buffer.getInt(end + 8);
+			keyIndex = entryIndex + size * 4;
+			idIndex = keyIndex + size * 4;
+			flagIndex = idIndex + size * 4;
+			byIdIndex = flagIndex + size;
+			removedIndex = byIdIndex + size * 4;
+			if(entryIndex < 5 || removedIndex + removedCount * 4 != end)
+				throw new IOException("Truncated catalog file");
+		}else if(version >= 2 && version < CatalogWriter.VERSION){
+			stringCount = buffer.getInt(5);
+			size = buffer.getInt(9);
+			stringIndex = 13;
+			entryIndex = stringIndex + (stringCount + 1) * 4;
+			keyIndex = entryIndex + size * 4;
+			flagIndex = keyIndex + size * 4;
+			stringData = flagIndex + size;
+			entryData = stringData + buffer.getInt(stringIndex + stringCount * 4);
+		}else{
+			throw new IOException("Unsupported catalog version: " + version);
+		}
+	}
+
+
+	/**
+	 * Memory-map the catalog file at the given path.
+	 * The mapping stays valid after the file is replaced.
+	 *
+	 * @param path
+	 * 			path of the catalog file
+	 * @return Catalog
+	 * 			the catalog
+	 * @throws IOException
+	 */
+	public static Catalog map(Path path) throws IOException{
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			Catalog catalog = new Catalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			catalog.path = path;
+			return catalog;
+		}
+	}
+
+
+	/**
+	 * Get the file this catalog was mapped from.
+	 *
+	 * @return Path
+	 * 			the file, or null if not made by map
+	 */
+	public Path getPath(){
+		return path;
+	}
+
+
+	/**
+	 * Read the string table of a version 1 file, where strings are
+	 * stored one after another with their length before them.
+	 *
+	 * @throws IOException
+	 */
+	private void readVersion1() throws IOException{
+		CatalogReader in = new CatalogReader(this, 5);
+		strings = new String[in.readVarInt()];
+		for(int i = 0; i < strings.length; i++){
+			int length = in.readVarInt();
+			strings[i] = decode(in.getPosition(), length);
+			in.skip(length);
+		}
+		entryData = in.getPosition();
+		size = -1;
+	}
+
+
+	/**
+	 * Get the format version of the file.
+	 *
+	 * @return int
+	 * 			the version
+	 */
+	public int getVersion(){
+		return version;
+	}
+
+
+	/**
+	 * Tell if entries can be found by index and key, which all but
+	 * version 1 files allow.
+	 *
+	 * @return boolean
+	 * 			true if the file has an index
+	 */
+	public boolean isIndexed(){
+		return strings == null;
+	}
+
+
+	/**
+	 * Get the number of entries of an indexed file.
+	 *
+	 * @return int
+	 * 			the number of entries
+	 */
+	public int size(){
+		return size;
+	}
+
+
+	/**
+	 * Get the key of the entry at the given index.
+	 *
+	 * @param index
+	 * 			index of the entry, in key order
+	 * @return String
+	 * 			the key
+	 */
+	public String getKey(int index){
+		return getString(buffer.getInt(keyIndex + index * 4));
+	}
+
+
+	/**
+	 * Get the id of the entry at the given index.
+	 *
+	 * @param index
+	 * 			index of the entry, in key order
+	 * @return int
+	 * 			the id; the index itself before version 4
+	 */
+	public int getId(int index){
+		return version < 4 ? index : buffer.getInt(idIndex + index * 4);
+	}
+
+
+	/**
+	 * Get the id of the given rank among the ids of the entries.
+	 *
+	 * @param rank
+	 * 			the rank, 0 for the smallest id
+	 * @return int
+	 * 			the id
+	 */
+	public int getSortedId(int rank){
+		return version < 4 ? rank : getId(buffer.getInt(byIdIndex + rank * 4));
+	}
+
+
+	/**
+	 * Find the entry with the given id.
+	 *
+	 * @param id
+	 * 			the id
+	 * @return int
+	 * 			index of the entry, or -1 if there is none
+	 */
+	public int indexOfId(int id){
+		if(version < 4)
+			return id >= 0 && id < size ? id : -1;
+		int low = 0;
+		int high = size - 1;
+		while(low <= high){
+			int mid = (low + high) >>> 1;
+			int index = buffer.getInt(byIdIndex + mid * 4);
+			int other = getId(index);
+			if(other < id)
+				low = mid + 1;
+			else if(other > id)
+				high = mid - 1;
+			else
+				return index;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Get the number of ids removed before the file was written, whose
+	 * entries in older files are no longer used.
+	 *
+	 * @return int
+	 * 			the number of removed ids
+	 */
+	public int getRemovedCount(){
+		return removedCount;
+	}
+
+
+	/**
+	 * Get a removed id.
+	 *
+	 * @param rank
+	 * 			the rank, 0 for the smallest removed id
+	 * @return int
+	 * 			the id
+	 */
+	public int getRemoved(int rank){
+		return buffer.getInt(removedIndex + rank * 4);
+	}
+
+
+	/**
+	 * Get the flags the entry at the given index was written with.
+	 *
+	 * @param index
+	 * 			index of the entry, in key order
+	 * @return int
+	 * 			the flags
+	 */
+	public int getFlags(int index){
+		return buffer.get(flagIndex + index) & 0xFF;
+	}
+
+
+	/**
+	 * Find the entry with the given key.
+	 *
+	 * @param key
+	 * 			the key
+	 * @return int
+	 * 			index of the entry, or -1 if there is none
+	 */
+	public int indexOf(String key){
+		int low = 0;
+		int high = size - 1;
+		while(low <= high){
+			int mid = (low + high) >>> 1;
+			int c = getKey(mid).compareTo(key);
+			if(c < 0)
+				low = mid + 1;
+			else if(c > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Get a reader positioned on the entry at the given index.
+	 *
+	 * @param index
+	 * 			index of the entry, in key order
+	 * @return CatalogReader
+	 * 			a reader of the entry
+	 */
+	public CatalogReader getReader(int index){
+		// Since version 4, entries are found by their position in the file
+		return new CatalogReader(this, (version < 4 ? entryData : 0) + buffer.getInt(entryIndex + index * 4));
+	}
+
+
+	/**
+	 * Get a reader positioned on the entries of a version 1 file,
+	 * which start with their number.
+	 *
+	 * @return CatalogReader
+	 * 			a reader of all entries
+	 */
+	public CatalogReader getReader(){
+		return new CatalogReader(this, entryData);
+	}
+
+
+	/**
+	 * Get a string of the string table, or since version 4, of the data.
+	 *
+	 * @param id
+	 * 			number of the string, or since version 4, its position
+	 * @return String
+	 * 			the string
+	 * @throws IndexOutOfBoundsException
+	 * 			if there is no such string
+	 */
+	public String getString(int id){
+		if(strings != null)
+			return strings[id];
+		if(version >= 4){
+			// The string's length, then its bytes
+			if(id < 5 || id >= entryIndex)
+				throw new IndexOutOfBoundsException("Malformed catalog string: " + id);
+			CatalogReader in = new CatalogReader(this, id);
+			try{
+				int length = in.readVarInt();
+				if(in.getPosition() + length > entryIndex)
+					throw new IndexOutOfBoundsException("Malformed catalog string: " + id);
+				return decode(in.getPosition(), length);
+			}catch(IOException e){
+				throw new IndexOutOfBoundsException("Malformed catalog string: " + id);
+			}
+		}
+		if(id < 0 || id >= stringCount)
+			throw new IndexOutOfBoundsException("Malformed catalog string: " + id);
+		int start = buffer.getInt(stringIndex + id * 4);
+		int end = buffer.getInt(stringIndex + id * 4 + 4);
+		return decode(stringData + start, end - start);
+	}
+
+
+	/**
+	 * Get a byte of the file.
+	 *
+	 * @param position
+	 * 			position of the byte
+	 * @return int
+	 * 			the byte, or -1 past the end of the file
+	 */
+	int getByte(int position){
+		if(position >= buffer.limit())
+			return -1;
+		return buffer.get(position) & 0xFF;
+	}
+
+
+	/**
+	 * Decode UTF-8 bytes of the file.
+	 *
+	 * @param position
+	 * 			position of the first byte
+	 * @param length
+	 * 			number of bytes
+	 * @return String
+	 * 			the decoded string
+	 */
+	private String decode(int position, int length){
+		byte[] bytes = new byte[length];
+		ByteBuffer b = buffer.duplicate();
+		b.position(position);
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,127 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * CatalogReader reads one entry of a Catalog, starting at the position
+ * the Catalog gives it. Each reader keeps its own position, so several
+ * entries can be read at once from different threads.
+ */
+public class CatalogReader {
+
+	/** The catalog being read */
+	private Catalog catalog;
+
+	/** Position of the next byte to read */
+	private int position;
+
+
+	/**
+	 * Create a CatalogReader.
+	 *
+	 * @param catalog
+	 * 			the catalog being read
+	 * @param position
+	 * 			position of the first byte to read
+	 */
+	CatalogReader(Catalog catalog, int position){
+		this.catalog = catalog;
+		this.position = position;
+	}
+
+
+	/**
+	 * Read a non-negative integer written by CatalogWriter.writeVarInt.
+	 *
+	 * @return int
+	 * 			the integer read
+	 * @throws IOException
+	 */
+	public int readVarInt() throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7){
+			int b = catalog.getByte(position++);
+			if(b < 0)
+				throw new EOFException();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed catalog number");
+	}
+
+
+	/**
+	 * Read a non-negative long written by CatalogWriter.writeVarLong.
+	 *
+	 * @return long
+	 * 			the long read
+	 * @throws IOException
+	 */
+	public long readVarLong() throws IOException{
+		long value = 0;
+		for(int shift = 0; shift < 70; shift += 7){
+			int b = catalog.getByte(position++);
+			if(b < 0)
+				throw new EOFException();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed catalog number");
+	}
+
+
+	/**
+	 * Get the format version of the catalog being read, so a Manager
+	 * can read entries written by older versions.
+	 *
+	 * @return int
+	 * 			the version
+	 */
+	public int getVersion(){
+		return catalog.getVersion();
+	}
+
+
+	/**
+	 * Read a string written by CatalogWriter.writeString.
+	 *
+	 * @return String
+	 * 			the string read, may be null
+	 * @throws IOException
+	 */
+	public String readString() throws IOException{
+		int id = readVarInt();
+		if(id == 0)
+			return null;
+		try{
+			return catalog.getString(id - 1);
+		}catch(IndexOutOfBoundsException e){
+			throw new IOException(e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Get the position of the next byte to read.
+	 *
+	 * @return int
+	 * 			the position
+	 */
+	int getPosition(){
+		return position;
+	}
+
+
+	/**
+	 * Skip bytes.
+	 *
+	 * @param n
+	 * 			number of bytes to skip
+	 */
+	void skip(int n){
+		position += n;
+	}
+}
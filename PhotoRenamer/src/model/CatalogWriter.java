@@ -0,0 +1,333 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import util.CompressedBitmap;
+
+/**
+ * CatalogWriter writes a catalog file in the compact binary format read by
+ * Catalog, as the entries are written: only the tables, a few numbers per
+ * entry, are kept in memory until finish is called. Entries are written
+ * in order of their key, and numbers inside entries are written as
+ * variable-length integers (7 bits per byte).
+ *
+ * A string is written once, before the first entry that uses it, as its
+ * length and its UTF-8 bytes, and entries refer to it by its position.
+ * Only recently used strings are remembered, so a string used far apart
+ * may be written again.
+ *
+ * The tables after the data have fixed-size items, so that a Catalog can
+ * memory-map the file and find any entry, by key or by id, without
+ * reading the rest.
+ *
+ * File layout:
+ * <pre>
+ *   int     MAGIC
+ *   byte    VERSION
+ *   ...     strings and entries, as written by the Manager
+ *   int[N]  where each entry starts, in key order
+ *   int[N]  where each entry's key starts, in key order
+ *   int[N]  id of each entry, in key order
+ *   byte[N] flags of each entry, in key order
+ *   int[N]  index of each entry, in id order
+ *   int[R]  ids removed before the file was written, increasing
+ *   int     number of entries N
+ *   int     number of removed ids R
+ *   int     where the tables start
+ * </pre>
+ *
+ * Versions 2 and 3 had a string table and the tables before the data,
+ * and entries had no id; see Catalog.
+ */
+public class CatalogWriter {
+
+	/** The first four bytes of every catalog file: "PRCT" */
+	public static final int MAGIC = 0x50524354;
+
+	/** Format version written by this writer */
+	public static final int VERSION = 4;
+
+	/** Number of recently used strings remembered */
+	private static final int RECENT_STRINGS = 4096;
+
+	/** The file being written */
+	private DataOutputStream out;
+
+	/** Number of bytes written to out */
+	private long written;
+
+	/** Position of each recently used string */
+	private Map<String, Integer> recent;
+
+	/** Strings first used by the current entry, written before it */
+	private ByteArrayOutputStream strings;
+
+	/** The current entry */
+	private ByteArrayOutputStream body;
+
+	/** The key of the current entry, null before the first */
+	private String lastKey;
+
+	/** Number of entries begun */
+	private int size;
+
+	/** Where each entry, and its key, starts; in key order */
+	private int[] entries, keys;
+
+	/** The id of each entry, in key order */
+	private int[] ids;
+
+	/** The flags of each entry, in key order */
+	private byte[] flags;
+
+	/** Ids removed before the file was written */
+	private CompressedBitmap removed;
+
+
+	/**
+	 * Create a CatalogWriter that writes a catalog file to the given
+	 * stream, starting with its header.
+	 *
+	 * @param os
+	 * 			the stream to write to
+	 * @throws IOException
+	 */
+	public CatalogWriter(OutputStream os) throws IOException{
+		out = new DataOutputStream(os);
+		recent = new LinkedHashMap<String, Integer>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+				return size() > RECENT_STRINGS;
+			}
+		};
+		strings = new ByteArrayOutputStream();
+		body = new ByteArrayOutputStream();
+		entries = new int[16];
+		keys = new int[16];
+		ids = new int[16];
+		flags = new byte[16];
+		removed = new CompressedBitmap();
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		written = 5;
+	}
+
+
+	/**
+	 * Start a new entry, writing out the one before. Everything written
+	 * until the next call belongs to this entry.
+	 *
+	 * @param key
+	 * 			the key the entry can be found by, after the key of
+	 * 			the entry before
+	 * @param id
+	 * 			the id the entry can be found by, unique in the catalog
+	 * @param flag
+	 * 			a byte of flags that can be read without reading the entry
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 * 			if the key is not after the key of the entry before
+	 */
+	public void beginEntry(String key, int id, int flag) throws IOException{
+		if(lastKey != null && lastKey.compareTo(key) >= 0)
+			throw new IllegalArgumentException("Key out of order: " + key);
+		endEntry();
+		lastKey = key;
+		if(size == ids.length){
+			entries = Arrays.copyOf(entries, size * 2);
+			keys = Arrays.copyOf(keys, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+			flags = Arrays.copyOf(flags, size * 2);
+		}
+		keys[size] = intern(key);
+		ids[size] = id;
+		flags[size] = (byte) flag;
+		size++;
+	}
+
+
+	/**
+	 * Write a non-negative integer using as few bytes as needed.
+	 *
+	 * @param value
+	 * 			the integer to write
+	 */
+	public void writeVarInt(int value){
+		writeVarInt(body, value);
+	}
+
+
+	/**
+	 * Write a non-negative long using as few bytes as needed.
+	 *
+	 * @param value
+	 * 			the long to write
+	 */
+	public void writeVarLong(long value){
+		while((value & ~0x7FL) != 0){
+			body.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		body.write((int) value);
+	}
+
+
+	/**
+	 * Write a string, which may be null, as its position in the file.
+	 *
+	 * @param s
+	 * 			the string to write
+	 */
+	public void writeString(String s){
+		// 0 is kept for null, so the string at position p is written as p + 1
+		writeVarInt(s == null ? 0 : intern(s) + 1);
+	}
+
+
+	/**
+	 * Record that the object with the given id was removed before this
+	 * file was written, so that an older file's entry of it is not used.
+	 *
+	 * @param id
+	 * 			the id
+	 */
+	public void addRemoved(int id){
+		removed.add(id);
+	}
+
+
+	/**
+	 * Get the number of entries begun.
+	 *
+	 * @return int
+	 * 			the number of entries
+	 */
+	public int size(){
+		return size;
+	}
+
+
+	/**
+	 * Write out the last entry, then the tables, and flush the stream.
+	 * Nothing can be written afterwards.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException{
+		endEntry();
+		int tables = position(0);
+		for(int i = 0; i < size; i++){
+			out.writeInt(entries[i]);
+		}
+		for(int i = 0; i < size; i++){
+			out.writeInt(keys[i]);
+		}
+		for(int i = 0; i < size; i++){
+			out.writeInt(ids[i]);
+		}
+		out.write(flags, 0, size);
+
+		// Index entries in id order; ids and indexes both fit in an int
+		long[] byId = new long[size];
+		for(int i = 0; i < size; i++){
+			byId[i] = (long) ids[i] << 32 | i;
+		}
+		Arrays.sort(byId);
+		for(long l: byId){
+			out.writeInt((int) l);
+		}
+
+		int[] gone = removed.toArray();
+		for(int id: gone){
+			out.writeInt(id);
+		}
+		out.writeInt(size);
+		out.writeInt(gone.length);
+		out.writeInt(tables);
+		out.flush();
+	}
+
+
+	/**
+	 * Write out the current entry, after the strings it first used.
+	 *
+	 * @throws IOException
+	 */
+	private void endEntry() throws IOException{
+		if(lastKey == null)
+			return;
+		entries[size - 1] = position(strings.size());
+		strings.writeTo(out);
+		body.writeTo(out);
+		written += strings.size() + body.size();
+		strings.reset();
+		body.reset();
+	}
+
+
+	/**
+	 * Get the position of a recently used string, writing the string
+	 * before the current entry if it was not used recently.
+	 *
+	 * @param s
+	 * 			the string
+	 * @return int
+	 * 			the string's position
+	 */
+	private int intern(String s){
+		Integer position = recent.get(s);
+		if(position == null){
+			position = position(strings.size());
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(strings, bytes.length);
+			strings.write(bytes, 0, bytes.length);
+			recent.put(s, position);
+		}
+		return position;
+	}
+
+
+	/**
+	 * Get a position in the file, which a Catalog can map.
+	 *
+	 * @param pending
+	 * 			bytes not written to the stream yet before the position
+	 * @return int
+	 * 			the position
+	 * @throws IllegalStateException
+	 * 			if the file has grown too big to be mapped
+	 */
+	private int position(int pending){
+		long position = written + pending;
+		if(position > Integer.MAX_VALUE)
+			throw new IllegalStateException("Catalog too large");
+		return (int) position;
+	}
+
+
+	/**
+	 * Write a non-negative integer 7 bits at a time, lowest bits first.
+	 * The high bit of each byte tells if more bytes follow.
+	 *
+	 * @param buffer
+	 * 			the buffer to write to
+	 * @param value
+	 * 			the integer to write
+	 */
+	private static void writeVarInt(ByteArrayOutputStream buffer, int value){
+		while((value & ~0x7F) != 0){
+			buffer.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer.write(value);
+	}
+}
@@ -0,0 +1,249 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Journal is an append-only log of changes made since a Manager's data
+ * was last saved. Each change is a small record of a type and a few
+ * strings, so recording a change costs the same however large the
+ * catalog is. On startup the records are replayed over the saved data,
+ * and once the data is saved again the journal is cleared.
+ *
+ * The file is only created when the first record is appended.
+ *
+ * Record layout:
+ * <pre>
+ *   byte    type
+ *   byte    number of fields, then for each: modified UTF-8 string
+ * </pre>
+ */
+public class Journal {
+
+	/** The journal file */
+	private File file;
+
+	/** The open stream records are appended to, null until first append */
+	private DataOutputStream out;
+
+	/** Number of records in the journal */
+	private int records;
+
+
+	/**
+	 * Create a Journal kept in the given file.
+	 *
+	 * @param filePath
+	 * 			the journal file's path
+	 */
+	public Journal(String filePath){
+		file = new File(filePath);
+	}
+
+
+	/**
+	 * One change read back from the journal.
+	 */
+	public static class Record {
+
+		/** The type of change */
+		private int type;
+
+		/** The strings describing the change */
+		private String[] fields;
+
+
+		/**
+		 * Create a Record.
+		 *
+		 * @param type
+		 * 			the type of change
+		 * @param fields
+		 * 			the strings describing the change
+		 */
+		public Record(int type, String[] fields){
+			this.type = type;
+			this.fields = fields;
+		}
+
+
+		/**
+		 * Get the type of change.
+		 *
+		 * @return int
+		 * 			the type of change
+		 */
+		public int getType(){
+			return type;
+		}
+
+
+		/**
+		 * Get one of the strings describing the change.
+		 *
+		 * @param i
+		 * 			the index of the string
+		 * @return String
+		 * 			the string
+		 */
+		public String getField(int i){
+			return fields[i];
+		}
+
+
+		/**
+		 * Get the number of strings describing the change.
+		 *
+		 * @return int
+		 * 			the number of strings
+		 */
+		public int getFieldCount(){
+			return fields.length;
+		}
+	}
+
+
+	/**
+	 * Append a record. It is handed to the OS before this returns, so it
+	 * is kept if the program stops afterwards.
+	 *
+	 * @param type
+	 * 			the type of change
+	 * @param fields
+	 * 			the strings describing the change
+	 * @throws IOException
+	 */
+	public synchronized void append(int type, String... fields) throws IOException{
+		write(type, fields);
+		flush();
+	}
+
+
+	/**
+	 * Append a record without handing it to the OS yet, e.g. when many
+	 * records are written together. It is kept once flush is called.
+	 *
+	 * @param type
+	 * 			the type of change
+	 * @param fields
+	 * 			the strings describing the change
+	 * @throws IOException
+	 */
+	public synchronized void write(int type, String... fields) throws IOException{
+		if(out == null)
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file, true)));
+		out.writeByte(type);
+		out.writeByte(fields.length);
+		for(String s: fields){
+			out.writeUTF(s);
+		}
+		records++;
+	}
+
+
+	/**
+	 * Hand the records written so far to the OS.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException{
+		if(out != null)
+			out.flush();
+	}
+
+
+	/**
+	 * Read all records in the journal. A record cut short, e.g. when
+	 * the program stopped while writing it, ends the journal and is
+	 * dropped from the file so later records follow the good ones.
+	 *
+	 * @return List<Record>
+	 * 			the records, oldest first
+	 * @throws IOException
+	 */
+	public synchronized List<Record> read() throws IOException{
+		List<Record> result = new ArrayList<Record>();
+		if(!file.exists())
+			return result;
+
+		// Journals are compacted long before they get large
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+		DataInputStream in = new DataInputStream(buffer);
+		int good = 0;
+		try{
+			while(true){
+				int type = in.read();
+				if(type < 0)
+					break;
+				String[] fields = new String[in.readUnsignedByte()];
+				for(int i = 0; i < fields.length; i++){
+					fields[i] = in.readUTF();
+				}
+				result.add(new Record(type, fields));
+				good = bytes.length - buffer.available();
+			}
+		}catch(EOFException e){
+			// Torn last record, dropped below
+		}
+
+		if(good < bytes.length){
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try{
+				raf.setLength(good);
+			}finally{
+				raf.close();
+			}
+		}
+		records = result.size();
+		return result;
+	}
+
+
+	/**
+	 * Get the number of records in the journal.
+	 *
+	 * @return int
+	 * 			the number of records
+	 */
+	public synchronized int getRecordCount(){
+		return records;
+	}
+
+
+	/**
+	 * Remove all records, once the changes they describe have been saved.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException{
+		close();
+		if(file.exists() && !file.delete())
+			throw new IOException("Cannot clear journal " + file);
+		records = 0;
+	}
+
+
+	/**
+	 * Close the journal file. It is opened again by the next append.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException{
+		if(out != null){
+			out.close();
+			out = null;
+		}
+	}
+}
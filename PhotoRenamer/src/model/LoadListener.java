@@ -0,0 +1,35 @@
+package model;
+
+/**
+ * A listener that follows a PhotoLoader scan while it runs, so that
+ * photos can be shown as soon as they are found and the scan can be
+ * cancelled. Note that it is called from the scanning threads.
+ */
+public interface LoadListener {
+
+	/**
+	 * Called when a new photo has been added to the PhotoManager.
+	 *
+	 * @param photo
+	 * 			the photo that was loaded
+	 */
+	void photoLoaded(Photo photo);
+
+	/**
+	 * Called when a rescan has stopped tracking a photo whose file
+	 * is gone.
+	 *
+	 * @param photo
+	 * 			the photo that was removed
+	 */
+	void photoRemoved(Photo photo);
+
+	/**
+	 * Checked by the scan from time to time; once it returns true
+	 * the scan stops as soon as possible.
+	 *
+	 * @return boolean
+	 * 			true if the scan should stop
+	 */
+	boolean isCancelled();
+}
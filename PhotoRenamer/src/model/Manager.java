@@ -2,27 +2,67 @@ package model;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.util.HashMap;
+import java.io.ObjectStreamConstants;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
+import util.CompressedBitmap;
+
 /**
  * Abstract generic class Manager provides necessary
  * functionalities that a manager should have.
+ *
+ * Data is saved in the compact catalog format of CatalogWriter;
+ * each Manager says how one of its objects is written and read.
+ * A Manager can read everything at once with readFromFile, or map the
+ * file with mapFromFile and read objects only when they are needed.
+ * Files saved by older versions with Java serialization are still
+ * read, and are converted the next time the data is saved.
+ * 
+ * The catalog is not written to the data file itself but to segment
+ * files next to it, named after the data file and a number; the data
+ * file is a small manifest naming the segments in use, oldest first. 
+ * A segment is never changed once written: a save writes a new one and
+ * then moves a new manifest over the old. The manifest is never mapped or left
+ * open, so this works where a mapped file cannot be replaced, e.g. on
+ * Windows, and segments no longer named are deleted once they can be.
+ * A catalog saved in the data file by an older version is copied to
+ * a segment the first time it is mapped.
  */
 public abstract class Manager<T> {
 	
 	/** The ser file path */
 	private String filePath;
 	
+	/** The first four bytes of a manifest: "PRCM" */
+	private static final int MANIFEST_MAGIC = 0x5052434D;
+	
+	/** Format version of the manifest */
+	private static final int MANIFEST_VERSION = 1;
+	
+	/** Number of entries written to segments by this Manager */
+	private volatile long entriesWritten;
+	
 	/**
 	 * Create a Manager object.
 	 * 
@@ -34,8 +74,70 @@ public abstract class Manager<T> {
 	}
 	
 	
+	/**
+	 * Write one object as a catalog entry.
+	 *
+	 * @param out
+	 * 				the catalog being written
+	 * @param value
+	 * 				the object to write
+	 * @throws IOException
+	 */
+	protected abstract void writeEntry(CatalogWriter out, T value) throws IOException;
+
+
+	/**
+	 * Read one object from a catalog entry.
+	 *
+	 * @param in
+	 * 				the catalog being read
+	 * @return T
+	 * 				the object read
+	 * @throws IOException
+	 */
+	protected abstract T readEntry(CatalogReader in) throws IOException;
+
+
+	/**
+	 * Get the key an object is stored under.
+	 *
+	 * @param value
+	 * 				the object
+	 * @return String
+	 * 				the object's key
+	 */
+	protected abstract String keyOf(T value);
+	
+	
+	/**
+	 * Get the flags an object's entry is written with, which can be
+	 * read from a Catalog without reading the entry. None by default.
+	 * 
+	 * @param value
+	 * 				the object
+	 * @return int
+	 * 				a byte of flags
+	 */
+	protected int flagsOf(T value){
+		return 0;
+	}
+	
+	
+	/**
+	 * Get the id an object's entry is written with, which it can be
+	 * found by in a Catalog. The entry's index by default.
+	 * 
+	 * @param value
+	 * 				the object
+	 * @return int
+	 * 				the id, or -1 for the entry's index
+	 */
+	protected int idOf(T value){
+		return -1;
+	}
+
+
 	// Reference from Week 8 in lecture code
-	@SuppressWarnings("unchecked")
 	/**
 	 * Read data and store
 	 * @param data
@@ -46,34 +148,315 @@ public abstract class Manager<T> {
 	 * @throws IOException
 	 */
 	protected Map<String, T> readFromFile(Map<String, T> data) throws ClassNotFoundException, IOException {
+		if(isSerialized()){
+			return readSerialized();
+		}
+		Catalog catalog = mapFromFile();
+		if(catalog == null){
+			// Empty file, nothing has been saved yet
+			return data;
+		}
 		
-		InputStream file = new FileInputStream(filePath);
-		InputStream buffer = new BufferedInputStream(file);
-		ObjectInput input = new ObjectInputStream(buffer);
-
-		//deserialize the Map
-		data = (HashMap<String, T>) input.readObject();
-		input.close();
+		if(catalog.isIndexed()){
+			for(int i = 0; i < catalog.size(); i++){
+				T value = readEntry(catalog.getReader(i));
+				data.put(keyOf(value), value);
+			}
+		}else{
+			CatalogReader input = catalog.getReader();
+			int count = input.readVarInt();
+			for(int i = 0; i < count; i++){
+				T value = readEntry(input);
+				data.put(keyOf(value), value);
+			}
+		}
 		return data;
 	}
 	
 	
+	/**
+	 * Memory-map the newest catalog segment named by the data file, so 
+	 * that objects can be read from it one at a time when needed.
+	 * 
+	 * @return Catalog
+	 * 			the mapped segment, or null if the data file is empty or 
+	 * 			was saved with Java serialization and has to be read by 
+	 * 			readFromFile
+	 * @throws IOException
+	 */
+	protected Catalog mapFromFile() throws IOException {
+		List<Catalog> segments = mapSegments();
+		return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+	}
+	
+	
+	/**
+	 * Memory-map every catalog segment named by the data file.
+	 * 
+	 * @return List<Catalog>
+	 * 			the mapped segments, oldest first; none if the data file is
+	 * 			empty or was saved with Java serialization
+	 * @throws IOException
+	 */
+	protected List<Catalog> mapSegments() throws IOException {
+		Path path = Paths.get(filePath);
+		if(Files.size(path) == 0 || isSerialized())
+			return Collections.emptyList();
+		List<String> segments = readManifest();
+		if(segments == null){
+			// Saved in the data file by an older version
+			String name = newSegmentName();
+			Files.copy(path, path.resolveSibling(name), StandardCopyOption.REPLACE_EXISTING);
+			force(path.resolveSibling(name));
+			segments = Collections.singletonList(name);
+			writeManifest(segments);
+		}
+		List<Catalog> mapped = new ArrayList<Catalog>(segments.size());
+		for(String name: segments){
+			mapped.add(Catalog.map(path.resolveSibling(name)));
+		}
+		return mapped;
+	}
+	
+	
+	/**
+	 * Read the names of the segments listed by the data file.
+	 * 
+	 * @return List<String>
+	 * 			the names, or null if the data file is not a manifest
+	 * @throws IOException
+	 */
+	private List<String> readManifest() throws IOException {
+		try(DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(filePath)))){
+			if(in.available() < 4 || in.readInt() != MANIFEST_MAGIC)
+				return null;
+			int version = in.readUnsignedByte();
+			if(version > MANIFEST_VERSION)
+				throw new IOException("Unsupported manifest version: " + version);
+			int count = in.readInt();
+			List<String> names = new ArrayList<String>(count);
+			for(int i = 0; i < count; i++){
+				names.add(in.readUTF());
+			}
+			return names;
+		}
+	}
+	
+	
+	/**
+	 * Make the data file name the given segments, by writing a manifest
+	 * next to it and moving it over the data file, and then delete the
+	 * segments no longer named. One that cannot be deleted yet, e.g. as
+	 * it is still mapped on Windows, is deleted by a later save.
+	 * 
+	 * @param segments
+	 * 				names of the segments, which are on disk already
+	 * @throws IOException
+	 */
+	private void writeManifest(List<String> segments) throws IOException {
+		Path target = Paths.get(filePath);
+		Path tmp = Paths.get(filePath + ".tmp");
+		try(FileOutputStream file = new FileOutputStream(tmp.toFile())){
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+			out.writeInt(MANIFEST_MAGIC);
+			out.writeByte(MANIFEST_VERSION);
+			out.writeInt(segments.size());
+			for(String name: segments){
+				out.writeUTF(name);
+			}
+			out.flush();
+			file.getChannel().force(true);
+		}
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		for(Path segment: listSegments()){
+			if(!segments.contains(segment.getFileName().toString())){
+				try{
+					Files.deleteIfExists(segment);
+				}catch(IOException e){
+					// Still mapped, deleted by a later save
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Get a name for a new segment, numbered after every segment on disk.
+	 * 
+	 * @return String
+	 * 			the name of the data file, a dot and the number
+	 * @throws IOException
+	 */
+	private String newSegmentName() throws IOException {
+		String prefix = Paths.get(filePath).getFileName().toString() + ".";
+		long last = 0;
+		for(Path segment: listSegments()){
+			last = Math.max(last, Long.parseLong(segment.getFileName().toString().substring(prefix.length())));
+		}
+		return prefix + (last + 1);
+	}
+	
+	
+	/**
+	 * Get the segment files on disk, named or not by the data file.
+	 * 
+	 * @return List<Path>
+	 * 			the segment files
+	 * @throws IOException
+	 */
+	private List<Path> listSegments() throws IOException {
+		Path path = Paths.get(filePath).toAbsolutePath();
+		String prefix = path.getFileName().toString() + ".";
+		List<Path> segments = new ArrayList<Path>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(path.getParent())){
+			for(Path f: files){
+				String name = f.getFileName().toString();
+				if(name.startsWith(prefix) && name.length() > prefix.length() 
+						&& name.substring(prefix.length()).matches("[0-9]+"))
+					segments.add(f);
+			}
+		}
+		return segments;
+	}
+	
+	
+	/**
+	 * Force a file written to disk before it is named by a manifest.
+	 * 
+	 * @param file
+	 * 				the file
+	 * @throws IOException
+	 */
+	private static void force(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+			channel.force(true);
+		}
+	}
+	
+	
+	/**
+	 * Tell if the data file was saved by an older version with Java
+	 * serialization.
+	 * 
+	 * @return boolean
+	 * 			true if the file starts with the serialization header
+	 * @throws IOException
+	 */
+	private boolean isSerialized() throws IOException {
+		try(DataInputStream in = new DataInputStream(new FileInputStream(filePath))){
+			return in.available() >= 2 
+					&& in.readUnsignedShort() == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF);
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	/**
+	 * Read data saved with Java serialization by older versions.
+	 *
+	 * @return Map<String, T>
+	 * 			a map of data that has all the ser file data
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	private Map<String, T> readSerialized() throws ClassNotFoundException, IOException {
+		InputStream buffer = new BufferedInputStream(new FileInputStream(filePath));
+		try(ObjectInput input = new ObjectInputStream(buffer)){
+			//deserialize the Map
+			return (Map<String, T>) input.readObject();
+		}
+	}
+	
+	
 	
 	
 	// Reference: week 8 Paul's lecture
 	/**
+	 * Write all data to the file. The data is written to a new segment,
+	 * which the data file is then switched to, so a failed save never 
+	 * leaves a half written file behind, and no file that may be mapped
+	 * is replaced.
 	 * 
 	 * @param data
 	 * 				The data that needs to be wrote to file
 	 * @throws IOException
 	 */
-	public void saveToFile(Map<String, T> data) throws IOException{
-		OutputStream file = new FileOutputStream(filePath);
-        OutputStream buffer = new BufferedOutputStream(file);
-        ObjectOutput output = new ObjectOutputStream(buffer);
-
-        // serialize the Map
-        output.writeObject(data);
-        output.close();
+	public void saveToFile(Collection<T> data) throws IOException{
+		// Copy first, the data may be changed by other threads meanwhile
+		List<T> values = new ArrayList<T>(data);
+		Collections.sort(values, new Comparator<T>() {
+			@Override
+			public int compare(T a, T b) {
+				return keyOf(a).compareTo(keyOf(b));
+			}
+		});
+		switchTo(Collections.singletonList(writeSegment(values.iterator(), null)));
+	}
+	
+	
+	/**
+	 * Write objects to a new segment, one at a time. The segment is not
+	 * used until the data file is switched to it with switchTo.
+	 * 
+	 * @param values
+	 * 				the objects, in order of their keys
+	 * @param removed
+	 * 				ids of objects removed, whose entries in older segments
+	 * 				are no longer used; null for none
+	 * @return Path
+	 * 				the new segment, on disk
+	 * @throws IOException
+	 */
+	protected Path writeSegment(Iterator<T> values, CompressedBitmap removed) throws IOException{
+		Path segment = Paths.get(filePath).resolveSibling(newSegmentName());
+		try(FileOutputStream file = new FileOutputStream(segment.toFile())){
+			CatalogWriter output = new CatalogWriter(new BufferedOutputStream(file));
+			while(values.hasNext()){
+				T value = values.next();
+				int id = idOf(value);
+				output.beginEntry(keyOf(value), id >= 0 ? id : output.size(), flagsOf(value));
+				writeEntry(output, value);
+			}
+			if(removed != null){
+				for(int id: removed.toArray()){
+					output.addRemoved(id);
+				}
+			}
+			output.finish();
+			file.getChannel().force(true);
+			entriesWritten += output.size();
+		}
+		return segment;
+	}
+	
+	
+	/**
+	 * Get the number of entries written to segments since this Manager 
+	 * was created, which tells how much saving has cost.
+	 * 
+	 * @return long
+	 * 			the number of entries
+	 */
+	public long getEntriesWritten(){
+		return entriesWritten;
+	}
+	
+	
+	/**
+	 * Make the data file name the given segments, written by writeSegment
+	 * or mapped by mapSegments, and delete the segments no longer named.
+	 * 
+	 * @param segments
+	 * 				the segments, oldest first
+	 * @throws IOException
+	 */
+	protected void switchTo(List<Path> segments) throws IOException{
+		List<String> names = new ArrayList<String>(segments.size());
+		for(Path segment: segments){
+			names.add(segment.getFileName().toString());
+		}
+		writeManifest(names);
 	}
 }
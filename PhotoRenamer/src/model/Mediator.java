@@ -3,14 +3,17 @@ package model;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import exception.DuplicateTagException;
 import exception.InvalidPhotoPathException;
+import exception.InvalidQueryException;
 import exception.InvalidTagNameException;
 import exception.TagNotExistException;
+import util.CompressedBitmap;
 import util.Thumbnail;
 
 /**
@@ -48,10 +51,43 @@ public class Mediator {
 	private Mediator(TagManager tManager, PhotoManager pManager){
 		this.tManager = tManager;
 		this.pManager = pManager;
+		linkTags();
 	}
 	
 	/**
-	 * Get the singleton instance of Mediator.
+	 * Make photos and tags of both managers refer to each other.
+	 * Each manager saves its own file, where a photo's tags are only
+	 * names, so after reading, every photo's tags are replaced by the
+	 * TagManager's tag of the same name, and every tag's photo id set is 
+	 * rebuilt from the photos that have it. Photos without tags are
+	 * left unread; photos read later get the TagManager's tags from
+	 * the PhotoManager.
+	 */
+	private void linkTags(){
+		tManager.setPhotoManager(pManager);
+		pManager.setTagManager(tManager);
+		for(Tag t: tManager.getTags()){
+			t.clearPhotos();
+		}
+		for(Photo p: pManager.getTaggedPhotos()){
+			ArrayList<Tag> linked = new ArrayList<Tag>(p.getTags().size());
+			for(Tag t: p.getTags()){
+				Tag tag = tManager.findTag(t.getName());
+				if(tag == null)
+					tag = tManager.addTag(new Tag(t.getName()));
+				if(!linked.contains(tag)){
+					linked.add(tag);
+					tag.addPhoto(p);
+				}
+			}
+			p.setTags(linked);
+		}
+	}
+	
+	/**
+	 * Get the singleton instance of Mediator. A new instance is made
+	 * when the managers differ from the current instance's, e.g. when
+	 * another directory has been loaded.
 	 * 
 	 * @param tManager 
 	 * 				the tag manager that is going to be dealt with.
@@ -62,7 +98,8 @@ public class Mediator {
 	 * 				a instance of mediator(the single one)  
 	 */
 	public static Mediator getInstance(TagManager tManager, PhotoManager pManager) {
-		if(instance == null)
+		if(instance == null || instance.tManager != tManager 
+				|| instance.pManager != pManager)
 			instance = new Mediator(tManager, pManager);
 		return instance;
 	}
@@ -122,6 +159,55 @@ public class Mediator {
 		tManager.addPhoto(tagName, photo);
 	}
 	
+	/**
+	 * Add tags to many photos at once. Tags that do not exist yet are 
+	 * created. Every photo is renamed at most once, renames are done in 
+	 * parallel where they cannot collide, and the change is recorded 
+	 * once at the end. A photo that cannot be renamed is left as it was 
+	 * and reported, the others are still tagged.
+	 * 
+	 * @param photos
+	 * 				the photos that need to add tags
+	 * @param tagNames
+	 * 				names of the tags to add to each photo
+	 * @return BatchReport
+	 * 				what was done to each photo
+	 * @throws InvalidTagNameException
+	 * 				if a tag name is invalid, before any tag is created 
+	 * 				or photo is renamed
+	 * @throws DuplicateTagException
+	 * 				if a tag cannot be created
+	 * @throws IOException
+	 * 				if the change cannot be recorded
+	 */
+	public BatchReport addTagsToPhotos(Collection<Photo> photos, Collection<String> tagNames) 
+			throws InvalidTagNameException, DuplicateTagException, IOException{
+		
+		// Check every name first, so a bad one leaves no tag behind
+		for(String tagName: tagNames){
+			tManager.isNameValid(tagName);
+		}
+		List<Tag> tags = new ArrayList<Tag>();
+		for(String tagName: tagNames){
+			Tag tag = tManager.findTag(tagName);
+			if(tag == null)
+				tag = tManager.createTag(tagName);
+			if(!tags.contains(tag))
+				tags.add(tag);
+		}
+		BatchReport report = pManager.addTags(new ArrayList<Photo>(photos), tags, 
+				PhotoLoader.DEFAULT_PARALLELISM);
+		
+		// Tags' photo lists are not thread safe, so they are updated here
+		for(Tag tag: tags){
+			for(BatchReport.Result r: report.getResults(BatchReport.Status.RENAMED)){
+				if(!tag.hasPhoto(r.getPhoto()))
+					tag.addPhoto(r.getPhoto());
+			}
+		}
+		return report;
+	}
+	
 	/**
 	 * Remove the given tag from given photo.
 	 * Note that this will reset the photo name.
@@ -235,16 +321,96 @@ public class Mediator {
 	
 	
 	/**
-	 * Get all photo's thumbnail grouping as a list.
+	 * Get all photo's thumbnail grouping as a list. The list is a view of
+	 * the photos tracked now that reads a photo from the ser file when its
+	 * thumbnail is asked for and does not keep it, so going through it 
+	 * takes bounded memory.
 	 * 
 	 * @return list of Thumbnail
 	 */
 	public List<Thumbnail> getThumbList(){
-		List<Thumbnail> result = new ArrayList<Thumbnail>();
-		for(Photo p: pManager.getPhotos()){
-			result.add(p.getThumb());
+		final List<Photo> photos = pManager.getPhotoListUnkept();
+		return new AbstractList<Thumbnail>() {
+			@Override
+			public Thumbnail get(int index) {
+				return photos.get(index).getThumb();
+			}
+
+			@Override
+			public int size() {
+				return photos.size();
+			}
+		};
+	}
+	
+	/**
+	 * Find the photos a tag query describes, e.g. 
+	 * "@beach AND @2019 AND NOT @blurry". The query is answered from
+	 * the tags' photo id sets; the photos of the list returned are 
+	 * only read when the list is asked for them.
+	 * 
+	 * @param query
+	 * 			the query
+	 * @return List<Photo>
+	 * 			the photos, in id order
+	 */
+	public List<Photo> findPhotos(TagQuery query){
+		final int[] ids = query.evaluate(new TagQuery.Context() {
+			@Override
+			public CompressedBitmap photosTagged(String tagName) {
+				Tag tag = tManager.findTag(tagName);
+				return tag == null ? new CompressedBitmap() : tag.getPhotoIds();
+			}
+			
+			@Override
+			public CompressedBitmap allPhotos() {
+				return pManager.getPhotoIds();
+			}
+		}).and(pManager.getPhotoIds()).toArray();
+		
+		return new AbstractList<Photo>() {
+			@Override
+			public Photo get(int index) {
+				return pManager.getPhoto(ids[index]);
+			}
+			
+			@Override
+			public int size() {
+				return ids.length;
+			}
+		};
+	}
+	
+	/**
+	 * Find the photos a tag query written as text describes.
+	 * See TagQuery.parse for how queries are written.
+	 * 
+	 * @param query
+	 * 			the query, e.g. "@beach AND @2019 AND NOT @blurry"
+	 * @return List<Photo>
+	 * 			the photos, in id order
+	 * @throws InvalidQueryException
+	 * 			if the query cannot be understood
+	 */
+	public List<Photo> findPhotos(String query) throws InvalidQueryException{
+		return findPhotos(TagQuery.parse(query));
+	}
+	
+	/**
+	 * Take photos that are no longer tracked, e.g. because their file
+	 * is gone, out of their tags.
+	 * 
+	 * @param photos
+	 * 				the photos removed from the PhotoManager
+	 */
+	public void photosRemoved(Collection<Photo> photos){
+		for(Photo p: photos){
+			for(Tag t: p.getTags()){
+				Tag tag = tManager.findTag(t.getName());
+				if(tag != null)
+					tag.removePhoto(p);
+			}
 		}
-		return result;
 	}
 	
 	/**
@@ -257,6 +423,18 @@ public class Mediator {
 		return tManager.getTags();
 	}
 	
+	/**
+	 * Get the tags that tag the most photos, most first.
+	 * 
+	 * @param k
+	 * 				the number of tags wanted
+	 * @return List<Tag>
+	 * 				at most k tags, the unused ones last
+	 */
+	public List<Tag> getMostUsedTags(int k){
+		return tManager.findMostUsedTags(k);
+	}
+	
 	/**
 	 * Create a tag, not tagging to any photo currently.
 	 * 
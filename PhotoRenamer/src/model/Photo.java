@@ -3,9 +3,15 @@ package model;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import util.Thumbnail;
 
@@ -19,11 +25,38 @@ public class Photo implements Serializable{
 
 	private static final long serialVersionUID = 6955723612371190680L;
 	
+	/** 
+	 * The fields written by serialization, as they were when tags were 
+	 * kept in an ArrayList, so old ser files can still be read.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("previousName", Collection.class),
+			new ObjectStreamField("tags", ArrayList.class),
+			new ObjectStreamField("name", String.class),
+			new ObjectStreamField("path", String.class),
+			new ObjectStreamField("file", File.class),
+			new ObjectStreamField("thumb", Thumbnail.class)
+	};
+	
+	/** Shared by all photos without tags */
+	private static final int[] NO_TAG_IDS = new int[0];
+	private static final Tag[] NO_TAGS = new Tag[0];
+	
 	/** The Collection of photo's previous names, which represent by collection of strings. */
 	private Collection<String> previousName;
 	
-	/** The set of Tags that photo has.*/
-	private ArrayList<Tag> tags;
+	/** The ids of the Tags that photo has, sorted */
+	private transient int[] tagIds;
+	
+	/** The Tags that photo has, in the order of tagIds */
+	private transient Tag[] tags;
+	
+	/** 
+	 * The tags read by readObject, null once tagIds is built from them.
+	 * Their names may not be read yet when this photo is, as tags and 
+	 * photos refer to each other, so tagIds is built when first used.
+	 */
+	private transient ArrayList<Tag> readTags;
 	
 	/** Photo's filename*/
 	private String name;
@@ -37,10 +70,21 @@ public class Photo implements Serializable{
 	/** Photo's corresponding Thumbnail object */
 	private Thumbnail thumb;
 	
+	/** Photo's id given by its PhotoManager, -1 until it is tracked */
+	private transient int id = -1;
+	
+	/** Size of photo's file when it was last scanned, in bytes */
+	private transient long fileSize;
+	
+	/** Modification time of photo's file when it was last scanned, 0 if unknown */
+	private transient long lastModified;
+	
 	
 	
 	/**
 	 * Create a Photo object based on given information.
+	 * The photo's thumbnail is pending, it is generated later
+	 * by ThumbnailPipeline or when first read.
 	 *
 	 * @param name
 	 *            Photo's filename.
@@ -54,9 +98,53 @@ public class Photo implements Serializable{
 		this.name = name;
 		this.path = path;
 		this.file = file;
-		thumb = new Thumbnail(file, this);
+		thumb = new Thumbnail(this);
 		previousName = new ArrayList<String>();
-		tags = new ArrayList<Tag>();
+		tagIds = NO_TAG_IDS;
+		tags = NO_TAGS;
+	}
+	
+	
+	/**
+	 * Write this photo with its tags as a list.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("previousName", previousName);
+		fields.put("tags", new ArrayList<Tag>(getTags()));
+		fields.put("name", name);
+		fields.put("path", path);
+		fields.put("file", file);
+		fields.put("thumb", thumb);
+		out.writeFields();
+	}
+	
+	
+	/**
+	 * Read a photo written by writeObject.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		previousName = (Collection<String>) fields.get("previousName", null);
+		name = (String) fields.get("name", null);
+		path = (String) fields.get("path", null);
+		file = (File) fields.get("file", null);
+		thumb = (Thumbnail) fields.get("thumb", null);
+		id = -1;
+		tagIds = NO_TAG_IDS;
+		tags = NO_TAGS;
+		readTags = (ArrayList<Tag>) fields.get("tags", null);
+	}
+	
+	
+	/**
+	 * Build tagIds from the tags read by readObject, if not done yet.
+	 */
+	private void resolveTags(){
+		if(readTags != null){
+			setTags(readTags);
+		}
 	}
 
 
@@ -76,7 +164,8 @@ public class Photo implements Serializable{
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		result = prime * result + ((path == null) ? 0 : path.hashCode());
 		result = prime * result + ((previousName == null) ? 0 : previousName.hashCode());
-		result = prime * result + ((tags == null) ? 0 : tags.hashCode());
+		resolveTags();
+		result = prime * result + Arrays.hashCode(tagIds);
 		return result;
 	}
 
@@ -118,8 +207,8 @@ public class Photo implements Serializable{
 				return false;
 		} else if (!previousName.equals(other.previousName))
 			return false;
-		if (tags == null) {
-			if (other.tags != null)
+		if (tagIds == null) {
+			if (other.tagIds != null)
 				return false;
 		} 
 		return true;
@@ -130,6 +219,68 @@ public class Photo implements Serializable{
 
 
 
+	/**
+	 * Return the id of the photo, which its PhotoManager gives it
+	 * and tags use to keep track of it.
+	 * 
+	 * @return id
+	 * 				the id of the photo, -1 if it is not tracked.
+	 */
+	public int getId() {
+		return id;
+	}
+
+
+	/**
+	 * Set the id of the photo.
+	 * 
+	 * @param id 
+	 * 				the id to set
+	 */
+	public void setId(int id) {
+		this.id = id;
+	}
+
+
+	/**
+	 * Return the size of the photo's file when it was last scanned.
+	 * 
+	 * @return long
+	 * 				the size in bytes.
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+
+	/**
+	 * Return the modification time of the photo's file when it was 
+	 * last scanned.
+	 * 
+	 * @return long
+	 * 				milliseconds since the epoch, 0 if it is unknown.
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+
+	/**
+	 * Set the size and modification time of the photo's file, as found
+	 * by a scan. A rescan only looks again at photos whose file no 
+	 * longer has both.
+	 * 
+	 * @param fileSize
+	 * 				the size in bytes.
+	 * @param lastModified
+	 * 				milliseconds since the epoch.
+	 */
+	public void setFileStat(long fileSize, long lastModified) {
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+	}
+
+
 	/**
 	 * Return the path of the photo.
 	 * 
@@ -256,12 +407,31 @@ public class Photo implements Serializable{
 	
 
 	/**
-	 * Return the set of this photo's Tags. 
+	 * Return the set of this photo's Tags, ordered by tag id. 
+	 * The list is a view that cannot be changed and follows later
+	 * changes to the photo's tags.
 	 * 
 	 * @return tags
 	 */
-	public ArrayList<Tag> getTags() {
-		return tags;
+	public List<Tag> getTags() {
+		return new AbstractList<Tag>() {
+			@Override
+			public Tag get(int index) {
+				resolveTags();
+				return tags[index];
+			}
+
+			@Override
+			public int size() {
+				resolveTags();
+				return tags.length;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof Tag && hasTag((Tag) o);
+			}
+		};
 	}
 	
 	
@@ -274,8 +444,30 @@ public class Photo implements Serializable{
 	 * @param tags 
 	 * 				the tags to set
 	 */
-	public void setTags(ArrayList<Tag> tags) {
-		this.tags = tags;
+	public void setTags(Collection<Tag> tags) {
+		readTags = null;
+		this.tagIds = NO_TAG_IDS;
+		this.tags = NO_TAGS;
+		for(Tag t: tags){
+			addTag(t);
+		}
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Tell if this photo has the tag, by binary search of its tag ids.
+	 * 
+	 * @param tag
+	 * 				the tag.
+	 * @return boolean
+	 * 				true if this photo has a tag of the same name.
+	 */
+	public boolean hasTag(Tag tag){
+		resolveTags();
+		return Arrays.binarySearch(tagIds, tag.getId()) >= 0;
 	}
 	
 	
@@ -313,8 +505,17 @@ public class Photo implements Serializable{
 	 * 				the tag to remove.
 	 */
 	public void removeTag(Tag tag){
-		if(tags.contains(tag)){
-			tags.remove(tag);
+		resolveTags();
+		int i = Arrays.binarySearch(tagIds, tag.getId());
+		if(i >= 0){
+			int[] ids = new int[tagIds.length - 1];
+			Tag[] ts = new Tag[ids.length];
+			System.arraycopy(tagIds, 0, ids, 0, i);
+			System.arraycopy(tagIds, i + 1, ids, i, ids.length - i);
+			System.arraycopy(tags, 0, ts, 0, i);
+			System.arraycopy(tags, i + 1, ts, i, ts.length - i);
+			tagIds = ids.length == 0 ? NO_TAG_IDS : ids;
+			tags = ts.length == 0 ? NO_TAGS : ts;
 		}
 	}
 	
@@ -327,7 +528,21 @@ public class Photo implements Serializable{
 	 * 				the tag to add.
 	 */
 	public void addTag(Tag tag){
-		tags.add(tag);
+		resolveTags();
+		int i = Arrays.binarySearch(tagIds, tag.getId());
+		if(i < 0){
+			i = -i - 1;
+			int[] ids = new int[tagIds.length + 1];
+			Tag[] ts = new Tag[ids.length];
+			System.arraycopy(tagIds, 0, ids, 0, i);
+			System.arraycopy(tagIds, i, ids, i + 1, tagIds.length - i);
+			System.arraycopy(tags, 0, ts, 0, i);
+			System.arraycopy(tags, i, ts, i + 1, tags.length - i);
+			ids[i] = tag.getId();
+			ts[i] = tag;
+			tagIds = ids;
+			tags = ts;
+		}
 	}
 
 	
@@ -2,14 +2,51 @@ package model;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import javax.activation.MimetypesFileTypeMap;
+import util.CompressedBitmap;
+import util.ImageTypeDetector;
+import util.ThumbnailPipeline;
 
 
 /** PhotoLoader class helps load all photos 
- *  everywhere under the directory into a PhotoManager 
+ *  everywhere under the directory into a PhotoManager.
+ *  Photos are registered right away, their thumbnails are
+ *  handed to ThumbnailPipeline to be generated in background.
+ *  
+ *  A rescan only does work for files that changed: a tracked photo
+ *  whose file has the size and modification time it was last scanned
+ *  with is left alone, without being read from the catalog.
  */
 public class PhotoLoader {
+
+	/** Default number of threads for a parallel scan */
+	public static final int DEFAULT_PARALLELISM =
+			Runtime.getRuntime().availableProcessors();
+
+	/** Number of photos imported between two writes of the journal */
+	public static final int IMPORT_BATCH = 1000;
+
+	/** Logger instance for logging use */
+	private static final Logger logger =
+			Logger.getLogger(PhotoLoader.class.getName());
 	
 	
 	/**
@@ -21,21 +58,490 @@ public class PhotoLoader {
 	 *            	the directory where we load photos from.
 	 * @throws IOException 
 	 */
-	public static void loadPhotos(PhotoManager pManager, File file) throws IOException{
-		// Idea taken from A1-part2-buildTree method
-		File[] fileList = file.listFiles();
-		for (File f: fileList){
-			if(f.isDirectory())
-				loadPhotos(pManager, f);
-			else{
-				// Identify image file, taken from StackOverflow
-				// Citation: http://stackoverflow.com/questions/9643228/test-if-file-is-an-image
-				String mimeType = new MimetypesFileTypeMap().getContentType(f); 
-				String type = mimeType.split("/")[0];
-		        if(type.equals("image")){
-		        	Photo p = new Photo(f.getName(), f.getAbsolutePath(), f);
-		        	pManager.addPhoto(p);
-		        }
+	public static void loadPhotos(final PhotoManager pManager, File file) throws IOException{
+		// Links are followed; walkFileTree skips one that loops back
+		Files.walkFileTree(file.getAbsoluteFile().toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+				Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+				if(attrs.isRegularFile() && ImageTypeDetector.getInstance().detect(f) != null){
+					Photo p = new Photo(f.getFileName().toString(), f.toString(), f.toFile());
+					p.setFileStat(attrs.size(), attrs.lastModifiedTime().toMillis());
+					if(pManager.addPhoto(p))
+						ThumbnailPipeline.getInstance().submit(p.getThumb(), null);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path f, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+
+	/**
+	 * Load all photo files under given selected directory into photo manager
+	 * using a fork-join pool, so that subdirectories are scanned in parallel.
+	 *
+	 * @param pManager
+	 *            	the PhotoManager we are building.
+	 * @param file
+	 *            	the directory where we load photos from.
+	 * @param parallelism
+	 * 				number of threads used for scanning.
+	 * @return ScanReport
+	 * 				how many files were scanned and how fast.
+	 * @throws IOException
+	 */
+	public static ScanReport loadPhotosParallel(PhotoManager pManager, File file,
+			int parallelism) throws IOException{
+		return loadPhotosParallel(pManager, file, parallelism, null);
+	}
+
+
+	/**
+	 * Load all photo files under given selected directory into photo manager
+	 * using a fork-join pool, telling the listener about every new photo
+	 * as soon as it is added.
+	 *
+	 * @param pManager
+	 *            	the PhotoManager we are building.
+	 * @param file
+	 *            	the directory where we load photos from.
+	 * @param parallelism
+	 * 				number of threads used for scanning.
+	 * @param listener
+	 * 				told about new photos and asked for cancellation, may be null.
+	 * @return ScanReport
+	 * 				how many files were scanned and how fast.
+	 * @throws IOException
+	 */
+	public static ScanReport loadPhotosParallel(PhotoManager pManager, File file,
+			int parallelism, LoadListener listener) throws IOException{
+		return scan(pManager, file, parallelism, listener, null, new ScanFilter());
+	}
+
+
+	/**
+	 * Bring the photo manager up to date with the given directory: add
+	 * photos of new files, record changed files and generate their 
+	 * thumbnails again, and stop tracking photos under the directory 
+	 * whose file is gone. Unchanged files cost one stat each.
+	 * If the scan is cancelled, or a directory cannot be listed, no
+	 * photo is removed, since not every file has been seen.
+	 *
+	 * @param pManager
+	 *            	the PhotoManager to update.
+	 * @param file
+	 *            	the directory to rescan.
+	 * @param parallelism
+	 * 				number of threads used for scanning.
+	 * @param listener
+	 * 				told about new and removed photos and asked for 
+	 * 				cancellation, may be null.
+	 * @return ScanReport
+	 * 				how many files were scanned, updated and removed.
+	 * @throws IOException
+	 */
+	public static ScanReport rescanParallel(PhotoManager pManager, File file,
+			int parallelism, LoadListener listener) throws IOException{
+		return rescanParallel(pManager, file, parallelism, listener, new ScanFilter());
+	}
+
+
+	/**
+	 * Bring the photo manager up to date with the files under the given
+	 * directory that the filter accepts. Photos of files it does not 
+	 * accept are left alone, whether their file is there or not.
+	 *
+	 * @param pManager
+	 *            	the PhotoManager to update.
+	 * @param file
+	 *            	the directory to rescan.
+	 * @param parallelism
+	 * 				number of threads used for scanning.
+	 * @param listener
+	 * 				told about new and removed photos and asked for 
+	 * 				cancellation, may be null.
+	 * @param filter
+	 * 				which files and directories are scanned.
+	 * @return ScanReport
+	 * 				how many files were scanned, updated and removed.
+	 * @throws IOException
+	 */
+	public static ScanReport rescanParallel(PhotoManager pManager, File file,
+			int parallelism, LoadListener listener, ScanFilter filter) throws IOException{
+		return scan(pManager, file, parallelism, listener, new Rescan(), filter);
+	}
+
+
+	/**
+	 * Import the photos under a directory one at a time with a 
+	 * PhotoScanner, so that a tree of any size takes bounded memory.
+	 * See importPhotos.
+	 *
+	 * @param pManager
+	 *            	the PhotoManager we are building.
+	 * @param file
+	 *            	the directory where we load photos from.
+	 * @param filter
+	 * 				which files and directories are scanned.
+	 * @param spillEvery
+	 * 				number of new photos after which they are spilled 
+	 * 				to the ser file, 0 to keep them in memory.
+	 * @param listener
+	 * 				told about new photos and asked for cancellation, may be null.
+	 * @return ScanReport
+	 * 				how many files were scanned and how fast.
+	 * @throws IOException
+	 */
+	public static ScanReport importDirectory(PhotoManager pManager, File file, ScanFilter filter,
+			int spillEvery, LoadListener listener) throws IOException{
+		try(PhotoScanner scanner = new PhotoScanner(file, filter)){
+			ScanReport report = importPhotos(pManager, scanner, spillEvery, listener);
+			logger.log(Level.INFO, "Imported " + file.getAbsolutePath() + ": " 
+					+ scanner.getFilesScanned() + " files looked at, " + report);
+			return report;
+		}
+	}
+
+
+	/**
+	 * Import photos one at a time, e.g. from a PhotoScanner, without 
+	 * holding on to them. Photos are journaled IMPORT_BATCH at a time, 
+	 * and the journal is compacted only by spills and at the end. 
+	 * Their thumbnails are handed to ThumbnailPipeline, which generates 
+	 * them on this thread when it is behind, so pending thumbnails are 
+	 * bounded too. With spillEvery above 0, the new photos are spilled 
+	 * to the ser file every spillEvery photos (see 
+	 * PhotoManager.spillToCatalog), so memory stays bounded however 
+	 * many are imported; photos keep their ids, but the Photo objects
+	 * handed out before are let go, so they should not be changed
+	 * elsewhere meanwhile.
+	 *
+	 * @param pManager
+	 *            	the PhotoManager we are building.
+	 * @param photos
+	 * 				the photos to import.
+	 * @param spillEvery
+	 * 				number of new photos after which they are spilled 
+	 * 				to the ser file, 0 to keep them in memory.
+	 * @param listener
+	 * 				told about new photos and asked for cancellation, may be null.
+	 * @return ScanReport
+	 * 				how many photos were imported and how fast.
+	 * @throws IOException
+	 */
+	public static ScanReport importPhotos(PhotoManager pManager, Iterator<Photo> photos,
+			int spillEvery, LoadListener listener) throws IOException{
+		ScanReport report = new ScanReport(1);
+		int batched = 0;
+		int unspilled = 0;
+		pManager.beginBatch();
+		try{
+			while(photos.hasNext() && (listener == null || !listener.isCancelled())){
+				Photo p = photos.next();
+				report.fileScanned();
+				if(!pManager.addPhoto(p))
+					continue;
+				report.photoLoaded();
+				ThumbnailPipeline.getInstance().submit(p.getThumb(), null);
+				if(listener != null)
+					listener.photoLoaded(p);
+				if(++batched == IMPORT_BATCH){
+					// Compacting is left to the end, or to spills
+					pManager.flushBatch();
+					batched = 0;
+				}
+				if(spillEvery > 0 && ++unspilled == spillEvery){
+					pManager.spillToCatalog();
+					unspilled = 0;
+				}
+			}
+		}finally{
+			pManager.endBatch();
+			report.finish();
+		}
+		return report;
+	}
+
+
+	/**
+	 * Scan a directory with a fork-join pool, as one batch of changes
+	 * to the photo manager.
+	 *
+	 * @param rescan
+	 * 				what a rescan has seen, null for a plain load.
+	 */
+	private static ScanReport scan(PhotoManager pManager, File file, int parallelism,
+			LoadListener listener, Rescan rescan, ScanFilter filter) throws IOException{
+		ScanReport report = new ScanReport(parallelism);
+		Scan scan = new Scan(pManager, file.getAbsoluteFile().toPath(), report, listener, rescan, filter);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		pManager.beginBatch();
+		try{
+			BasicFileAttributes attrs = Files.readAttributes(scan.root, BasicFileAttributes.class);
+			if(scan.enter(scan.root, attrs))
+				pool.invoke(new ScanTask(scan, scan.root));
+			if(rescan != null && !rescan.incomplete 
+					&& (listener == null || !listener.isCancelled())){
+				for(Photo p: pManager.removeMissing(scan.root.toString(), rescan.seen,
+						filter.acceptsAll() ? null : filter)){
+					report.photoRemoved();
+					if(listener != null)
+						listener.photoRemoved(p);
+				}
+			}
+		}catch(UncheckedIOException e){
+			throw e.getCause();
+		}finally{
+			pool.shutdown();
+			pManager.endBatch();
+			report.finish();
+		}
+		logger.log(Level.INFO, "Loaded " + file.getAbsolutePath() + ": " + report);
+		return report;
+	}
+
+
+	/**
+	 * Check if the given file is an image file, with the shared
+	 * ImageTypeDetector: by extension, or by its first bytes if the
+	 * extension is unknown.
+	 *
+	 * @param f
+	 * 				the file to check.
+	 * @return boolean
+	 * 				true if the file is an image, false otherwise.
+	 */
+	static boolean isImage(File f){
+		return ImageTypeDetector.getInstance().isImage(f);
+	}
+
+
+	/**
+	 * What a rescan has found so far, shared by all its tasks.
+	 */
+	private static class Rescan {
+
+		/** Ids of the tracked photos found (guarded by itself) */
+		private CompressedBitmap seen = new CompressedBitmap();
+
+		/** Whether a directory could not be listed */
+		private volatile boolean incomplete;
+
+		/**
+		 * Record that a tracked photo was found.
+		 */
+		private void see(int id){
+			synchronized(seen){
+				seen.add(id);
+			}
+		}
+	}
+
+
+	/**
+	 * What all tasks of one scan share.
+	 */
+	private static class Scan {
+
+		/** The PhotoManager we are building */
+		private PhotoManager pManager;
+
+		/** The directory scanned, absolute */
+		private Path root;
+
+		/** The report to record progress to */
+		private ScanReport report;
+
+		/** Told about new photos, may be null */
+		private LoadListener listener;
+
+		/** What the rescan has seen, null for a plain load */
+		private Rescan rescan;
+
+		/** Which files and directories are scanned */
+		private ScanFilter filter;
+
+		/** How directories are walked */
+		private Set<FileVisitOption> options;
+
+		/** The file keys (or real paths) of the directories entered */
+		private Set<Object> visited = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+		private Scan(PhotoManager pManager, Path root, ScanReport report,
+				LoadListener listener, Rescan rescan, ScanFilter filter){
+			this.pManager = pManager;
+			this.root = root;
+			this.report = report;
+			this.listener = listener;
+			this.rescan = rescan;
+			this.filter = filter;
+			options = filter.isFollowLinks() ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+					: EnumSet.noneOf(FileVisitOption.class);
+		}
+
+		/**
+		 * Check if the scan has been cancelled.
+		 *
+		 * @return boolean
+		 * 				true if tasks should stop.
+		 */
+		private boolean cancelled(){
+			return listener != null && listener.isCancelled();
+		}
+
+		/**
+		 * Check if a directory is to be scanned, and claim it if so. A
+		 * directory reached before, e.g. through a symbolic link to one
+		 * of its parents, is not scanned again.
+		 *
+		 * @param dir
+		 * 				the directory.
+		 * @param attrs
+		 * 				its attributes.
+		 * @return boolean
+		 * 				true if the caller scans the directory.
+		 */
+		private boolean enter(Path dir, BasicFileAttributes attrs){
+			if(dir != root && !filter.acceptsDirectory(root.relativize(dir)))
+				return false;
+			Object key = attrs.fileKey();
+			if(key == null){
+				try{
+					key = dir.toRealPath();
+				}catch(IOException e){
+					return false;
+				}
+			}
+			return visited.add(key);
+		}
+	}
+
+
+	/**
+	 * A fork-join task that loads photos in one directory, and forks a
+	 * new task for each of its subdirectories. The directory is walked
+	 * one level deep with Files.walkFileTree, so every entry comes with
+	 * its attributes and costs at most one stat.
+	 */
+	private static class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The scan this task is part of */
+		private Scan scan;
+
+		/** The directory this task scans */
+		private Path dir;
+
+		/**
+		 * Create a ScanTask for the given directory.
+		 *
+		 * @param scan
+		 * 				the scan this task is part of.
+		 * @param dir
+		 * 				the directory to scan.
+		 */
+		private ScanTask(Scan scan, Path dir){
+			this.scan = scan;
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			if(scan.cancelled())
+				return;
+			// Fork subdirectories as they are found so that idle workers 
+			// can steal them while this task is still busy with its files
+			final List<ScanTask> subTasks = new ArrayList<ScanTask>();
+			try{
+				Files.walkFileTree(dir, scan.options, 1, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) throws IOException {
+						if(scan.cancelled())
+							return FileVisitResult.TERMINATE;
+						if(attrs.isDirectory()){
+							if(scan.enter(f, attrs)){
+								ScanTask task = new ScanTask(scan, f);
+								task.fork();
+								subTasks.add(task);
+							}
+						}else if(attrs.isRegularFile() 
+								&& scan.filter.acceptsFile(scan.root.relativize(f))){
+							scanFile(f, attrs);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path f, IOException e) {
+						if(f.equals(dir) && scan.rescan != null)
+							scan.rescan.incomplete = true;
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult postVisitDirectory(Path d, IOException e) {
+						if(e != null && scan.rescan != null)
+							scan.rescan.incomplete = true;
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}finally{
+				for(ScanTask task: subTasks){
+					task.join();
+				}
+			}
+		}
+
+		/**
+		 * Load one file. In a rescan, a file that is already tracked is
+		 * only compared with the size and time it was last scanned with.
+		 *
+		 * @param f
+		 * 				the file.
+		 * @param attrs
+		 * 				its attributes, from the walk.
+		 * @throws IOException
+		 */
+		private void scanFile(Path f, BasicFileAttributes attrs) throws IOException{
+			ScanReport report = scan.report;
+			PhotoManager pManager = scan.pManager;
+			report.fileScanned();
+			String path = f.toString();
+			long size = attrs.size();
+			long modified = attrs.lastModifiedTime().toMillis();
+			if(scan.rescan != null){
+				int id = pManager.getPhotoId(path);
+				if(id >= 0){
+					if(!pManager.hasFileStat(id, size, modified)){
+						Photo p = pManager.setFileStat(id, size, modified);
+						// The thumbnail sees the file has changed and is written again
+						ThumbnailPipeline.getInstance().submit(p.getThumb(), null);
+						report.photoUpdated();
+					}
+					scan.rescan.see(id);
+					report.photoLoaded();
+					return;
+				}
+			}
+			if(ImageTypeDetector.getInstance().detect(f) != null){
+				Photo p = new Photo(f.getFileName().toString(), path, f.toFile());
+				p.setFileStat(size, modified);
+				if(pManager.addPhoto(p)){
+					ThumbnailPipeline.getInstance().submit(p.getThumb(), null);
+					if(scan.listener != null)
+						scan.listener.photoLoaded(p);
+				}
+				if(scan.rescan != null)
+					scan.rescan.see(pManager.getPhotoId(path));
+				report.photoLoaded();
 			}
 		}
 	}
@@ -2,13 +2,30 @@ package model;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -16,10 +33,32 @@ import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 import exception.InvalidPhotoPathException;
+import util.CompressedBitmap;
+import util.CountHeap;
+import util.StringIntMap;
 
 /** PhotoManager class provides several operations including tagging and 
  * renaming on photo(s) that it manages. It keeps track of all photo info
  * and writes it to ser file when called for.  
+ * 
+ * Changes made between saves are appended to a Journal next to the ser
+ * file instead of rewriting it, and are replayed when it is read back.
+ * 
+ * The ser file is memory-mapped rather than read: a photo saved in it 
+ * only becomes a Photo object when it is looked up or listed, so 
+ * opening a large catalog costs only what is shown of it.
+ * 
+ * A spill writes the photos in memory to a new segment of the ser file
+ * instead of rewriting all of it, and merges in only the newest segments
+ * that are no bigger than what it writes. Segments so grow about twice
+ * as big from newest to oldest, and a photo is written again only about
+ * log(n) times however often photos are spilled.
+ * 
+ * Every tracked photo has an int id that does not change while it is
+ * tracked, and is saved with it. Photos are kept by id in a PhotoStore,
+ * and found by path through the sorted keys of the mapped catalog or, 
+ * for photos not at their path there, a StringIntMap; a rename only 
+ * changes the latter.
  */
 public class PhotoManager extends Manager<Photo>{
 	// Implementation similar to week 8 Paul's lecture code: class StudentManager
@@ -31,13 +70,62 @@ public class PhotoManager extends Manager<Photo>{
 
 	
 	/**
-	 * A mapping from the photo's path to photo
+	 * A mapping from the photo's path to its id, for photos that are not
+	 * at their own path in segments: new ones, and moved ones (guarded by this)
 	 */
-	private Map<String, Photo> photos;
+	private StringIntMap paths;
+	
+	/** 
+	 * The mapped segments of the ser file, oldest first; none if it was 
+	 * read all at once. A photo is read from the newest that has it.
+	 */
+	private volatile Catalog[] segments;
+	
+	/** 
+	 * All tracked photos by id; photos of segments are set when read.
+	 * A photo changed since it was saved is always set.
+	 */
+	private volatile PhotoStore store;
+	
+	/** Entry flag of a photo that has tags */
+	private static final int TAGGED = 1;
+	
+	/** Ids of the photos no longer tracked since segments were last written (guarded by this) */
+	private CompressedBitmap removed;
+	
+	/** Ids of all tracked photos (guarded by this) */
+	private CompressedBitmap tracked;
+	
+	/** 
+	 * Number of tags of each photo that has tags, by id. Made the first 
+	 * time it is needed, then kept up to date (guarded by this).
+	 */
+	private CountHeap tagCounts;
+	
+	/** The TagManager whose tags photos read from segments are given, null if none */
+	private volatile TagManager tagManager;
 	
 	/** This manager's ser file path */
 	private String filePath;
 	
+	/** Number of journal records after which everything is saved again */
+	public static final int COMPACT_THRESHOLD = 1000;
+	
+	/** Journal record types */
+	private static final int ADD = 1;
+	private static final int REMOVE = 2;
+	private static final int RENAME = 3;
+	private static final int TAG_ADD = 4;
+	private static final int TAG_REMOVE = 5;
+	private static final int REVERT = 6;
+	private static final int STAT = 7;
+	
+	/** Changes made since the ser file was last written */
+	private Journal journal;
+	
+	/** Number of batches running, whose records are flushed at their end (guarded by this) */
+	private int batches;
+	
 	
 	
 	/**
@@ -55,7 +143,11 @@ public class PhotoManager extends Manager<Photo>{
 	public PhotoManager(String filePath) throws ClassNotFoundException, IOException{
 		super(filePath);
 		this.filePath = filePath;
-		photos = new HashMap<String, Photo>();
+		paths = new StringIntMap();
+		store = new PhotoStore(0);
+		segments = new Catalog[0];
+		tracked = new CompressedBitmap();
+		removed = new CompressedBitmap();
 		
 		// Initialize logger
 		logger.setLevel(Level.FINER);
@@ -63,50 +155,899 @@ public class PhotoManager extends Manager<Photo>{
 		fh.setFormatter(new SimpleFormatter());
 		logger.addHandler(fh);
 		
+		journal = new Journal(filePath + ".journal");
 		File file = new File(filePath);
 		if(file.exists()){
 			readFromFile();
 		}else{
 			file.createNewFile();
 		}
+		replayJournal();
+	}
+	
+	
+	// Reference: Week 8 lecture code
+	@SuppressWarnings("unchecked")
+	/**
+	 * Reads photo object from ser file at given filePath.
+	 * Catalogs with an index are only mapped, others are read at once.
+	 * Photos keep the ids they were saved with; a photo removed before a
+	 * segment was written is left out of the older ones.
+	 * 
+	 * @param filePath
+	 * 					file's path.
+	 * 
+	 * @throws ClassNotFoundException
+	 */
+	private void readFromFile() throws ClassNotFoundException{
+		try {
+			List<Catalog> mapped = mapSegments();
+			if(!mapped.isEmpty() && mapped.get(0).isIndexed()){
+				segments = mapped.toArray(new Catalog[mapped.size()]);
+				int nextId = 0;
+				for(Catalog segment: segments){
+					for(int i = 0; i < segment.getRemovedCount(); i++){
+						tracked.remove(segment.getRemoved(i));
+					}
+					for(int i = 0; i < segment.size(); i++){
+						tracked.add(segment.getSortedId(i));
+					}
+					// Ids of removed photos are not given again either
+					if(segment.size() > 0)
+						nextId = Math.max(nextId, segment.getSortedId(segment.size() - 1) + 1);
+					if(segment.getRemovedCount() > 0)
+						nextId = Math.max(nextId, segment.getRemoved(segment.getRemovedCount() - 1) + 1);
+				}
+				store = new PhotoStore(nextId);
+			}else{
+				for(Photo p: super.readFromFile(new HashMap<String, Photo>()).values()){
+					register(p);
+				}
+			}
+	    } 
+	    catch (IOException e) {
+	    	logger.log(Level.SEVERE, "Cannot read Photo obeject from file.", e);
+	    }
+	}
+	
+	
+	
+	
+	
+	// Reference: week 8 Paul's lecture
+	/**
+	 * Write photo object to file at the given filePath.
+	 * 
+	 * @param filePath
+	 * 					file's path.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void saveToFile() throws IOException{
+		// Photos not read yet are read just to be written again
+		writeMerged(true);
+		logger.log(Level.FINE, "Write tag object to file");
+	}
+	
+	
+	
+	/**
+	 * Write the photos in memory and the photos of the newest segments,
+	 * merged one at a time, to a new segment that takes their place. 
+	 * The newest segment is merged while it is no bigger than what is 
+	 * written with it. The photos in memory stay there. Callers hold this
+	 * manager's lock.
+	 * 
+	 * @param all
+	 * 				true to merge every segment
+	 * @throws IOException
+	 */
+	private void writeMerged(boolean all) throws IOException{
+		Catalog[] segs = segments;
+		long size = 0;
+		for(int id = store.next(0); id >= 0; id = store.next(id + 1)){
+			if(tracked.contains(id))
+				size++;
+		}
+		int from = segs.length;
+		while(from > 0 && (all || segs[from - 1].size() <= size)){
+			size += segs[--from].size();
+		}
+		
+		// Older segments may still have entries of removed photos
+		CompressedBitmap gone = null;
+		if(from > 0){
+			gone = removed;
+			for(int s = from; s < segs.length; s++){
+				for(int i = 0; i < segs[s].getRemovedCount(); i++){
+					gone.add(segs[s].getRemoved(i));
+				}
+			}
+		}
+		Catalog written = Catalog.map(writeSegment(new Merge(segs, from), gone));
+		Catalog[] kept = Arrays.copyOf(segs, from + 1);
+		kept[from] = written;
+		List<Path> files = new ArrayList<Path>(kept.length);
+		for(Catalog segment: kept){
+			files.add(segment.getPath());
+		}
+		switchTo(files);
+		segments = kept;
+		removed = new CompressedBitmap();
+		// Every photo is at its path in segments now
+		paths = new StringIntMap();
+		// Everything in the journal is in the ser file now
+		journal.clear();
+	}
+	
+	
+	
+	/**
+	 * Append a change to the journal, saving the changes instead once 
+	 * the journal has grown to COMPACT_THRESHOLD records (see compact).
+	 * Callers hold this manager's lock, so a save never misses a change
+	 * made while it runs. While a batch runs, records are handed to the 
+	 * OS, and the journal compacted, once at its end.
+	 * 
+	 * @param type
+	 * 				the type of change
+	 * @param fields
+	 * 				the strings describing the change
+	 * @throws IOException
+	 */
+	private void record(int type, String... fields) throws IOException{
+		if(batches > 0){
+			journal.write(type, fields);
+		}else{
+			journal.append(type, fields);
+			if(journal.getRecordCount() >= COMPACT_THRESHOLD)
+				compact();
+		}
+	}
+	
+	
+	
+	/**
+	 * Save the changes in the journal to a new segment, merging in only 
+	 * the newest segments as a spill does, and clear the journal. Unlike
+	 * saveToFile, this does not rewrite every segment, so compacting 
+	 * often, e.g. during a large import, costs about as much as the
+	 * changes. Callers hold this manager's lock.
+	 * 
+	 * @throws IOException
+	 */
+	private void compact() throws IOException{
+		writeMerged(false);
+		logger.log(Level.FINE, "Compacted journal, now in " + segments.length + " segments");
+	}
+	
+	
+	
+	/**
+	 * Start a batch of changes, e.g. a scan: until the matching endBatch,
+	 * the journal is neither handed to the OS nor compacted after each 
+	 * change, so many changes cost one write and at most one save.
+	 */
+	public synchronized void beginBatch(){
+		batches++;
+	}
+	
+	
+	
+	/**
+	 * End a batch started by beginBatch, writing out its changes.
+	 * 
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	public synchronized void endBatch() throws IOException{
+		batches--;
+		journal.flush();
+		if(batches == 0 && journal.getRecordCount() >= COMPACT_THRESHOLD)
+			compact();
+	}
+	
+	
+	
+	/**
+	 * Hand the changes of the running batches to the OS without ending
+	 * them, e.g. every so often during a long import. The journal is 
+	 * not compacted until the batches end.
+	 * 
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	public synchronized void flushBatch() throws IOException{
+		journal.flush();
+	}
+	
+	
+	
+	/**
+	 * Apply the changes in the journal to the photos read from the ser 
+	 * file. A change to a photo that cannot be found is skipped.
+	 * 
+	 * @throws IOException
+	 */
+	private void replayJournal() throws IOException{
+		List<Journal.Record> records = journal.read();
+		for(Journal.Record r: records){
+			Photo photo = lookup(r.getField(0));
+			if(photo == null && r.getType() != ADD){
+				logger.log(Level.WARNING, "Journal names unknown photo: " + r.getField(0));
+				continue;
+			}
+			switch(r.getType()){
+			case ADD:
+				String path = r.getField(0);
+				if(photo == null){
+					photo = new Photo(r.getField(1), path, new File(path));
+					if(r.getFieldCount() > 3)
+						photo.setFileStat(Long.parseLong(r.getField(2)), Long.parseLong(r.getField(3)));
+					register(photo);
+				}
+				break;
+			case STAT:
+				photo.setFileStat(Long.parseLong(r.getField(1)), Long.parseLong(r.getField(2)));
+				break;
+			case REMOVE:
+				forget(photo);
+				break;
+			case RENAME:
+				String oldPath = photo.getPath();
+				photo.updateInfo(r.getField(1), r.getField(2));
+				move(photo, oldPath, photo.getPath());
+				break;
+			case TAG_ADD:
+				photo.addTag(new Tag(r.getField(1)));
+				break;
+			case TAG_REMOVE:
+				removeTagNamed(photo, r.getField(1));
+				break;
+			case REVERT:
+				revertInfo(photo, r.getField(1));
+				break;
+			default:
+				logger.log(Level.WARNING, "Unknown journal record: " + r.getType());
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Remove the tag of the given name from a photo read back from the
+	 * journal, whose tags are not linked to TagManager's yet.
+	 * 
+	 * @param photo
+	 * 				the photo
+	 * @param tagName
+	 * 				the name of the tag to remove
+	 */
+	private void removeTagNamed(Photo photo, String tagName){
+		for(Tag t: photo.getTags()){
+			if(t.getName().equals(tagName)){
+				photo.removeTag(t);
+				return;
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Replay a revert: drop the previous names from oldName on, and take
+	 * the tags named in oldName. The rename itself is its own record.
+	 * 
+	 * @param photo
+	 * 				the photo reverted
+	 * @param oldName
+	 * 				the name it was reverted to
+	 */
+	private void revertInfo(Photo photo, String oldName){
+		photo.setPreviousName(previousNamesBefore(photo, oldName));
+		ArrayList<Tag> tags = new ArrayList<Tag>();
+		for(String s: oldName.split(" ")){
+			if(s.startsWith(Tag.prefix)){
+				tags.add(new Tag(s.substring(1)));
+			}
+		}
+		photo.setTags(tags);
+	}
+	
+	
+	
+	/**
+	 * Write a photo as a catalog entry: path, file size and modification
+	 * time, name, previous names, names of its tags and its thumbnail. 
+	 * Tags are written by name only,
+	 * Mediator links them to TagManager's tags after reading.
+	 * 
+	 * @param out
+	 * 				the catalog being written
+	 * @param photo
+	 * 				the photo to write
+	 */
+	@Override
+	protected void writeEntry(CatalogWriter out, Photo photo){
+		out.writeString(photo.getPath());
+		out.writeVarLong(photo.getFileSize());
+		out.writeVarLong(photo.getLastModified());
+		out.writeString(photo.getName());
+		out.writeVarInt(photo.getPreviousName().size());
+		for(String preName: photo.getPreviousName()){
+			out.writeString(preName);
+		}
+		out.writeVarInt(photo.getTags().size());
+		for(Tag t: photo.getTags()){
+			out.writeString(t.getName());
+		}
+		out.writeString(photo.getThumb().getPath());
+		out.writeString(photo.getThumb().getKey());
+	}
+	
+	
+	
+	/**
+	 * Read a photo written by writeEntry. Its tags are new Tag objects
+	 * carrying only the name, until linked to the TagManager's tags.
+	 * 
+	 * @param in
+	 * 				the catalog being read
+	 * @return Photo
+	 * 				the photo read
+	 * @throws IOException
+	 */
+	@Override
+	protected Photo readEntry(CatalogReader in) throws IOException{
+		String path = in.readString();
+		// Catalogs before version 3 have no file stat
+		long size = in.getVersion() >= 3 ? in.readVarLong() : 0;
+		long modified = in.getVersion() >= 3 ? in.readVarLong() : 0;
+		Photo photo = new Photo(in.readString(), path, new File(path));
+		photo.setFileStat(size, modified);
+		int count = in.readVarInt();
+		ArrayList<String> preNames = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++){
+			preNames.add(in.readString());
+		}
+		photo.setPreviousName(preNames);
+		count = in.readVarInt();
+		for(int i = 0; i < count; i++){
+			photo.addTag(new Tag(in.readString()));
+		}
+		photo.getThumb().setPath(in.readString());
+		photo.getThumb().setKey(in.readString());
+		return photo;
+	}
+	
+	
+	
+	/**
+	 * Photos are kept by path.
+	 * 
+	 * @param photo
+	 * 				the photo
+	 * @return String
+	 * 				the photo's path
+	 */
+	@Override
+	protected String keyOf(Photo photo){
+		return photo.getPath();
+	}
+	
+	
+	
+	/**
+	 * Photos with tags are flagged, so Mediator can link them
+	 * without reading every photo.
+	 * 
+	 * @param photo
+	 * 				the photo
+	 * @return int
+	 * 				TAGGED if the photo has tags, 0 otherwise
+	 */
+	@Override
+	protected int flagsOf(Photo photo){
+		return photo.getTags().isEmpty() ? 0 : TAGGED;
+	}
+	
+	
+	
+	/**
+	 * Photos are written with their id, so they keep it when read back.
+	 * 
+	 * @param photo
+	 * 				the photo
+	 * @return int
+	 * 				the photo's id
+	 */
+	@Override
+	protected int idOf(Photo photo){
+		return photo.getId();
+	}
+	
+	
+	
+	/**
+	 * Get the newest of the given segments that has an entry of the 
+	 * photo with the given id. That entry holds the photo as it was last
+	 * written.
+	 * 
+	 * @param segs
+	 * 				the segments, oldest first
+	 * @param id
+	 * 				photo's id
+	 * @return Catalog
+	 * 				the segment, or null if none has the photo
+	 */
+	private static Catalog newestWith(Catalog[] segs, int id){
+		for(int s = segs.length - 1; s >= 0; s--){
+			if(segs[s].indexOfId(id) >= 0)
+				return segs[s];
+		}
+		return null;
+	}
+	
+	
+	
+	/**
+	 * Tell if the entry of a segment at the given index holds a tracked
+	 * photo at the entry's path: the photo is at that path in memory, or
+	 * if it is not in memory, has no newer entry.
+	 * 
+	 * @param segs
+	 * 				the segments, oldest first
+	 * @param s
+	 * 				the segment of the entry
+	 * @param index
+	 * 				the entry index
+	 * @return boolean
+	 * 				true if the entry's path is the photo's path now
+	 */
+	private boolean isCurrent(Catalog[] segs, int s, int index){
+		int id = segs[s].getId(index);
+		synchronized(this){
+			if(!tracked.contains(id))
+				return false;
+		}
+		Photo loaded = store.get(id);
+		if(loaded != null)
+			return loaded.getPath().equals(segs[s].getKey(index));
+		for(int t = s + 1; t < segs.length; t++){
+			if(segs[t].indexOfId(id) >= 0)
+				return false;
+		}
+		return true;
+	}
+	
+	
+	
+	/**
+	 * Read the photo of the entry of a segment at the given index.
+	 * 
+	 * @param segment
+	 * 				the segment
+	 * @param index
+	 * 				the entry index
+	 * @return Photo
+	 * 				a new Photo object
+	 */
+	private Photo readPhoto(Catalog segment, int index){
+		try {
+			Photo photo = readEntry(segment.getReader(index));
+			photo.setId(segment.getId(index));
+			return photo;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read photo " + index + " of " + segment.getPath(), e);
+		}
+	}
+	
+	
+	
+	/**
+	 * Read the photo with the given id from the newest segment that has it,
+	 * with the TagManager's tags.
+	 * 
+	 * @param id
+	 * 				photo's id
+	 * @return Photo
+	 * 				a new Photo object, or null if no segment has the photo
+	 */
+	private Photo readPhoto(int id){
+		Catalog segment = newestWith(segments, id);
+		if(segment == null)
+			return null;
+		Photo photo = readPhoto(segment, segment.indexOfId(id));
+		linkTags(photo);
+		return photo;
+	}
+	
+	
+	
+	/**
+	 * Replace the tags of a photo read from a segment, which only carry
+	 * their names, by the TagManager's tags of the same names. A tag
+	 * missing from the TagManager is added to it, with the photo.
+	 * 
+	 * @param photo
+	 * 				the photo read
+	 */
+	private void linkTags(Photo photo){
+		TagManager tags = tagManager;
+		if(tags == null || photo.getTags().isEmpty())
+			return;
+		ArrayList<Tag> linked = new ArrayList<Tag>(photo.getTags().size());
+		for(Tag t: photo.getTags()){
+			Tag tag = tags.findTag(t.getName());
+			if(tag == null){
+				tag = tags.addTag(new Tag(t.getName()));
+				tag.addPhoto(photo);
+			}
+			linked.add(tag);
+		}
+		photo.setTags(linked);
+	}
+	
+	
+	
+	/**
+	 * Give photos read from segments from now on the tags of the given
+	 * TagManager, instead of new tags that only carry the name, so that
+	 * a photo read again after a spill shares its tags with the TagManager.
+	 * 
+	 * @param tagManager
+	 * 				the TagManager, or null to give new tags again
+	 */
+	public void setTagManager(TagManager tagManager){
+		this.tagManager = tagManager;
+	}
+	
+	
+	
+	/**
+	 * Get the id of the photo tracked at the given path.
+	 * 
+	 * @param path
+	 * 				photo's path.
+	 * @return int
+	 * 				the id, or -1 if no photo is tracked at the path
+	 */
+	private int idAt(String path){
+		int id;
+		synchronized(this){
+			id = paths.get(path);
+		}
+		if(id >= 0)
+			return id;
+		Catalog[] segs = segments;
+		for(int s = segs.length - 1; s >= 0; s--){
+			int index = segs[s].indexOf(path);
+			if(index >= 0 && isCurrent(segs, s, index))
+				return segs[s].getId(index);
+		}
+		return -1;
+	}
+	
+	
+	
+	/**
+	 * Get the photo with the given id, reading it the first time.
+	 * 
+	 * @param id
+	 * 				the id of a tracked photo
+	 * @return Photo
+	 * 				the photo
+	 */
+	private Photo photo(int id){
+		PhotoStore photos = store;
+		Photo photo = photos.get(id);
+		if(photo == null){
+			// Another thread may have read it meanwhile, keep theirs
+			photo = photos.setIfAbsent(id, readPhoto(id));
+		}
+		return photo;
+	}
+	
+	
+	
+	/**
+	 * Find the photo at the given path, reading it if needed.
+	 * 
+	 * @param path
+	 * 				photo's path.
+	 * @return Photo
+	 * 				the photo, or null if none is tracked at the path
+	 */
+	private Photo lookup(String path){
+		int id = idAt(path);
+		return id >= 0 ? photo(id) : null;
+	}
+	
+	
+	
+	/**
+	 * Tell if a photo is tracked at the given path.
+	 * 
+	 * @param path
+	 * 				photo's path.
+	 * @return boolean
+	 * 				true if a photo is tracked at the path
+	 */
+	private boolean isTracked(String path){
+		return idAt(path) >= 0;
+	}
+	
+	
+	
+	/**
+	 * Start tracking a new photo, under the next free id.
+	 * 
+	 * @param photo
+	 * 				the photo
+	 */
+	private synchronized void register(Photo photo){
+		photo.setId(store.add(photo));
+		tracked.add(photo.getId());
+		paths.put(photo.getPath(), photo.getId());
+	}
+	
+	
+	
+	/**
+	 * Get the path of a tracked photo without reading it.
+	 * 
+	 * @param id
+	 * 				photo's id
+	 * @return String
+	 * 				the path
+	 */
+	private String pathOf(int id){
+		Photo loaded = store.get(id);
+		if(loaded != null)
+			return loaded.getPath();
+		Catalog segment = newestWith(segments, id);
+		return segment.getKey(segment.indexOfId(id));
 	}
 	
 	
-	// Reference: Week 8 lecture code
-	@SuppressWarnings("unchecked")
+	
 	/**
-	 * Reads photo object from ser file at given filePath.
+	 * Stop tracking a photo.
 	 * 
-	 * @param filePath
-	 * 					file's path.
-	 * 
-	 * @throws ClassNotFoundException
+	 * @param photo
+	 * 				the photo
 	 */
-	private void readFromFile() throws ClassNotFoundException{
-		try {
-			photos = super.readFromFile(photos);
-	    } 
-	    catch (IOException e) {
-	    	logger.log(Level.SEVERE, "Cannot read Photo obeject from file.", e);
-	    }
+	private synchronized void forget(Photo photo){
+		paths.remove(photo.getPath());
+		tracked.remove(photo.getId());
+		removed.add(photo.getId());
+		if(tagCounts != null)
+			tagCounts.remove(photo.getId());
 	}
 	
 	
 	
+	/**
+	 * Update the tag count of a photo after its tags changed.
+	 * Callers hold this manager's lock.
+	 * 
+	 * @param photo
+	 * 				the photo
+	 */
+	private void tagsChanged(Photo photo){
+		if(tagCounts != null)
+			tagCounts.set(photo.getId(), photo.getTags().size());
+	}
+	
 	
 	
-	// Reference: week 8 Paul's lecture
 	/**
-	 * Write photo object to file at the given filePath.
-	 * 
-	 * @param filePath
-	 * 					file's path.
+	 * Keep a photo, which is in memory, under its new path. Only the path
+	 * index changes, the photo keeps its id.
 	 * 
-	 * @throws IOException
+	 * @param photo
+	 * 				the photo
+	 * @param oldPath
+	 * 				the path it was kept under
+	 * @param newPath
+	 * 				the path to keep it under
 	 */
-	public void saveToFile() throws IOException{
-		super.saveToFile(photos);
-		logger.log(Level.FINE, "Write tag object to file");
+	private synchronized void move(Photo photo, String oldPath, String newPath){
+		paths.remove(oldPath);
+		// A photo whose file is no longer there may still be tracked at newPath
+		int other = idAt(newPath);
+		if(other >= 0 && other != photo.getId())
+			forget(photo(other));
+		paths.put(newPath, photo.getId());
+	}
+	
+	
+	
+	/**
+	 * A snapshot of all tracked photos, in order of their ids, that reads
+	 * photos only when they are asked for.
+	 */
+	private class PhotoList extends AbstractList<Photo> implements RandomAccess {
+		
+		/** The ids of the photos in the list */
+		private int[] ids;
+		
+		/** Whether photos read are kept */
+		private boolean keep;
+		
+		
+		/**
+		 * Create a snapshot of the photos tracked now.
+		 * 
+		 * @param keep
+		 * 				true to keep photos read, false to read them 
+		 * 				again each time
+		 */
+		private PhotoList(boolean keep){
+			this.keep = keep;
+			synchronized(PhotoManager.this){
+				ids = tracked.toArray();
+			}
+		}
+		
+		
+		@Override
+		public Photo get(int i) {
+			if(keep)
+				return photo(ids[i]);
+			Photo photo = store.get(ids[i]);
+			return photo != null ? photo : readPhoto(ids[i]);
+		}
+		
+		
+		@Override
+		public int size() {
+			return ids.length;
+		}
+	}
+	
+	
+	
+	/**
+	 * Goes through the photos in memory and the entries of the newest 
+	 * segments that hold the other tracked photos, merged in order of 
+	 * their paths. Entries are read only when they are reached, so 
+	 * going through takes bounded memory. Callers hold this manager's 
+	 * lock until done.
+	 */
+	private class Merge implements Iterator<Photo> {
+		
+		/** The segments, oldest first */
+		private Catalog[] segs;
+		
+		/** The first segment merged */
+		private int from;
+		
+		/** The next entry index of each segment merged */
+		private int[] next;
+		
+		/** The photos in memory, in order of their paths */
+		private List<Photo> loaded;
+		
+		/** The ids of the photos in memory */
+		private CompressedBitmap inMemory;
+		
+		/** The next photo of loaded */
+		private int nextLoaded;
+		
+		/** The path of the photo returned last */
+		private String lastPath;
+		
+		/** The next photo to return, null if not found yet */
+		private Photo pending;
+		
+		
+		/**
+		 * Create a Merge of the photos in memory and the given segments.
+		 * 
+		 * @param segs
+		 * 				the segments, oldest first
+		 * @param from
+		 * 				the first segment merged, photos whose newest 
+		 * 				entry is in an older one are left out
+		 */
+		private Merge(Catalog[] segs, int from){
+			this.segs = segs;
+			this.from = from;
+			next = new int[segs.length];
+			loaded = new ArrayList<Photo>();
+			inMemory = new CompressedBitmap();
+			for(int id = store.next(0); id >= 0; id = store.next(id + 1)){
+				if(tracked.contains(id)){
+					loaded.add(store.get(id));
+					inMemory.add(id);
+				}
+			}
+			Collections.sort(loaded, new Comparator<Photo>() {
+				@Override
+				public int compare(Photo a, Photo b) {
+					return a.getPath().compareTo(b.getPath());
+				}
+			});
+		}
+		
+		
+		@Override
+		public boolean hasNext() {
+			if(pending == null)
+				pending = advance();
+			return pending != null;
+		}
+		
+		
+		@Override
+		public Photo next() {
+			if(!hasNext())
+				throw new NoSuchElementException();
+			Photo photo = pending;
+			pending = null;
+			return photo;
+		}
+		
+		
+		/**
+		 * Find the photo with the smallest path after lastPath. A path
+		 * found more than once is taken from memory, else from the 
+		 * newest segment.
+		 * 
+		 * @return Photo
+		 * 				the photo, or null if there is none left
+		 */
+		private Photo advance(){
+			while(true){
+				String path = null;
+				int source = -1;
+				if(nextLoaded < loaded.size())
+					path = loaded.get(nextLoaded).getPath();
+				for(int s = segs.length - 1; s >= from; s--){
+					while(next[s] < segs[s].size() && !isWritten(s, next[s])){
+						next[s]++;
+					}
+					if(next[s] < segs[s].size()){
+						String key = segs[s].getKey(next[s]);
+						if(path == null || key.compareTo(path) < 0){
+							path = key;
+							source = s;
+						}
+					}
+				}
+				if(path == null)
+					return null;
+				boolean seen = path.equals(lastPath);
+				lastPath = path;
+				if(source < 0){
+					Photo photo = loaded.get(nextLoaded++);
+					if(!seen)
+						return photo;
+				}else if(!seen){
+					return readPhoto(segs[source], next[source]++);
+				}else{
+					next[source]++;
+				}
+			}
+		}
+		
+		
+		/**
+		 * Tell if an entry of a merged segment is written: its photo is
+		 * tracked, not in memory, and has no newer entry.
+		 */
+		private boolean isWritten(int s, int index){
+			int id = segs[s].getId(index);
+			if(!tracked.contains(id) || inMemory.contains(id))
+				return false;
+			for(int t = s + 1; t < segs.length; t++){
+				if(segs[t].indexOfId(id) >= 0)
+					return false;
+			}
+			return true;
+		}
 	}
 	
 	
@@ -119,6 +1060,11 @@ public class PhotoManager extends Manager<Photo>{
 	public void closeHandler(){
 		for (Handler f: logger.getHandlers())
 			f.close();
+		try {
+			journal.close();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Cannot close journal.", e);
+		}
 	} 
 	
 	
@@ -126,13 +1072,25 @@ public class PhotoManager extends Manager<Photo>{
 	/**
 	 * Add a new photo to be kept track of.
 	 * If the photo doesn't contain in photos before.
+	 * This is safe to call from several loading threads at once.
 	 * 
 	 * @param photo
 	 * 				photo to add.
+	 * @return boolean
+	 * 				true if photo is added, false if it was already tracked.
 	 */				
-	public void addPhoto(Photo photo){
-		if(!photos.containsKey(photo.getPath()))
-			photos.put(photo.getPath(), photo);
+	public synchronized boolean addPhoto(Photo photo){
+		if(!isTracked(photo.getPath())){
+			register(photo);
+			try {
+				record(ADD, photo.getPath(), photo.getName(), 
+						Long.toString(photo.getFileSize()), Long.toString(photo.getLastModified()));
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Cannot journal new photo.", e);
+			}
+			return true;
+		}
+		return false;
 	}
 	
 	
@@ -154,7 +1112,7 @@ public class PhotoManager extends Manager<Photo>{
 	 */
 	public Photo findPhoto(String path) throws InvalidPhotoPathException{
 		if(isPathValid(path)){
-			return photos.get(path);			
+			return lookup(path);			
 		}else{
 			return null;
 		}
@@ -171,7 +1129,319 @@ public class PhotoManager extends Manager<Photo>{
 	 * 							the collection form of photo in photos
 	 */
 	public Collection<Photo> getPhotos(){
-		return photos.values();
+		return getPhotoList();
+	}
+	
+	
+	
+	/**
+	 * Get all Photos that this Manager is managing, as a list that
+	 * does not change. Photos saved in the ser file are read when the 
+	 * list is asked for them, so showing a part of the list reads 
+	 * only that part.
+	 * 
+	 * @return List<Photo>
+	 * 							the photos tracked now
+	 */
+	public List<Photo> getPhotoList(){
+		return new PhotoList(true);
+	}
+	
+	
+	
+	/**
+	 * Get all Photos that this Manager is managing, as a list that does
+	 * not keep the photos it reads from the ser file: each is read again
+	 * when asked for, so going through the list once takes bounded memory
+	 * however many photos there are.
+	 * 
+	 * @return List<Photo>
+	 * 							the photos tracked now
+	 */
+	public List<Photo> getPhotoListUnkept(){
+		return new PhotoList(false);
+	}
+	
+	
+	
+	/**
+	 * Save the photos held in memory, e.g. by a large import, to a new 
+	 * segment of the ser file and let go of them, so that they can be 
+	 * garbage collected and are read from the ser file when needed.
+	 * The ser file is not rewritten, see the class comment.
+	 * 
+	 * Photos keep their ids, so tags still find them, but Photo objects 
+	 * handed out before are no longer the ones tracked. This is meant for
+	 * bulk imports nothing else is changing photos of.
+	 * 
+	 * @throws IOException
+	 * 				if the ser file cannot be written or mapped.
+	 */
+	public synchronized void spillToCatalog() throws IOException{
+		writeMerged(false);
+		store = new PhotoStore(store.size());
+		logger.log(Level.FINE, "Spilled photos to file, now in " + segments.length + " segments");
+	}
+	
+	
+	
+	/**
+	 * Get the photo with the given id.
+	 * 
+	 * @param id
+	 * 				photo's id.
+	 * @return Photo
+	 * 				the photo, or null if no photo with this id is tracked.
+	 */
+	public Photo getPhoto(int id){
+		synchronized(this){
+			if(!tracked.contains(id))
+				return null;
+		}
+		return photo(id);
+	}
+	
+	
+	
+	/**
+	 * Get the id of the photo tracked at the given path, without reading
+	 * the photo.
+	 * 
+	 * @param path
+	 * 				photo's path.
+	 * @return int
+	 * 				the id, or -1 if no photo is tracked at the path.
+	 */
+	public int getPhotoId(String path){
+		return idAt(path);
+	}
+	
+	
+	
+	/**
+	 * Tell if the photo with the given id was last scanned with the given
+	 * file size and modification time. A photo not read from the ser 
+	 * file yet is checked there, without being read.
+	 * 
+	 * @param id
+	 * 				photo's id.
+	 * @param size
+	 * 				the file's size now.
+	 * @param modified
+	 * 				the file's modification time now.
+	 * @return boolean
+	 * 				true if the file is unchanged since.
+	 */
+	public boolean hasFileStat(int id, long size, long modified){
+		Photo photo = store.get(id);
+		if(photo != null)
+			return photo.getFileSize() == size && photo.getLastModified() == modified;
+		Catalog segment = newestWith(segments, id);
+		if(segment == null || segment.getVersion() < 3)
+			return false;
+		try {
+			// The entry starts with the path, then the file stat
+			CatalogReader in = segment.getReader(segment.indexOfId(id));
+			in.readVarInt();
+			return in.readVarLong() == size && in.readVarLong() == modified;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	
+	
+	/**
+	 * Record a new file size and modification time for the photo with 
+	 * the given id, found by a scan.
+	 * 
+	 * @param id
+	 * 				photo's id.
+	 * @param size
+	 * 				the file's size.
+	 * @param modified
+	 * 				the file's modification time.
+	 * @return Photo
+	 * 				the photo.
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	public Photo setFileStat(int id, long size, long modified) throws IOException{
+		Photo photo = photo(id);
+		synchronized(this){
+			photo.setFileStat(size, modified);
+			record(STAT, photo.getPath(), Long.toString(size), Long.toString(modified));
+		}
+		return photo;
+	}
+	
+	
+	
+	/**
+	 * Stop tracking the photos under the given directory that a scan of
+	 * it did not find. The paths of photos not read from the ser file 
+	 * yet are found in its index, so only removed photos are read.
+	 * 
+	 * @param root
+	 * 				the directory scanned.
+	 * @param seen
+	 * 				the ids of the photos the scan found.
+	 * @return List<Photo>
+	 * 				the photos no longer tracked.
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	public List<Photo> removeMissing(String root, CompressedBitmap seen) throws IOException{
+		return removeMissing(root, seen, null);
+	}
+	
+	
+	
+	/**
+	 * Stop tracking the photos under the given directory that a scan of
+	 * it with the given filter did not find. Photos the filter does not 
+	 * accept were not looked for, so they are kept.
+	 * 
+	 * @param root
+	 * 				the directory scanned.
+	 * @param seen
+	 * 				the ids of the photos the scan found.
+	 * @param filter
+	 * 				the files the scan looked at, null for all.
+	 * @return List<Photo>
+	 * 				the photos no longer tracked.
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	public List<Photo> removeMissing(String root, CompressedBitmap seen, ScanFilter filter) 
+			throws IOException{
+		String prefix = root.endsWith(File.separator) ? root : root + File.separator;
+		int[] missing;
+		synchronized(this){
+			missing = tracked.andNot(seen).toArray();
+		}
+		List<Photo> removed = new ArrayList<Photo>();
+		for(int id: missing){
+			String path = pathOf(id);
+			if(!path.startsWith(prefix))
+				continue;
+			if(filter != null && !filter.accepts(Paths.get(path.substring(prefix.length()))))
+				continue;
+			Photo photo = photo(id);
+			synchronized(this){
+				if(!tracked.contains(id))
+					continue;
+				forget(photo);
+				record(REMOVE, photo.getPath());
+			}
+			removed.add(photo);
+		}
+		return removed;
+	}
+	
+	
+	
+	/**
+	 * Get the ids of the tracked photos under the given directory.
+	 * 
+	 * @param dir
+	 * 				the directory.
+	 * @return int[]
+	 * 				the ids, in increasing order.
+	 */
+	public int[] getPhotoIdsUnder(String dir){
+		String prefix = dir.endsWith(File.separator) ? dir : dir + File.separator;
+		int[] ids;
+		synchronized(this){
+			ids = tracked.toArray();
+		}
+		int n = 0;
+		for(int id: ids){
+			if(pathOf(id).startsWith(prefix))
+				ids[n++] = id;
+		}
+		return Arrays.copyOf(ids, n);
+	}
+	
+	
+	
+	/**
+	 * Follow a photo that was moved or renamed outside of this manager,
+	 * e.g. through the operating system. The photo keeps its id and tags
+	 * and takes the name of its new file.
+	 * 
+	 * @param oldPath
+	 * 				the path the photo was tracked at.
+	 * @param newPath
+	 * 				the path of its file now.
+	 * @return Photo
+	 * 				the photo, or null if no photo is tracked at oldPath 
+	 * 				or one is already tracked at newPath.
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	public synchronized Photo photoMoved(String oldPath, String newPath) throws IOException{
+		if(!isTracked(oldPath) || isTracked(newPath))
+			return null;
+		Photo photo = lookup(oldPath);
+		String name = Paths.get(newPath).getFileName().toString();
+		photo.updateInfo(name, newPath);
+		move(photo, oldPath, newPath);
+		record(RENAME, oldPath, name, newPath);
+		logger.log(Level.INFO, "Photo moved from:" + oldPath + " to:" + newPath);
+		return photo;
+	}
+	
+	
+	
+	/**
+	 * Get the ids of all tracked photos.
+	 * 
+	 * @return CompressedBitmap
+	 * 				a copy of the ids.
+	 */
+	public synchronized CompressedBitmap getPhotoIds(){
+		return tracked.copy();
+	}
+	
+	
+	
+	/**
+	 * Get all Photos that have at least one tag, reading only those
+	 * from the ser file.
+	 * 
+	 * @return List<Photo>
+	 * 							the photos that have tags
+	 */
+	public List<Photo> getTaggedPhotos(){
+		List<Photo> result = new ArrayList<Photo>();
+		Catalog[] segs = segments;
+		PhotoStore photos = store;
+		CompressedBitmap ids;
+		synchronized(this){
+			ids = tracked.copy();
+		}
+		// Photos in memory may have changed since they were saved
+		CompressedBitmap loaded = new CompressedBitmap();
+		for(int id = photos.next(0); id >= 0; id = photos.next(id + 1)){
+			if(ids.contains(id)){
+				loaded.add(id);
+				Photo p = photos.get(id);
+				if(!p.getTags().isEmpty())
+					result.add(p);
+			}
+		}
+		// Others as they were last saved, in their newest entry
+		for(int s = 0; s < segs.length; s++){
+			for(int i = 0; i < segs[s].size(); i++){
+				if((segs[s].getFlags(i) & TAGGED) == 0)
+					continue;
+				int id = segs[s].getId(i);
+				if(ids.contains(id) && !loaded.contains(id) && newestWith(segs, id) == segs[s])
+					result.add(photo(id));
+			}
+		}
+		return result;
 	}
 	
 	
@@ -188,9 +1458,14 @@ public class PhotoManager extends Manager<Photo>{
 	 * @throws InvalidPhotoPathException 
 	 * 				if photo's path is invalid.
 	 */
-	public void removePhoto(String path) throws InvalidPhotoPathException{
-		if(photos.containsKey(path)){
-			photos.remove(path);
+	public synchronized void removePhoto(String path) throws InvalidPhotoPathException{
+		if(isTracked(path)){
+			forget(lookup(path));
+			try {
+				record(REMOVE, path);
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Cannot journal removed photo.", e);
+			}
 		}
 	}
 	
@@ -218,7 +1493,7 @@ public class PhotoManager extends Manager<Photo>{
 			throws InvalidPhotoPathException, IOException{
 		if(isPathValid(path)){
 			// Do the renaming step
-			Photo photo = photos.get(path);
+			Photo photo = lookup(path);
 			String oldName = photo.getName();
 			Path source = Paths.get(photo.getPath());
 			Path target = source.resolveSibling(name);
@@ -227,13 +1502,14 @@ public class PhotoManager extends Manager<Photo>{
 			// Photo has been renamed on OS level
 			// Need to update this curr photo info
 			String newPath = target.toString();
-			photo.updateInfo(name, newPath);
-			photos.remove(path);
-			photos.put(newPath, photo);
+			synchronized(this){
+				photo.updateInfo(name, newPath);
+				move(photo, path, newPath);
+				record(RENAME, path, name, newPath);
+			}
 			
 			//log info
 			logger.log(Level.INFO, "Rename Photo from:" + oldName + " to:" + name);
-			saveToFile();
 		}
 	}
 	
@@ -260,8 +1536,12 @@ public class PhotoManager extends Manager<Photo>{
 	public void removeTag(String path, Tag tag) 
 			throws InvalidPhotoPathException, IOException{
 		if(isPathValid(path)){
-			Photo photo = photos.get(path);
-			photo.removeTag(tag);
+			Photo photo = lookup(path);
+			synchronized(this){
+				photo.removeTag(tag);
+				tagsChanged(photo);
+				record(TAG_REMOVE, path, tag.getName());
+			}
 			tag.removePhoto(photo);
 			String newName = photo.getName().replaceAll(tag.toString(), "");
 			setPhotoName(path, newName);
@@ -291,9 +1571,13 @@ public class PhotoManager extends Manager<Photo>{
 	public void addTag(String path, Tag tag) 
 			throws InvalidPhotoPathException, IOException{
 		if(isPathValid(path)){
-			Photo photo = photos.get(path);
-			if(!photo.getTags().contains(tag)){
-				photo.addTag(tag);
+			Photo photo = lookup(path);
+			if(!photo.hasTag(tag)){
+				synchronized(this){
+					photo.addTag(tag);
+					tagsChanged(photo);
+					record(TAG_ADD, path, tag.getName());
+				}
 				String newName = tag.toString() + photo.getName();
 				setPhotoName(path, newName);
 			}
@@ -303,22 +1587,178 @@ public class PhotoManager extends Manager<Photo>{
 	
 	
 	/**
-	 * Find the photo that has most many tags.
+	 * Add tags to many photos at once, renaming each photo only once.
+	 * All renames are planned first: a photo whose new name is taken by
+	 * another photo of the batch fails, and one whose new name is the
+	 * current name of another photo of the batch is renamed after the 
+	 * others. The remaining renames are done in parallel. The journal 
+	 * is handed to the OS once, at the end.
+	 * A photo that fails is left as it was; the others go on.
+	 * 
+	 * @param batch
+	 * 				the photos to tag.
+	 * 
+	 * @param tags
+	 * 				the tags to add, in the order addTag would add them.
+	 * 
+	 * @param parallelism
+	 * 				number of threads renaming files.
+	 * 
+	 * @return BatchReport
+	 * 				what was done to each photo, in the order given.
+	 * 
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	public BatchReport addTags(List<Photo> batch, final List<Tag> tags, int parallelism) 
+			throws IOException{
+		final BatchReport.Result[] results = new BatchReport.Result[batch.size()];
+		final String[] newNames = new String[batch.size()];
+		final Path[] targets = new Path[batch.size()];
+		
+		// Plan every rename
+		Set<Path> sources = new HashSet<Path>();
+		for(Photo p: batch){
+			sources.add(Paths.get(p.getPath()));
+		}
+		Set<Path> planned = new HashSet<Path>();
+		List<Integer> parallel = new ArrayList<Integer>();
+		List<Integer> sequential = new ArrayList<Integer>();
+		for(int i = 0; i < batch.size(); i++){
+			Photo photo = batch.get(i);
+			String name = photo.getName();
+			if(!isTracked(photo.getPath())){
+				results[i] = new BatchReport.Result(photo, BatchReport.Status.FAILED, name, name,
+						new InvalidPhotoPathException("Path does not matxh!"));
+				continue;
+			}
+			String newName = name;
+			for(Tag t: tags){
+				if(!photo.hasTag(t))
+					newName = t.toString() + newName;
+			}
+			if(newName.equals(name)){
+				results[i] = new BatchReport.Result(photo, BatchReport.Status.UNCHANGED, name, name, null);
+				continue;
+			}
+			Path target = Paths.get(photo.getPath()).resolveSibling(newName);
+			if(!planned.add(target)){
+				results[i] = new BatchReport.Result(photo, BatchReport.Status.FAILED, name, name,
+						new FileAlreadyExistsException(target.toString()));
+				continue;
+			}
+			newNames[i] = newName;
+			targets[i] = target;
+			(sources.contains(target) ? sequential : parallel).add(i);
+		}
+		
+		beginBatch();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallelism));
+		try{
+			List<Callable<Void>> jobs = new ArrayList<Callable<Void>>(parallel.size());
+			for(final int i: parallel){
+				final Photo photo = batch.get(i);
+				jobs.add(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						results[i] = tagAndRename(photo, tags, newNames[i], targets[i]);
+						return null;
+					}
+				});
+			}
+			for(Future<Void> f: pool.invokeAll(jobs)){
+				f.get();
+			}
+			for(int i: sequential){
+				results[i] = tagAndRename(batch.get(i), tags, newNames[i], targets[i]);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Batch interrupted");
+		}catch(ExecutionException e){
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}finally{
+			pool.shutdown();
+			endBatch();
+		}
+		return new BatchReport(Arrays.asList(results));
+	}
+	
+	
+	
+	/**
+	 * Rename a photo of a batch to its planned name, and then add the
+	 * tags it does not have yet.
+	 * 
+	 * @param photo
+	 * 				the photo.
+	 * @param tags
+	 * 				the tags of the batch.
+	 * @param newName
+	 * 				the planned name.
+	 * @param target
+	 * 				the planned path.
+	 * @return BatchReport.Result
+	 * 				RENAMED, or FAILED if the file cannot be renamed.
+	 * @throws IOException
+	 * 				if the journal cannot be written.
+	 */
+	private BatchReport.Result tagAndRename(Photo photo, List<Tag> tags, 
+			String newName, Path target) throws IOException{
+		String oldName = photo.getName();
+		String path = photo.getPath();
+		try{
+			Files.move(Paths.get(path), target);
+		}catch(IOException e){
+			logger.log(Level.WARNING, "Cannot rename Photo " + oldName, e);
+			return new BatchReport.Result(photo, BatchReport.Status.FAILED, oldName, oldName, e);
+		}
+		
+		synchronized(this){
+			for(Tag t: tags){
+				if(!photo.hasTag(t)){
+					photo.addTag(t);
+					record(TAG_ADD, path, t.getName());
+				}
+			}
+			tagsChanged(photo);
+			String newPath = target.toString();
+			photo.updateInfo(newName, newPath);
+			move(photo, path, newPath);
+			record(RENAME, path, newName, newPath);
+		}
+		logger.log(Level.INFO, "Rename Photo from:" + oldName + " to:" + newName);
+		return new BatchReport.Result(photo, BatchReport.Status.RENAMED, oldName, newName, null);
+	}
+	
+	
+	
+	/**
+	 * Find the photo that has most many tags. The tag counts are read
+	 * from the tagged photos the first time, and kept up to date after,
+	 * so later calls take constant time.
 	 * 
 	 * @return Photo
 	 * 					photo that has most many tags.
 	 */
 	public Photo findMostTaggedPhoto(){
-		Photo result = null;
-		for(Photo p: photos.values()){
-			if(result == null)
-				result = p;
-			else{
-				if(p.getTags().size() >= result.getTags().size())
-					result = p;
+		int id;
+		synchronized(this){
+			if(tagCounts == null){
+				tagCounts = new CountHeap();
+				for(Photo p: getTaggedPhotos()){
+					tagsChanged(p);
+				}
 			}
+			id = tagCounts.top();
 		}
-		return result;
+		if(id >= 0)
+			return photo(id);
+		// Photos without tags only matter if no photo has tags
+		List<Photo> all = getPhotoList();
+		return all.isEmpty() ? null : all.get(0);
 	}
 	
 	
@@ -362,6 +1802,28 @@ public class PhotoManager extends Manager<Photo>{
 	public void revertToPreName(String path, String oldName) 
 			throws InvalidPhotoPathException, IOException{
 		Photo p = findPhoto(path);
+		synchronized(this){
+			p.setPreviousName(previousNamesBefore(p, oldName));
+			// Mediator has already set the tags named in oldName
+			tagsChanged(p);
+			record(REVERT, path, oldName);
+		}
+		setPhotoName(path, oldName);
+	}
+	
+	
+	
+	/**
+	 * Get the previous names of a photo that come before the given one.
+	 * 
+	 * @param p
+	 * 				the photo
+	 * @param oldName
+	 * 				the previous name to stop at
+	 * @return ArrayList<String>
+	 * 				the previous names before oldName
+	 */
+	private ArrayList<String> previousNamesBefore(Photo p, String oldName){
 		ArrayList<String> newPreNames = new ArrayList<>();
 		for(String preName: p.getPreviousName()){
 			if(!preName.equals(oldName)){
@@ -370,8 +1832,7 @@ public class PhotoManager extends Manager<Photo>{
 				break;
 			}
 		}
-		p.setPreviousName(newPreNames);
-		setPhotoName(path, oldName);
+		return newPreNames;
 	}
 	
 	
@@ -388,7 +1849,7 @@ public class PhotoManager extends Manager<Photo>{
      */
 	public String toString(){
 		String result = "";
-		for(Photo p : photos.values()){
+		for(Photo p : getPhotos()){
 			result = p.toString() + "\n";
 		}
 		return result;
@@ -408,7 +1869,7 @@ public class PhotoManager extends Manager<Photo>{
 	 */
 	private boolean isPathValid(String path) throws InvalidPhotoPathException{
 		boolean result = true;
-		if(!photos.containsKey(path)){
+		if(!isTracked(path)){
 			result = false;
 			logger.log(Level.SEVERE, "Path doesn't match, cannot find such photo");
 			throw new InvalidPhotoPathException("Path does not matxh!");
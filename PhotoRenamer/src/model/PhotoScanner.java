@@ -0,0 +1,242 @@
+package model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import util.ImageTypeDetector;
+
+/**
+ * PhotoScanner goes through the image files under a directory one at a
+ * time, as an Iterator of new Photo objects that are not tracked by any
+ * PhotoManager yet. Directories are read lazily, depth first, through
+ * DirectoryStreams, so only one open stream per level of the tree is
+ * held however many files there are; with PhotoLoader.importPhotos, a
+ * tree of any size can be imported in bounded memory.
+ *
+ * Files and directories are chosen by a ScanFilter, and a directory
+ * reached twice through symbolic links is only gone through once. A
+ * PhotoScanner must be closed if it is not gone through to the end.
+ */
+public class PhotoScanner implements Iterator<Photo>, Closeable {
+
+	/** The directory scanned, absolute */
+	private Path root;
+
+	/** Which files and directories are scanned */
+	private ScanFilter filter;
+
+	/** How attributes are read */
+	private LinkOption[] linkOptions;
+
+	/** The open directories, innermost first */
+	private ArrayDeque<DirectoryStream<Path>> streams = new ArrayDeque<DirectoryStream<Path>>();
+
+	/** The entries left in each open directory, innermost first */
+	private ArrayDeque<Iterator<Path>> entries = new ArrayDeque<Iterator<Path>>();
+
+	/** The file keys (or real paths) of the directories entered */
+	private Set<Object> visited = new HashSet<Object>();
+
+	/** The next photo, null if not found yet */
+	private Photo next;
+
+	/** Number of files looked at */
+	private int filesScanned;
+
+	/** Whether a directory could not be read */
+	private boolean incomplete;
+
+
+	/**
+	 * Create a PhotoScanner for all files under a directory.
+	 *
+	 * @param dir
+	 * 			the directory
+	 * @throws IOException
+	 * 			if the directory cannot be read
+	 */
+	public PhotoScanner(File dir) throws IOException{
+		this(dir, new ScanFilter());
+	}
+
+
+	/**
+	 * Create a PhotoScanner for the files under a directory that the
+	 * filter accepts.
+	 *
+	 * @param dir
+	 * 			the directory
+	 * @param filter
+	 * 			which files and directories are scanned
+	 * @throws IOException
+	 * 			if the directory cannot be read
+	 */
+	public PhotoScanner(File dir, ScanFilter filter) throws IOException{
+		this.root = dir.getAbsoluteFile().toPath();
+		this.filter = filter;
+		linkOptions = filter.isFollowLinks() ? new LinkOption[0]
+				: new LinkOption[]{LinkOption.NOFOLLOW_LINKS};
+		BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class);
+		visited.add(keyOf(root, attrs));
+		streams.push(Files.newDirectoryStream(root));
+		entries.push(streams.peek().iterator());
+	}
+
+
+	/**
+	 * Tell if there is another photo, reading directories until one is
+	 * found or all have been read.
+	 */
+	@Override
+	public boolean hasNext(){
+		while(next == null && !entries.isEmpty()){
+			advance();
+		}
+		return next != null;
+	}
+
+
+	/**
+	 * Get the next photo.
+	 */
+	@Override
+	public Photo next(){
+		if(!hasNext())
+			throw new NoSuchElementException();
+		Photo photo = next;
+		next = null;
+		return photo;
+	}
+
+
+	/**
+	 * Get the number of files looked at so far.
+	 *
+	 * @return int
+	 * 			the number of files
+	 */
+	public int getFilesScanned(){
+		return filesScanned;
+	}
+
+
+	/**
+	 * Tell if a directory could not be read, so not every file was seen.
+	 *
+	 * @return boolean
+	 * 			true if some directory was skipped
+	 */
+	public boolean isIncomplete(){
+		return incomplete;
+	}
+
+
+	/**
+	 * Close the directories still open.
+	 */
+	@Override
+	public void close() throws IOException{
+		entries.clear();
+		while(!streams.isEmpty()){
+			streams.pop().close();
+		}
+	}
+
+
+	/**
+	 * Look at the next entry of the innermost open directory.
+	 */
+	private void advance(){
+		Path f;
+		try{
+			Iterator<Path> it = entries.peek();
+			if(!it.hasNext()){
+				leave();
+				return;
+			}
+			f = it.next();
+		}catch(DirectoryIteratorException e){
+			incomplete = true;
+			leave();
+			return;
+		}
+		BasicFileAttributes attrs;
+		try{
+			attrs = Files.readAttributes(f, BasicFileAttributes.class, linkOptions);
+		}catch(IOException e){
+			// Gone, or a broken link
+			return;
+		}
+		Path relative = root.relativize(f);
+		if(attrs.isDirectory()){
+			if(filter.acceptsDirectory(relative) && visited.add(keyOf(f, attrs)))
+				enter(f);
+		}else if(attrs.isRegularFile()){
+			filesScanned++;
+			if(filter.acceptsFile(relative) && ImageTypeDetector.getInstance().detect(f) != null){
+				try{
+					next = new Photo(f.getFileName().toString(), f.toString(), f.toFile());
+				}catch(IOException e){
+					throw new UncheckedIOException(e);
+				}
+				next.setFileStat(attrs.size(), attrs.lastModifiedTime().toMillis());
+			}
+		}
+	}
+
+
+	/**
+	 * Open a directory to go through its entries next.
+	 */
+	private void enter(Path dir){
+		try{
+			DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+			streams.push(stream);
+			entries.push(stream.iterator());
+		}catch(IOException e){
+			incomplete = true;
+		}
+	}
+
+
+	/**
+	 * Close the innermost open directory.
+	 */
+	private void leave(){
+		entries.pop();
+		try{
+			streams.pop().close();
+		}catch(IOException e){
+			// Nothing was written to it
+		}
+	}
+
+
+	/**
+	 * Get what identifies a directory, however it is reached.
+	 */
+	private static Object keyOf(Path dir, BasicFileAttributes attrs){
+		Object key = attrs.fileKey();
+		if(key == null){
+			try{
+				key = dir.toRealPath();
+			}catch(IOException e){
+				key = dir.toAbsolutePath().normalize();
+			}
+		}
+		return key;
+	}
+}
@@ -0,0 +1,136 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * PhotoStore keeps photos by id in a dense array. The array is made of
+ * chunks that are only allocated when a photo in them is set, so the
+ * ids of a catalog whose photos have not been read cost nothing.
+ *
+ * Photos can be read and set from several threads at once.
+ */
+public class PhotoStore {
+
+	/** Number of photos in a chunk */
+	private static final int CHUNK = 4096;
+
+	/** The chunks, null until a photo in them is set */
+	private volatile AtomicReferenceArray<Photo>[] chunks;
+
+	/** Number of ids handed out (guarded by this) */
+	private int size;
+
+
+	/**
+	 * Create a PhotoStore whose first ids are kept for photos set later,
+	 * e.g. the photos of a catalog.
+	 *
+	 * @param reserved
+	 * 			number of ids kept, from 0
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PhotoStore(int reserved){
+		size = reserved;
+		chunks = new AtomicReferenceArray[Math.max(1, (reserved + CHUNK - 1) / CHUNK)];
+	}
+
+
+	/**
+	 * Get the photo with the given id.
+	 *
+	 * @param id
+	 * 			the id
+	 * @return Photo
+	 * 			the photo, or null if none is set
+	 */
+	public Photo get(int id){
+		AtomicReferenceArray<Photo>[] c = chunks;
+		int chunk = id / CHUNK;
+		if(id < 0 || chunk >= c.length || c[chunk] == null)
+			return null;
+		return c[chunk].get(id % CHUNK);
+	}
+
+
+	/**
+	 * Set the photo with a reserved id, unless another thread did first.
+	 *
+	 * @param id
+	 * 			the id
+	 * @param photo
+	 * 			the photo
+	 * @return Photo
+	 * 			the photo now kept with the id
+	 */
+	public Photo setIfAbsent(int id, Photo photo){
+		AtomicReferenceArray<Photo> chunk = chunk(id / CHUNK);
+		if(chunk.compareAndSet(id % CHUNK, null, photo))
+			return photo;
+		return chunk.get(id % CHUNK);
+	}
+
+
+	/**
+	 * Keep a photo with the next free id.
+	 *
+	 * @param photo
+	 * 			the photo
+	 * @return int
+	 * 			its id
+	 */
+	public synchronized int add(Photo photo){
+		int id = size++;
+		chunk(id / CHUNK).set(id % CHUNK, photo);
+		return id;
+	}
+
+
+	/**
+	 * Find the next id that has a photo set, skipping chunks not allocated.
+	 *
+	 * @param from
+	 * 			the id to start from
+	 * @return int
+	 * 			the smallest id from the given one on that has a photo,
+	 * 			or -1 if there is none
+	 */
+	public int next(int from){
+		AtomicReferenceArray<Photo>[] c = chunks;
+		for(int id = Math.max(from, 0); id / CHUNK < c.length; id++){
+			if(c[id / CHUNK] == null){
+				id = (id / CHUNK + 1) * CHUNK - 1;
+			}else if(c[id / CHUNK].get(id % CHUNK) != null){
+				return id;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Get the number of ids handed out, including reserved ones.
+	 *
+	 * @return int
+	 * 			the number of ids
+	 */
+	public synchronized int size(){
+		return size;
+	}
+
+
+	/**
+	 * Get a chunk, allocating it and growing the chunk array if needed.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private synchronized AtomicReferenceArray<Photo> chunk(int index){
+		AtomicReferenceArray<Photo>[] c = chunks;
+		if(index >= c.length){
+			AtomicReferenceArray<Photo>[] grown = new AtomicReferenceArray[Math.max(index + 1, c.length * 2)];
+			System.arraycopy(c, 0, grown, 0, c.length);
+			chunks = c = grown;
+		}
+		if(c[index] == null)
+			c[index] = new AtomicReferenceArray<Photo>(CHUNK);
+		return c[index];
+	}
+}
@@ -0,0 +1,372 @@
+package model;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import exception.InvalidPhotoPathException;
+import util.CompressedBitmap;
+import util.ThumbnailPipeline;
+
+/**
+ * PhotoWatcher keeps a PhotoManager in sync with the directories it was
+ * loaded from while the application runs, so photos created, deleted,
+ * renamed or moved through the operating system are followed without
+ * a rescan.
+ *
+ * Changes are read from a WatchService on a daemon thread. Events come
+ * in bursts, e.g. when many files are copied, so they are coalesced: the
+ * changed paths are collected until no event came for QUIET_MILLIS, or
+ * for MAX_DELAY_MILLIS at most, and each path is then looked at once.
+ *
+ * The file system reports a rename as a delete and a create, so a photo
+ * whose file is gone is taken to have moved to a new file of the same
+ * size and modification time found in the same batch. It keeps its id
+ * and its tags.
+ */
+public class PhotoWatcher implements Runnable {
+
+	/** Logger instance for logging use  */
+	private static final Logger logger =
+			Logger.getLogger(PhotoWatcher.class.getName());
+
+	/** How long a batch waits for more events */
+	public static final long QUIET_MILLIS = 200;
+
+	/** How long a batch waits at most after its first event */
+	public static final long MAX_DELAY_MILLIS = 2000;
+
+	/** The PhotoManager kept in sync */
+	private PhotoManager pManager;
+
+	/** Told about each batch of changes, may be null */
+	private WatchListener listener;
+
+	/** The service events are read from */
+	private WatchService service;
+
+	/** The directory of each registration */
+	private Map<WatchKey, Path> dirs = new ConcurrentHashMap<WatchKey, Path>();
+
+	/** The directories watched */
+	private Set<Path> watched = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+	/** The roots watched, rescanned when events were lost */
+	private List<File> roots = new CopyOnWriteArrayList<File>();
+
+	/** Paths changed since the last batch, only used by the watcher thread */
+	private Set<Path> pending = new LinkedHashSet<Path>();
+
+	/** Whether events were lost since the last batch */
+	private boolean overflow;
+
+	/** The thread reading events */
+	private Thread thread;
+
+
+	/**
+	 * Create a PhotoWatcher and start its thread. Nothing is watched
+	 * until watch is called.
+	 *
+	 * @param pManager
+	 * 			the PhotoManager to keep in sync
+	 * @param listener
+	 * 			told about each batch of changes, may be null
+	 * @throws IOException
+	 * 			if the file system cannot be watched
+	 */
+	public PhotoWatcher(PhotoManager pManager, WatchListener listener) throws IOException{
+		this.pManager = pManager;
+		this.listener = listener;
+		service = FileSystems.getDefault().newWatchService();
+		thread = new Thread(this, "photo-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Watch a directory and all directories under it.
+	 *
+	 * @param root
+	 * 			a directory loaded into the PhotoManager
+	 * @throws IOException
+	 * 			if the directory cannot be watched
+	 */
+	public void watch(File root) throws IOException{
+		File dir = root.getAbsoluteFile();
+		register(dir.toPath(), null);
+		roots.add(dir);
+	}
+
+
+	/**
+	 * Stop watching. Changes not applied yet are dropped.
+	 */
+	public void close(){
+		try {
+			service.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot close watch service.", e);
+		}
+		thread.interrupt();
+	}
+
+
+	/**
+	 * Read events and apply them a batch at a time until closed.
+	 */
+	@Override
+	public void run(){
+		try{
+			while(true){
+				collect(service.take());
+				long deadline = System.currentTimeMillis() + MAX_DELAY_MILLIS;
+				long wait = QUIET_MILLIS;
+				while(wait > 0){
+					WatchKey key = service.poll(wait, TimeUnit.MILLISECONDS);
+					if(key == null)
+						break;
+					collect(key);
+					wait = Math.min(QUIET_MILLIS, deadline - System.currentTimeMillis());
+				}
+				try{
+					apply();
+				}catch(IOException | RuntimeException e){
+					logger.log(Level.WARNING, "Cannot apply file changes.", e);
+				}
+			}
+		}catch(InterruptedException | ClosedWatchServiceException e){
+			// Closed
+		}
+	}
+
+
+	/**
+	 * Add the paths of a registration's events to the pending ones.
+	 */
+	private void collect(WatchKey key){
+		Path dir = dirs.get(key);
+		for(WatchEvent<?> event: key.pollEvents()){
+			if(event.kind() == OVERFLOW)
+				overflow = true;
+			else if(dir != null)
+				pending.add(dir.resolve((Path) event.context()));
+		}
+		if(!key.reset())
+			dirs.remove(key);
+	}
+
+
+	/**
+	 * Watch a directory tree.
+	 *
+	 * @param dir
+	 * 			the directory
+	 * @param files
+	 * 			the files found in it are added to this, may be null
+	 */
+	private void register(Path dir, final List<Path> files) throws IOException{
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+				dirs.put(d.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+				watched.add(d);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+				if(files != null && attrs.isRegularFile())
+					files.add(f);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path f, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+
+	/**
+	 * Forget a deleted directory tree. Its registrations were cancelled 
+	 * when it was deleted.
+	 */
+	private void unwatch(Path dir){
+		Iterator<Path> it = watched.iterator();
+		while(it.hasNext()){
+			if(it.next().startsWith(dir))
+				it.remove();
+		}
+	}
+
+
+	/**
+	 * Apply the pending changes to the PhotoManager as one batch.
+	 */
+	private void apply() throws IOException{
+		Set<Path> changed = pending;
+		pending = new LinkedHashSet<Path>();
+		final List<Photo> removed = new ArrayList<Photo>();
+		if(overflow){
+			// Events were lost, so only a rescan can tell what changed
+			overflow = false;
+			for(File root: roots){
+				PhotoLoader.rescanParallel(pManager, root, 1, new LoadListener() {
+					@Override
+					public void photoLoaded(Photo photo) {
+					}
+
+					@Override
+					public void photoRemoved(Photo photo) {
+						removed.add(photo);
+					}
+
+					@Override
+					public boolean isCancelled() {
+						return false;
+					}
+				});
+			}
+			if(listener != null)
+				listener.photosChanged(removed);
+			return;
+		}
+
+		int changes = 0;
+		pManager.beginBatch();
+		try{
+			// Tracked photos whose file is gone, and files that are there
+			CompressedBitmap gone = new CompressedBitmap();
+			List<Path> files = new ArrayList<Path>();
+			for(Path p: changed){
+				if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)){
+					if(!watched.contains(p))
+						register(p, files);
+				}else if(Files.exists(p, LinkOption.NOFOLLOW_LINKS)){
+					files.add(p);
+				}else if(watched.contains(p)){
+					unwatch(p);
+					for(int id: pManager.getPhotoIdsUnder(p.toString()))
+						gone.add(id);
+				}else{
+					int id = pManager.getPhotoId(p.toString());
+					if(id >= 0)
+						gone.add(id);
+				}
+			}
+
+			// Gone photos by file stat, to find where they moved
+			Map<String, ArrayDeque<Photo>> byStat = new HashMap<String, ArrayDeque<Photo>>();
+			for(int id: gone.toArray()){
+				Photo p = pManager.getPhoto(id);
+				String stat = statKey(p.getFileSize(), p.getLastModified());
+				ArrayDeque<Photo> same = byStat.get(stat);
+				if(same == null){
+					same = new ArrayDeque<Photo>();
+					byStat.put(stat, same);
+				}
+				same.add(p);
+			}
+
+			for(Path f: files){
+				BasicFileAttributes attrs;
+				try{
+					attrs = Files.readAttributes(f, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				}catch(IOException e){
+					// Gone again
+					continue;
+				}
+				if(!attrs.isRegularFile())
+					continue;
+				String path = f.toString();
+				long size = attrs.size();
+				long modified = attrs.lastModifiedTime().toMillis();
+				int id = pManager.getPhotoId(path);
+				if(id >= 0){
+					if(!pManager.hasFileStat(id, size, modified)){
+						Photo p = pManager.getPhoto(id);
+						p.getThumb().invalidate();
+						pManager.setFileStat(id, size, modified);
+						ThumbnailPipeline.getInstance().submit(p.getThumb(), null);
+						changes++;
+					}
+					continue;
+				}
+				ArrayDeque<Photo> same = byStat.get(statKey(size, modified));
+				Photo moved = null;
+				while(moved == null && same != null && !same.isEmpty())
+					moved = pManager.photoMoved(same.poll().getPath(), path);
+				if(moved != null){
+					gone.remove(moved.getId());
+					changes++;
+				}else if(PhotoLoader.isImage(f.toFile())){
+					Photo p = new Photo(f.getFileName().toString(), path, f.toFile());
+					p.setFileStat(size, modified);
+					if(pManager.addPhoto(p)){
+						ThumbnailPipeline.getInstance().submit(p.getThumb(), null);
+						changes++;
+					}
+				}
+			}
+
+			for(int id: gone.toArray()){
+				Photo p = pManager.getPhoto(id);
+				try{
+					pManager.removePhoto(p.getPath());
+				}catch(InvalidPhotoPathException e){
+					continue;
+				}
+				p.getThumb().invalidate();
+				removed.add(p);
+				changes++;
+			}
+		}finally{
+			pManager.endBatch();
+		}
+		if(changes > 0){
+			logger.log(Level.INFO, "Applied " + changes + " file changes.");
+			if(listener != null)
+				listener.photosChanged(removed);
+		}
+	}
+
+
+	/**
+	 * Key of a file size and modification time.
+	 */
+	private static String statKey(long size, long modified){
+		return size + ":" + modified;
+	}
+}
@@ -0,0 +1,160 @@
+package model;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ScanFilter chooses which files and directories under a scanned
+ * directory PhotoLoader looks at. Files are chosen with include and
+ * exclude glob patterns; a directory that is excluded is not entered at
+ * all. A pattern with a '/' is matched against the path relative to the
+ * scanned directory, e.g. "2016/**.jpg"; one without is matched against
+ * the file name only, e.g. "*.jpg" or ".git".
+ *
+ * A file is scanned if it matches an include pattern, or there is none,
+ * and it matches no exclude pattern. Symbolic links are followed unless
+ * told otherwise; a directory reached twice is only scanned once.
+ */
+public class ScanFilter {
+
+	/** Patterns files must match one of, all files if empty */
+	private List<PathMatcher> includes = new ArrayList<PathMatcher>();
+
+	/** Whether each include pattern is matched against the file name only */
+	private List<Boolean> includeNames = new ArrayList<Boolean>();
+
+	/** Patterns of files and directories that are not scanned */
+	private List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+
+	/** Whether each exclude pattern is matched against the file name only */
+	private List<Boolean> excludeNames = new ArrayList<Boolean>();
+
+	/** Whether symbolic links are followed */
+	private boolean followLinks = true;
+
+
+	/**
+	 * Create a ScanFilter that accepts everything.
+	 */
+	public ScanFilter(){
+	}
+
+
+	/**
+	 * Only scan files that match this glob pattern, or another include.
+	 *
+	 * @param glob
+	 * 			the pattern
+	 */
+	public void addInclude(String glob){
+		includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		includeNames.add(glob.indexOf('/') < 0);
+	}
+
+
+	/**
+	 * Do not scan files, or enter directories, that match this glob pattern.
+	 *
+	 * @param glob
+	 * 			the pattern
+	 */
+	public void addExclude(String glob){
+		excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		excludeNames.add(glob.indexOf('/') < 0);
+	}
+
+
+	/**
+	 * Tell if symbolic links are followed.
+	 *
+	 * @return boolean
+	 * 			true if links are followed
+	 */
+	public boolean isFollowLinks(){
+		return followLinks;
+	}
+
+
+	/**
+	 * Set whether symbolic links are followed.
+	 *
+	 * @param followLinks
+	 * 			true to follow links
+	 */
+	public void setFollowLinks(boolean followLinks){
+		this.followLinks = followLinks;
+	}
+
+
+	/**
+	 * Tell if this filter accepts everything, so a scan with it sees
+	 * every file.
+	 *
+	 * @return boolean
+	 * 			true if there is no pattern
+	 */
+	public boolean acceptsAll(){
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+
+	/**
+	 * Tell if a file is scanned, its directories being accepted.
+	 *
+	 * @param relative
+	 * 			the file's path relative to the scanned directory
+	 * @return boolean
+	 * 			true if the file is scanned
+	 */
+	public boolean acceptsFile(Path relative){
+		if(!includes.isEmpty() && !matches(includes, includeNames, relative))
+			return false;
+		return !matches(excludes, excludeNames, relative);
+	}
+
+
+	/**
+	 * Tell if a directory is entered, its parents being accepted.
+	 *
+	 * @param relative
+	 * 			the directory's path relative to the scanned directory
+	 * @return boolean
+	 * 			true if the directory is entered
+	 */
+	public boolean acceptsDirectory(Path relative){
+		return !matches(excludes, excludeNames, relative);
+	}
+
+
+	/**
+	 * Tell if a file is scanned, checking every directory on its way.
+	 *
+	 * @param relative
+	 * 			the file's path relative to the scanned directory
+	 * @return boolean
+	 * 			true if the file and its directories are accepted
+	 */
+	public boolean accepts(Path relative){
+		for(int i = 1; i < relative.getNameCount(); i++){
+			if(!acceptsDirectory(relative.subpath(0, i)))
+				return false;
+		}
+		return acceptsFile(relative);
+	}
+
+
+	/**
+	 * Tell if a path matches one of the patterns.
+	 */
+	private static boolean matches(List<PathMatcher> matchers, List<Boolean> names, Path relative){
+		for(int i = 0; i < matchers.size(); i++){
+			Path p = names.get(i) ? relative.getFileName() : relative;
+			if(p != null && matchers.get(i).matches(p))
+				return true;
+		}
+		return false;
+	}
+}
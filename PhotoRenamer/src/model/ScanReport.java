@@ -0,0 +1,187 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ScanReport class keeps track of how much work a directory scan has
+ * done, so that the scan speed can be reported once it finishes.
+ * Counters are safe to update from several scanning threads at once.
+ */
+public class ScanReport {
+
+	/** Number of files (of any type) that has been visited */
+	private AtomicLong filesScanned;
+
+	/** Number of image files that has been loaded as photos */
+	private AtomicLong photosLoaded;
+
+	/** Number of tracked photos whose file changed, found by a rescan */
+	private AtomicLong photosUpdated;
+
+	/** Number of tracked photos whose file is gone, found by a rescan */
+	private AtomicLong photosRemoved;
+
+	/** Time when the scan started, in nanoseconds */
+	private long startTime;
+
+	/** Time when the scan finished, in nanoseconds */
+	private long endTime;
+
+	/** Number of threads used for the scan */
+	private int parallelism;
+
+
+	/**
+	 * Create a ScanReport and start timing the scan.
+	 *
+	 * @param parallelism
+	 * 				number of threads used for the scan
+	 */
+	public ScanReport(int parallelism){
+		this.parallelism = parallelism;
+		filesScanned = new AtomicLong();
+		photosLoaded = new AtomicLong();
+		photosUpdated = new AtomicLong();
+		photosRemoved = new AtomicLong();
+		startTime = System.nanoTime();
+	}
+
+
+	/**
+	 * Record that one more file has been visited.
+	 */
+	public void fileScanned(){
+		filesScanned.incrementAndGet();
+	}
+
+
+	/**
+	 * Record that one more photo has been loaded.
+	 */
+	public void photoLoaded(){
+		photosLoaded.incrementAndGet();
+	}
+
+
+	/**
+	 * Record that one more tracked photo's file has changed.
+	 */
+	public void photoUpdated(){
+		photosUpdated.incrementAndGet();
+	}
+
+
+	/**
+	 * Record that one more tracked photo's file is gone.
+	 */
+	public void photoRemoved(){
+		photosRemoved.incrementAndGet();
+	}
+
+
+	/**
+	 * Stop timing the scan.
+	 */
+	public void finish(){
+		endTime = System.nanoTime();
+	}
+
+
+	/**
+	 * Get number of files that has been visited.
+	 *
+	 * @return long
+	 * 				number of files visited
+	 */
+	public long getFilesScanned(){
+		return filesScanned.get();
+	}
+
+
+	/**
+	 * Get number of photos that has been loaded.
+	 *
+	 * @return long
+	 * 				number of photos loaded
+	 */
+	public long getPhotosLoaded(){
+		return photosLoaded.get();
+	}
+
+
+	/**
+	 * Get number of tracked photos whose file has changed.
+	 *
+	 * @return long
+	 * 				number of photos updated
+	 */
+	public long getPhotosUpdated(){
+		return photosUpdated.get();
+	}
+
+
+	/**
+	 * Get number of tracked photos whose file is gone.
+	 *
+	 * @return long
+	 * 				number of photos removed
+	 */
+	public long getPhotosRemoved(){
+		return photosRemoved.get();
+	}
+
+
+	/**
+	 * Get number of threads used for the scan.
+	 *
+	 * @return int
+	 * 				the parallelism level
+	 */
+	public int getParallelism(){
+		return parallelism;
+	}
+
+
+	/**
+	 * Get time the scan took in milliseconds. If the scan has not
+	 * finished yet, the time elapsed so far is returned.
+	 *
+	 * @return long
+	 * 				elapsed milliseconds
+	 */
+	public long getElapsedMillis(){
+		long end = (endTime == 0) ? System.nanoTime() : endTime;
+		return (end - startTime) / 1000000;
+	}
+
+
+	/**
+	 * Get scan speed in files per second.
+	 *
+	 * @return double
+	 * 				number of files visited per second
+	 */
+	public double getFilesPerSecond(){
+		long millis = Math.max(1, getElapsedMillis());
+		return getFilesScanned() * 1000.0 / millis;
+	}
+
+
+	/**
+	 * Return a String representation of this report of this form:
+	 *
+	 * "files files, photos photos (u updated, r removed) in ms ms 
+	 *  (rate files/sec, n threads)"
+	 *
+	 * @return String
+	 * 				a String representation of this report
+	 */
+	@Override
+	public String toString(){
+		return getFilesScanned() + " files, " + getPhotosLoaded() + " photos ("
+				+ getPhotosUpdated() + " updated, " + getPhotosRemoved() + " removed) in "
+				+ getElapsedMillis() + " ms ("
+				+ String.format("%.1f", getFilesPerSecond()) + " files/sec, "
+				+ parallelism + " threads)";
+	}
+}
@@ -2,6 +2,12 @@ package model;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.CompressedBitmap;
+import util.CountHeap;
 
 
 /** Tag class represents a photo's tag */
@@ -17,9 +23,31 @@ public class Tag implements Serializable{
 	/** The name of tag */
 	private String name;
 	
-	/** The list of photos that share this tag */
+	/** The ids of tag names, shared by every tag of the same name */
+	private static final ConcurrentHashMap<String, Integer> ids = 
+			new ConcurrentHashMap<String, Integer>();
+	
+	/** The last id given to a tag name */
+	private static final AtomicInteger lastId = new AtomicInteger();
+	
+	/** This tag's id, 0 until it is first asked for */
+	private transient int id;
+	
+	/** 
+	 * The photos that share this tag and are not kept by id: those not
+	 * tracked by photoManager
+	 */
 	private ArrayList<Photo> photos;
 	
+	/** The ids of the tracked photos that share this tag, created when first used */
+	private transient CompressedBitmap photoIds;
+	
+	/** The PhotoManager whose photo ids this tag keeps, null if none */
+	private transient PhotoManager photoManager;
+	
+	/** The photo counts of the TagManager's tags, kept up to date by this tag */
+	private transient CountHeap usage;
+	
 
 	
 	
@@ -115,6 +143,32 @@ public class Tag implements Serializable{
 	 */
 	public void setName(String name) {
 		this.name = name;
+		id = 0;
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Return the id of the tag. Tags of the same name have the same id,
+	 * so photos can keep their tags sorted by id.
+	 * 
+	 * @return int
+	 * 				the id of the tag's name, at least 1.
+	 */
+	public int getId() {
+		if(id == 0){
+			Integer given = ids.get(name);
+			if(given == null){
+				Integer next = lastId.incrementAndGet();
+				given = ids.putIfAbsent(name, next);
+				if(given == null)
+					given = next;
+			}
+			id = given;
+		}
+		return id;
 	}
 	
 	
@@ -122,13 +176,100 @@ public class Tag implements Serializable{
 	
 	
 	/**
-	 * Return a list of photos that contain the tag.
+	 * Return a list of photos that contain the tag. Photos kept by id
+	 * are looked up in the PhotoManager, so the list is a new one.
 	 * 
 	 * @return the photos
 	 * 						the photos contain the tag.
 	 */
-	public ArrayList<Photo> getPhotos() {
-		return photos;
+	public List<Photo> getPhotos() {
+		List<Photo> result = new ArrayList<Photo>(photos);
+		if(photoIds != null){
+			for(int id: photoIds.toArray()){
+				Photo p = photoManager.getPhoto(id);
+				if(p != null)
+					result.add(p);
+			}
+		}
+		return result;
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Return the number of photos that contain the tag.
+	 * 
+	 * @return int
+	 * 				the number of photos.
+	 */
+	public int getPhotoCount(){
+		return photos.size() + (photoIds == null ? 0 : photoIds.cardinality());
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Keep the photos of the given PhotoManager by id from now on.
+	 * Photos of it already in the list are moved to the id set.
+	 * 
+	 * @param photoManager
+	 * 				the PhotoManager tracking this tag's photos.
+	 */
+	public void setPhotoManager(PhotoManager photoManager){
+		if(this.photoManager == photoManager)
+			return;
+		List<Photo> all = this.photoManager == null ? photos : getPhotos();
+		this.photoManager = photoManager;
+		photos = new ArrayList<Photo>();
+		photoIds = null;
+		for(Photo p: all){
+			addPhoto(p);
+		}
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Report this tag's photo count to the given counts from now on.
+	 * 
+	 * @param usage
+	 * 				the photo counts of the TagManager's tags, or null.
+	 */
+	void setUsage(CountHeap usage){
+		this.usage = usage;
+		countChanged();
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Report this tag's photo count after a change.
+	 */
+	private void countChanged(){
+		if(usage != null){
+			synchronized(usage){
+				usage.set(getId(), getPhotoCount());
+			}
+		}
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Tell if a photo is kept by id, rather than by reference.
+	 */
+	private boolean isKeptById(Photo photo){
+		return photoManager != null && photo.getId() >= 0;
 	}
 	
 	
@@ -142,7 +283,11 @@ public class Tag implements Serializable{
 	 * 				the photo to add.
 	 */
 	public void addPhoto(Photo photo){
-			photos.add(photo);
+			if(isKeptById(photo))
+				getPhotoIds().add(photo.getId());
+			else
+				photos.add(photo);
+			countChanged();
 		}
 	
 	
@@ -157,9 +302,60 @@ public class Tag implements Serializable{
 	 * 				the photo to remove.
 	 */
 	public void removePhoto(Photo photo){
-		if(photos.contains(photo)){
+		if(isKeptById(photo))
+			getPhotoIds().remove(photo.getId());
+		else
 			photos.remove(photo);
-		}
+		countChanged();
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Tell if the photo has this tag. Takes constant time for photos
+	 * tracked by a PhotoManager.
+	 * 
+	 * @param photo
+	 * 				the photo.
+	 * @return boolean
+	 * 				true if the photo is in this tag's photo list.
+	 */
+	public boolean hasPhoto(Photo photo){
+		if(isKeptById(photo))
+			return getPhotoIds().contains(photo.getId());
+		return photos.contains(photo);
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Remove all photos from this tag.
+	 */
+	public void clearPhotos(){
+		photos.clear();
+		photoIds = null;
+		countChanged();
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Return the ids of the photos that have this tag. This is the 
+	 * tag's own set, so it must not be changed; queries make new sets.
+	 * 
+	 * @return CompressedBitmap
+	 * 				the ids of tracked photos that have this tag.
+	 */
+	public CompressedBitmap getPhotoIds(){
+		if(photoIds == null)
+			photoIds = new CompressedBitmap();
+		return photoIds;
 	}
 	
 	
@@ -2,8 +2,10 @@ package model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
@@ -14,6 +16,7 @@ import java.util.logging.SimpleFormatter;
 import exception.DuplicateTagException;
 import exception.InvalidTagNameException;
 import exception.TagNotExistException;
+import util.CountHeap;
 
 /** TagManager class provides several operations including 
  * adding and removing a photo from tag(s) and that it manages. 
@@ -37,6 +40,18 @@ public class TagManager extends Manager<Tag>{
 	/** This manager's ser file path*/
 	private String filePath;
 	
+	/** The PhotoManager whose photos the tags keep by id, null if none */
+	private PhotoManager photoManager;
+	
+	/** 
+	 * The number of photos of each tag that has photos, by tag id. The 
+	 * tags keep it up to date themselves, and it is their lock.
+	 */
+	private CountHeap usage;
+	
+	/** The tags by tag id */
+	private Map<Integer, Tag> tagsById;
+	
 
 	/**
 	 * Create a TagManager that keeps track of a bunch of tags and 
@@ -56,6 +71,8 @@ public class TagManager extends Manager<Tag>{
 		super(filePath);
 		this.filePath = filePath;
 		tags = new HashMap<String, Tag>();
+		usage = new CountHeap();
+		tagsById = new HashMap<Integer, Tag>();
 		logger.setLevel(Level.FINER);
 		FileHandler fh = new FileHandler("Tag.log", true);
 		fh.setFormatter(new SimpleFormatter());
@@ -86,6 +103,9 @@ public class TagManager extends Manager<Tag>{
 	private void readFromFile() throws ClassNotFoundException {
 		try {
 			tags = super.readFromFile(tags);
+			for(Tag t: tags.values()){
+				track(t);
+			}
 	    } 
 	    catch (IOException e) {
 	    	logger.log(Level.SEVERE, "Cannot read Tag obeject from file.", e);
@@ -106,13 +126,118 @@ public class TagManager extends Manager<Tag>{
 	 * @throws IOException
 	 */
 	public void saveToFile() throws IOException{
-		super.saveToFile(tags);
+		super.saveToFile(new ArrayList<Tag>(tags.values()));
         logger.log(Level.FINE, "Write Tag obeject to file");
 	}
 	
 	
 	
 	
+	/**
+	 * Write a tag as a catalog entry. Only the name is written, 
+	 * which photos have the tag is saved with the photos.
+	 * 
+	 * @param out
+	 * 				the catalog being written
+	 * @param tag
+	 * 				the tag to write
+	 */
+	@Override
+	protected void writeEntry(CatalogWriter out, Tag tag){
+		out.writeString(tag.getName());
+	}
+	
+	
+	
+	
+	/**
+	 * Read a tag written by writeEntry.
+	 * 
+	 * @param in
+	 * 				the catalog being read
+	 * @return Tag
+	 * 				the tag read, without photos
+	 * @throws IOException
+	 */
+	@Override
+	protected Tag readEntry(CatalogReader in) throws IOException{
+		return new Tag(in.readString());
+	}
+	
+	
+	
+	
+	/**
+	 * Tags are kept by name.
+	 * 
+	 * @param tag
+	 * 				the tag
+	 * @return String
+	 * 				the tag's name
+	 */
+	@Override
+	protected String keyOf(Tag tag){
+		return tag.getName();
+	}
+	
+	
+	
+	
+	/**
+	 * Start keeping track of a tag that was made elsewhere, e.g. 
+	 * found on a photo whose tag is missing from this manager's file.
+	 * Nothing is done if a tag of the same name is already tracked.
+	 * 
+	 * @param tag
+	 * 				the tag to track
+	 * @return Tag
+	 * 				the tag tracked under this name
+	 */
+	public Tag addTag(Tag tag){
+		if(!tags.containsKey(tag.getName())){
+			track(tag);
+			tags.put(tag.getName(), tag);
+		}
+		return tags.get(tag.getName());
+	}
+	
+	
+	
+	
+	/**
+	 * Make a tag that is about to be tracked keep its photos by id, and
+	 * report its photo count.
+	 * 
+	 * @param tag
+	 * 				the tag
+	 */
+	private void track(Tag tag){
+		if(photoManager != null)
+			tag.setPhotoManager(photoManager);
+		tag.setUsage(usage);
+		tagsById.put(tag.getId(), tag);
+	}
+	
+	
+	
+	
+	/**
+	 * Make all tags, and those made later, keep the photos of the given
+	 * PhotoManager by id.
+	 * 
+	 * @param photoManager
+	 * 				the PhotoManager tracking the tagged photos
+	 */
+	public void setPhotoManager(PhotoManager photoManager){
+		this.photoManager = photoManager;
+		for(Tag t: tags.values()){
+			t.setPhotoManager(photoManager);
+		}
+	}
+	
+	
+	
+	
 	/**
 	 * Close all the Handler that this class logger have.
 	 */
@@ -177,6 +302,7 @@ public class TagManager extends Manager<Tag>{
 			throws DuplicateTagException, InvalidTagNameException{
 		if(isNameValid(name) && !tags.containsKey(name)){
 			Tag newTag = new Tag(name);
+			track(newTag);
 			tags.put(name, newTag);
 			logger.log(Level.INFO, "Create a new tag:" + name);
 			return newTag;
@@ -215,7 +341,7 @@ public class TagManager extends Manager<Tag>{
 			throws InvalidTagNameException, TagNotExistException, DuplicateTagException{
 		if(isNameValid(name) && isTagExist(name)){
 			Tag tag = tags.get(name);
-			if(tag.getPhotos().contains(photo)){
+			if(tag.hasPhoto(photo)){
 				throw new DuplicateTagException("This photo is already tagged!");
 			}
 			tag.addPhoto(photo);
@@ -269,7 +395,12 @@ public class TagManager extends Manager<Tag>{
 	public void deleteTag(String name) 
 			throws InvalidTagNameException, TagNotExistException{
 		if(isNameValid(name) && isTagExist(name)){			
-			tags.remove(name);
+			Tag tag = tags.remove(name);
+			tag.setUsage(null);
+			tagsById.remove(tag.getId());
+			synchronized(usage){
+				usage.remove(tag.getId());
+			}
 			logger.log(Level.SEVERE, "Delete a tag:" + name);
 		}
 	}
@@ -277,19 +408,51 @@ public class TagManager extends Manager<Tag>{
 	
 	
 	/**
-	 * Find the mostly tagged Tag
+	 * Find the mostly tagged Tag. The photo counts of the tags are kept
+	 * up to date as photos are tagged, so this takes constant time.
 	 * 
 	 * @return Tag
-	 * 				that is mostly tagged.
+	 * 				that is mostly tagged, null if there is no tag.
 	 */
 	public Tag findMostCommonTag(){
-		Tag result = null;
-		for(Tag t: tags.values()){
-			if (result == null)
-				result = t;
-			else{
-				if(t.getPhotos().size() >= result.getPhotos().size())
-					result = t;
+		int top;
+		synchronized(usage){
+			top = usage.top();
+		}
+		if(top >= 0)
+			return tagsById.get(top);
+		// No tag has photos
+		return tags.isEmpty() ? null : tags.values().iterator().next();
+	}
+	
+	
+	
+	/**
+	 * Find the tags that have the most photos, most first, e.g. to order 
+	 * a list of tags by use. Tags without photos come last. Takes 
+	 * O(k log k) time for tags with photos.
+	 * 
+	 * @param k
+	 * 				the number of tags wanted.
+	 * @return List<Tag>
+	 * 				at most k tags.
+	 */
+	public List<Tag> findMostUsedTags(int k){
+		int[] top;
+		synchronized(usage){
+			top = usage.top(k);
+		}
+		List<Tag> result = new ArrayList<Tag>(top.length);
+		for(int id: top){
+			result.add(tagsById.get(id));
+		}
+		if(result.size() < k){
+			for(Tag t: tags.values()){
+				if(t.getPhotoCount() == 0){
+					result.add(t);
+					if(result.size() == k)
+						break;
+				}
 			}
 		}
 		return result;
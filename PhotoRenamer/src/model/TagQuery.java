@@ -0,0 +1,345 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import exception.InvalidQueryException;
+import util.CompressedBitmap;
+
+/**
+ * TagQuery describes a set of photos by their tags, combining tags with
+ * AND, OR and NOT, e.g. "@beach AND @2019 AND NOT @blurry".
+ * A query is evaluated on the photo id sets of the tags, so it does not
+ * look at any photo; see Mediator.findPhotos.
+ */
+public abstract class TagQuery {
+
+	/**
+	 * Where a query finds the photo id sets it is evaluated on.
+	 */
+	public interface Context {
+
+		/**
+		 * Get the ids of the photos that have the tag. The set is not
+		 * changed by the query.
+		 *
+		 * @param tagName
+		 * 			name of the tag
+		 * @return CompressedBitmap
+		 * 			the ids, empty if there is no such tag
+		 */
+		CompressedBitmap photosTagged(String tagName);
+
+		/**
+		 * Get the ids of all photos, needed by queries like "NOT @a".
+		 *
+		 * @return CompressedBitmap
+		 * 			the ids
+		 */
+		CompressedBitmap allPhotos();
+	}
+
+
+	/**
+	 * Evaluate this query.
+	 *
+	 * @param context
+	 * 			where the tags' photo id sets are found
+	 * @return CompressedBitmap
+	 * 			the ids of the photos the query describes, a new set
+	 */
+	public abstract CompressedBitmap evaluate(Context context);
+
+
+	/**
+	 * Get a query of the photos that have the given tag.
+	 *
+	 * @param tagName
+	 * 			name of the tag, with or without the prefix
+	 * @return TagQuery
+	 * 			the query
+	 */
+	public static TagQuery tag(String tagName){
+		if(tagName.startsWith(Tag.prefix))
+			tagName = tagName.substring(Tag.prefix.length());
+		return new TagTerm(tagName);
+	}
+
+
+	/**
+	 * Get a query of the photos all given queries describe.
+	 *
+	 * @param queries
+	 * 			the queries
+	 * @return TagQuery
+	 * 			the query
+	 */
+	public static TagQuery and(TagQuery... queries){
+		return new And(Arrays.asList(queries));
+	}
+
+
+	/**
+	 * Get a query of the photos any given query describes.
+	 *
+	 * @param queries
+	 * 			the queries
+	 * @return TagQuery
+	 * 			the query
+	 */
+	public static TagQuery or(TagQuery... queries){
+		return new Or(Arrays.asList(queries));
+	}
+
+
+	/**
+	 * Get a query of the photos the given query does not describe.
+	 *
+	 * @param query
+	 * 			the query
+	 * @return TagQuery
+	 * 			the query
+	 */
+	public static TagQuery not(TagQuery query){
+		return new Not(query);
+	}
+
+
+	/**
+	 * Read a query written as text. Tags are combined with AND, OR and
+	 * NOT (in any case), with parentheses for grouping; AND binds
+	 * tighter than OR, and tags written next to each other are ANDed.
+	 * For example: "@beach @2019 AND NOT (@blurry OR @dark)".
+	 *
+	 * @param text
+	 * 			the query
+	 * @return TagQuery
+	 * 			the query read
+	 * @throws InvalidQueryException
+	 * 			if the text is not a query
+	 */
+	public static TagQuery parse(String text) throws InvalidQueryException{
+		Parser parser = new Parser(text);
+		TagQuery query = parser.parseOr();
+		if(parser.peek() != null)
+			throw new InvalidQueryException("Unexpected '" + parser.peek() + "' in query");
+		return query;
+	}
+
+
+	/**
+	 * A query of one tag.
+	 */
+	private static class TagTerm extends TagQuery {
+
+		private String tagName;
+
+		private TagTerm(String tagName){
+			this.tagName = tagName;
+		}
+
+		@Override
+		public CompressedBitmap evaluate(Context context) {
+			return context.photosTagged(tagName).copy();
+		}
+
+		@Override
+		public String toString(){
+			return Tag.prefix + tagName;
+		}
+	}
+
+
+	/**
+	 * A query of photos all parts describe.
+	 */
+	private static class And extends TagQuery {
+
+		private List<TagQuery> parts;
+
+		private And(List<TagQuery> parts){
+			this.parts = parts;
+		}
+
+		@Override
+		public CompressedBitmap evaluate(Context context) {
+			// NOT parts are subtracted from the others, so the set of
+			// all photos is only needed if every part is a NOT
+			List<CompressedBitmap> included = new ArrayList<CompressedBitmap>();
+			List<TagQuery> excluded = new ArrayList<TagQuery>();
+			for(TagQuery q: parts){
+				if(q instanceof Not)
+					excluded.add(((Not) q).query);
+				else
+					included.add(q.evaluate(context));
+			}
+			if(included.isEmpty())
+				included.add(context.allPhotos().copy());
+
+			// Smallest first, so every step is as small as it can be
+			Collections.sort(included, new Comparator<CompressedBitmap>() {
+				@Override
+				public int compare(CompressedBitmap a, CompressedBitmap b) {
+					return Integer.compare(a.cardinality(), b.cardinality());
+				}
+			});
+			CompressedBitmap result = included.get(0);
+			for(int i = 1; i < included.size() && !result.isEmpty(); i++){
+				result = result.and(included.get(i));
+			}
+			for(TagQuery q: excluded){
+				if(result.isEmpty())
+					break;
+				result = result.andNot(q.evaluate(context));
+			}
+			return result;
+		}
+
+		@Override
+		public String toString(){
+			return join(parts, " AND ");
+		}
+	}
+
+
+	/**
+	 * A query of photos any part describes.
+	 */
+	private static class Or extends TagQuery {
+
+		private List<TagQuery> parts;
+
+		private Or(List<TagQuery> parts){
+			this.parts = parts;
+		}
+
+		@Override
+		public CompressedBitmap evaluate(Context context) {
+			CompressedBitmap result = new CompressedBitmap();
+			for(TagQuery q: parts){
+				result = result.or(q.evaluate(context));
+			}
+			return result;
+		}
+
+		@Override
+		public String toString(){
+			return join(parts, " OR ");
+		}
+	}
+
+
+	/**
+	 * A query of photos a query does not describe.
+	 */
+	private static class Not extends TagQuery {
+
+		private TagQuery query;
+
+		private Not(TagQuery query){
+			this.query = query;
+		}
+
+		@Override
+		public CompressedBitmap evaluate(Context context) {
+			return context.allPhotos().andNot(query.evaluate(context));
+		}
+
+		@Override
+		public String toString(){
+			return "NOT " + query;
+		}
+	}
+
+
+	/**
+	 * Write parts joined by an operator, in parentheses.
+	 */
+	private static String join(List<TagQuery> parts, String operator){
+		StringBuilder sb = new StringBuilder("(");
+		for(int i = 0; i < parts.size(); i++){
+			if(i > 0)
+				sb.append(operator);
+			sb.append(parts.get(i));
+		}
+		return sb.append(")").toString();
+	}
+
+
+	/**
+	 * Reads a query from text, one token at a time.
+	 */
+	private static class Parser {
+
+		/** The tokens of the text */
+		private List<String> tokens;
+
+		/** Index of the next token */
+		private int next;
+
+		private Parser(String text){
+			tokens = new ArrayList<String>();
+			for(String word: text.replace("(", " ( ").replace(")", " ) ").trim().split("\\s+")){
+				if(!word.isEmpty())
+					tokens.add(word);
+			}
+		}
+
+		private String peek(){
+			return next < tokens.size() ? tokens.get(next) : null;
+		}
+
+		private boolean accept(String keyword){
+			if(keyword.equalsIgnoreCase(peek())){
+				next++;
+				return true;
+			}
+			return false;
+		}
+
+		private TagQuery parseOr() throws InvalidQueryException{
+			List<TagQuery> parts = new ArrayList<TagQuery>();
+			parts.add(parseAnd());
+			while(accept("OR")){
+				parts.add(parseAnd());
+			}
+			return parts.size() == 1 ? parts.get(0) : new Or(parts);
+		}
+
+		private TagQuery parseAnd() throws InvalidQueryException{
+			List<TagQuery> parts = new ArrayList<TagQuery>();
+			parts.add(parseNot());
+			while(true){
+				if(accept("AND")){
+					parts.add(parseNot());
+				}else if(peek() != null && !peek().equalsIgnoreCase("OR") && !peek().equals(")")){
+					parts.add(parseNot());
+				}else{
+					break;
+				}
+			}
+			return parts.size() == 1 ? parts.get(0) : new And(parts);
+		}
+
+		private TagQuery parseNot() throws InvalidQueryException{
+			if(accept("NOT"))
+				return new Not(parseNot());
+			if(accept("(")){
+				TagQuery query = parseOr();
+				if(!accept(")"))
+					throw new InvalidQueryException("Missing ')' in query");
+				return query;
+			}
+			String word = peek();
+			if(word == null)
+				throw new InvalidQueryException("Query ends too early");
+			if(word.equals(")") || word.equalsIgnoreCase("AND") || word.equalsIgnoreCase("OR"))
+				throw new InvalidQueryException("Unexpected '" + word + "' in query");
+			next++;
+			return tag(word);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package model;
+
+import java.util.List;
+
+/**
+ * A listener told by a PhotoWatcher when files changed outside of the
+ * application have changed the PhotoManager. Note that it is called from
+ * the watcher's thread.
+ */
+public interface WatchListener {
+
+	/**
+	 * Called after a batch of file changes was applied. New, moved and
+	 * changed photos are in the PhotoManager already; removed photos
+	 * still have their tags, which should take them out, e.g. with
+	 * Mediator.photosRemoved, on the thread that uses the tags.
+	 *
+	 * @param removed
+	 * 			the photos no longer tracked, may be empty
+	 */
+	void photosChanged(List<Photo> removed);
+}
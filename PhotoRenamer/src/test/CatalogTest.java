@@ -0,0 +1,374 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import exception.InvalidPhotoPathException;
+
+import model.Photo;
+import model.PhotoManager;
+import model.Tag;
+import model.TagManager;
+
+/**
+ * This class tests saving and reading managers in the catalog format
+ *
+ */
+public class CatalogTest {
+
+	private static String photoFile = "TestCatalogPhoto.ser";
+
+	private static String tagFile = "TestCatalogTag.ser";
+
+	private static File photoDir = new File("TestCatalogPhotos");
+
+	private PhotoManager pManager;
+
+	private TagManager tManager;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		deleteFiles();
+		pManager = new PhotoManager(photoFile);
+		tManager = new TagManager(tagFile);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		pManager.closeHandler();
+		tManager.closeHandler();
+		deleteFiles();
+	}
+
+
+	/**
+	 * Delete every file the tests may have left behind
+	 */
+	private static void deleteFiles() {
+		// The data files with their journals and segments
+		for(File f : new File(".").listFiles()){
+			if(f.getName().startsWith(photoFile) || f.getName().startsWith(tagFile))
+				f.delete();
+		}
+		if(photoDir.exists()){
+			for(File f : photoDir.listFiles())
+				f.delete();
+			photoDir.delete();
+		}
+	}
+
+
+	/**
+	 * Test reading an empty (never saved) file
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadEmpty() throws Exception {
+		pManager.closeHandler();
+		pManager = new PhotoManager(photoFile);
+		assertEquals(0, pManager.getPhotos().size());
+	}
+
+
+	/**
+	 * Test that a saved photo is read back with all its info
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testPhotoRoundTrip() throws Exception {
+		String path = "PhotosForTest/@Beach Cat.jpeg";
+		Photo p = new Photo("@Beach Cat.jpeg", path, new File(path));
+		p.setPreviousName(new ArrayList<String>(Arrays.asList("Cat.jpeg")));
+		p.addTag(new Tag("Beach"));
+		pManager.addPhoto(p);
+		pManager.saveToFile();
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		Photo read = pManager.findPhoto(path);
+		assertNotNull(read);
+		assertEquals("@Beach Cat.jpeg", read.getName());
+		assertEquals(1, read.getPreviousName().size());
+		assertTrue(read.getPreviousName().contains("Cat.jpeg"));
+		assertEquals(1, read.getTags().size());
+		assertEquals("Beach", read.getTags().get(0).getName());
+	}
+
+
+	/**
+	 * Test that saved tags are read back
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testTagRoundTrip() throws Exception {
+		tManager.createTag("Beach");
+		tManager.createTag("2019");
+		tManager.saveToFile();
+		tManager.closeHandler();
+
+		tManager = new TagManager(tagFile);
+		assertEquals(2, tManager.getTags().size());
+		assertNotNull(tManager.findTag("Beach"));
+		assertNotNull(tManager.findTag("2019"));
+	}
+
+
+	/**
+	 * Test that renames and tags are kept in the journal, 
+	 * without rewriting the ser file, and read back
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testJournalReplay() throws Exception {
+		photoDir.mkdir();
+		File f = new File(photoDir, "Cat.jpeg");
+		f.createNewFile();
+		Photo p = new Photo("Cat.jpeg", f.getPath(), f);
+		pManager.addPhoto(p);
+		pManager.addTag(p.getPath(), new Tag("Beach"));
+		assertEquals(0, new File(photoFile).length());
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		Photo read = pManager.findPhoto(new File(photoDir, "@Beach Cat.jpeg").getPath());
+		assertNotNull(read);
+		assertEquals("@Beach Cat.jpeg", read.getName());
+		assertTrue(read.getPreviousName().contains("Cat.jpeg"));
+		assertEquals(1, read.getTags().size());
+		assertEquals("Beach", read.getTags().get(0).getName());
+	}
+
+
+	/**
+	 * Test that saving clears the journal
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveClearsJournal() throws Exception {
+		String path = "PhotosForTest/Cat.jpeg";
+		pManager.addPhoto(new Photo("Cat.jpeg", path, new File(path)));
+		assertTrue(new File(photoFile + ".journal").exists());
+		pManager.saveToFile();
+		assertTrue(!new File(photoFile + ".journal").exists());
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		assertEquals(1, pManager.getPhotos().size());
+	}
+
+
+	/**
+	 * Test that photos of a saved catalog are found by path and listed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMappedLookup() throws Exception {
+		for(String name : Arrays.asList("b.jpg", "a.jpg", "c.jpg")){
+			String path = "PhotosForTest/" + name;
+			pManager.addPhoto(new Photo(name, path, new File(path)));
+		}
+		pManager.saveToFile();
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		assertEquals(3, pManager.getPhotos().size());
+		assertEquals("b.jpg", pManager.findPhoto("PhotosForTest/b.jpg").getName());
+		assertSame(pManager.findPhoto("PhotosForTest/b.jpg"), 
+				pManager.findPhoto("PhotosForTest/b.jpg"));
+		assertTrue(!pManager.addPhoto(new Photo("a.jpg", "PhotosForTest/a.jpg", 
+				new File("PhotosForTest/a.jpg"))));
+	}
+
+
+	/**
+	 * Test that a photo of a saved catalog is listed once after a rename
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMappedRename() throws Exception {
+		photoDir.mkdir();
+		File f = new File(photoDir, "Cat.jpeg");
+		f.createNewFile();
+		pManager.addPhoto(new Photo("Cat.jpeg", f.getPath(), f));
+		pManager.saveToFile();
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		pManager.addTag(f.getPath(), new Tag("Beach"));
+		String newPath = new File(photoDir, "@Beach Cat.jpeg").getPath();
+		assertEquals(1, pManager.getPhotos().size());
+		assertEquals(newPath, pManager.getPhotos().iterator().next().getPath());
+		assertEquals(1, pManager.getTaggedPhotos().size());
+		try{
+			pManager.findPhoto(f.getPath());
+			fail("Old path should not be tracked");
+		}catch(InvalidPhotoPathException e){
+		}
+	}
+
+
+	/**
+	 * Test that a photo keeps its id, and its tag, when it is renamed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRenameKeepsId() throws Exception {
+		photoDir.mkdir();
+		File f = new File(photoDir, "Dog.jpeg");
+		f.createNewFile();
+		Photo p = new Photo("Dog.jpeg", f.getPath(), f);
+		pManager.addPhoto(p);
+		int id = p.getId();
+		Tag tag = tManager.createTag("Park");
+		tManager.setPhotoManager(pManager);
+		tag.addPhoto(p);
+		pManager.addTag(f.getPath(), tag);
+
+		assertEquals(id, p.getId());
+		assertSame(p, pManager.getPhoto(id));
+		assertSame(p, pManager.findPhoto(new File(photoDir, "@Park Dog.jpeg").getPath()));
+		assertTrue(tag.hasPhoto(p));
+		assertEquals(Arrays.asList(p), tag.getPhotos());
+	}
+
+	/**
+	 * Test that saving while the catalog is mapped switches to a new
+	 * segment and deletes the old one, without replacing a mapped file
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSaveWhileMapped() throws Exception {
+		String path = "PhotosForTest/Cat.jpeg";
+		pManager.addPhoto(new Photo("Cat.jpeg", path, new File(path)));
+		pManager.saveToFile();
+		assertTrue(new File(photoFile + ".1").exists());
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		path = "PhotosForTest/Man.jpeg";
+		pManager.addPhoto(new Photo("Man.jpeg", path, new File(path)));
+		pManager.saveToFile();
+		assertTrue(new File(photoFile + ".2").exists());
+		assertFalse(new File(photoFile + ".1").exists());
+		assertEquals(2, pManager.getPhotos().size());
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		assertEquals(2, pManager.getPhotos().size());
+	}
+
+
+	/**
+	 * Test that a catalog saved in the data file itself, as by older
+	 * versions, is read and moved to a segment
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadUnsegmented() throws Exception {
+		String path = "PhotosForTest/Cat.jpeg";
+		pManager.addPhoto(new Photo("Cat.jpeg", path, new File(path)));
+		pManager.saveToFile();
+		pManager.closeHandler();
+		Files.move(Paths.get(photoFile + ".1"), Paths.get(photoFile), 
+				StandardCopyOption.REPLACE_EXISTING);
+
+		pManager = new PhotoManager(photoFile);
+		assertEquals("Cat.jpeg", pManager.findPhoto(path).getName());
+		assertTrue(new File(photoFile + ".1").exists());
+		pManager.closeHandler();
+
+		pManager = new PhotoManager(photoFile);
+		assertEquals(1, pManager.getPhotos().size());
+	}
+
+
+	/**
+	 * Test that photos spilled while many are added are each written
+	 * again only a few times, are let go of, and are all found after
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSpillBounded() throws Exception {
+		int n = 1000;
+		List<WeakReference<Photo>> added = new ArrayList<WeakReference<Photo>>();
+		int[] ids = new int[n];
+		for(int i = 0; i < n; i++){
+			// Not in path order, so spills merge
+			String path = String.format("PhotosForTest/%04d.jpeg", i * 7 % n);
+			Photo p = new Photo(new File(path).getName(), path, new File(path));
+			pManager.addPhoto(p);
+			added.add(new WeakReference<Photo>(p));
+			ids[i * 7 % n] = p.getId();
+			if(i % 10 == 9)
+				pManager.spillToCatalog();
+		}
+		// Rewriting everything at each spill would write about n * n / 20 entries
+		assertTrue(pManager.getEntriesWritten() < 10 * n);
+		int segments = 0;
+		for(String name : new File(".").list()){
+			if(name.matches(photoFile.replace(".", "\\.") + "\\.[0-9]+"))
+				segments++;
+		}
+		assertTrue(segments <= 10);
+
+		int alive = n;
+		for(int tries = 0; tries < 10 && alive > n / 10; tries++){
+			System.gc();
+			Thread.sleep(10);
+			alive = 0;
+			for(WeakReference<Photo> ref : added){
+				if(ref.get() != null)
+					alive++;
+			}
+		}
+		assertTrue(alive <= n / 10);
+
+		pManager.removePhoto("PhotosForTest/0007.jpeg");
+		pManager.spillToCatalog();
+		pManager.closeHandler();
+		pManager = new PhotoManager(photoFile);
+		assertEquals(n - 1, pManager.getPhotos().size());
+		assertTrue(pManager.getPhotoId("PhotosForTest/0007.jpeg") < 0);
+		for(int i = 0; i < n; i++){
+			if(i != 7)
+				assertEquals(ids[i], pManager.getPhotoId(String.format("PhotosForTest/%04d.jpeg", i)));
+		}
+	}
+}
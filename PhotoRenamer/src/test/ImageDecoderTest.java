@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.ImageDecoder;
+
+/**
+ * This class tests ImageDecoder class
+ *
+ */
+public class ImageDecoderTest {
+
+	private static File image = new File("TestImageDecoder.png");
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		ImageIO.write(new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB), "png", image);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		image.delete();
+	}
+
+
+	/**
+	 * Test the subsampling factor for boxes smaller and bigger than the image
+	 */
+	@Test
+	public void testSubsamplingFactor() {
+		assertEquals(10, ImageDecoder.subsamplingFactor(1000, 600, 100, 100));
+		assertEquals(7, ImageDecoder.subsamplingFactor(1000, 600, 128, 128));
+		assertEquals(5, ImageDecoder.subsamplingFactor(600, 1000, 128, 200));
+		assertEquals(1, ImageDecoder.subsamplingFactor(1000, 600, 1000, 600));
+		assertEquals(1, ImageDecoder.subsamplingFactor(100, 60, 128, 128));
+	}
+
+
+	/**
+	 * Test that a subsampled image still covers the box, without being
+	 * much bigger than it
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadScaled() throws Exception {
+		BufferedImage read = ImageDecoder.readScaled(image, 100, 100);
+		assertEquals(100, read.getWidth());
+		assertEquals(60, read.getHeight());
+
+		read = ImageDecoder.readScaled(image, 128, 128);
+		assertEquals(143, read.getWidth());
+		assertEquals(86, read.getHeight());
+		assertTrue(read.getWidth() >= 128 && read.getWidth() < 2 * 128);
+
+		// Never bigger than the original
+		read = ImageDecoder.readScaled(image, 2000, 2000);
+		assertEquals(1000, read.getWidth());
+		assertEquals(600, read.getHeight());
+	}
+
+
+	/**
+	 * Test reading the size, and a subsampled region
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadRegion() throws Exception {
+		assertEquals(new Dimension(1000, 600), ImageDecoder.getSize(image));
+		BufferedImage region = ImageDecoder.readRegion(image, new Rectangle(200, 100, 200, 100), 4);
+		assertEquals(50, region.getWidth());
+		assertEquals(25, region.getHeight());
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.ImageType;
+import util.ImageTypeDetector;
+
+/**
+ * This class tests ImageTypeDetector class
+ *
+ */
+public class ImageTypeDetectorTest {
+
+	private static File dir = new File("TestImageTypes");
+
+	private ImageTypeDetector detector;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		deleteFiles();
+		dir.mkdir();
+		detector = new ImageTypeDetector();
+		detector.registerDefaults();
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		deleteFiles();
+	}
+
+
+	/**
+	 * Delete every file the tests may have left behind
+	 */
+	private static void deleteFiles() {
+		if(dir.exists()){
+			for(File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+	}
+
+
+	/**
+	 * Write a file starting with the given bytes, one per character
+	 */
+	private static File write(String name, String head) throws IOException {
+		File f = new File(dir, name);
+		try(FileOutputStream out = new FileOutputStream(f)){
+			out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+			out.write(new byte[64]);
+		}
+		return f;
+	}
+
+
+	/**
+	 * Test that images are known by extension without being read
+	 */
+	@Test
+	public void testExtension() {
+		assertTrue(detector.isImage(new File(dir, "Cat.jpeg")));
+		assertTrue(detector.isImage(new File(dir, "Cat.JPG")));
+		assertTrue(detector.isImage(new File(dir, "Cat.heic")));
+		assertTrue(detector.isImage(new File(dir, "Cat.NEF")));
+		assertFalse(detector.isImage(new File(dir, "Cat.txt")));
+		// Files not there cannot be sniffed
+		assertFalse(detector.isImage(new File(dir, "Cat")));
+	}
+
+
+	/**
+	 * Test that files of unknown extension are sniffed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSniff() throws Exception {
+		assertEquals("png", detector.detect(write("Cat", "\u0089PNG\r\n\u001A\n").toPath()).getName());
+		assertEquals("jpeg", detector.detect(write("Cat.dat", "\u00FF\u00D8\u00FF\u00E0").toPath()).getName());
+		assertEquals("webp", detector.detect(write("Cat.1", "RIFF\u0010\0\0\0WEBPVP8 ").toPath()).getName());
+		assertEquals("heif", detector.detect(write("Cat.2", "\0\0\0\u0018ftypheic").toPath()).getName());
+		assertNull(detector.detect(write("Cat.3", "RIFF\u0010\0\0\0WAVEfmt ").toPath()));
+		assertNull(detector.detect(write("Notes", "Hello").toPath()));
+
+		// Extensions of files that are never images are not sniffed
+		assertNull(detector.detect(write("Cat.txt", "\u00FF\u00D8\u00FF\u00E0").toPath()));
+		detector.setSniffing(false);
+		assertNull(detector.detect(write("Dog", "\u0089PNG\r\n\u001A\n").toPath()));
+	}
+
+
+	/**
+	 * Test that new formats can be registered
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRegister() throws Exception {
+		File f = write("Cat.4", "\0\0\0\u001CftypavifX");
+		assertNull(detector.detect(f.toPath()));
+		detector.register(new ImageType("avif", new String[]{"AVIF"}, "????ftypavif"));
+		assertEquals("avif", detector.detect(f.toPath()).getName());
+		assertTrue(detector.isImage(new File(dir, "Cat.avif")));
+	}
+}
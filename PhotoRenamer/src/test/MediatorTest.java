@@ -0,0 +1,241 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import exception.InvalidQueryException;
+import exception.InvalidTagNameException;
+import model.BatchReport;
+import model.Mediator;
+import model.Photo;
+import model.PhotoManager;
+import model.TagManager;
+
+/**
+ * This class tests Mediator class
+ *
+ */
+public class MediatorTest {
+
+	private static String photoFile = "TestMediatorPhoto.ser";
+
+	private static String tagFile = "TestMediatorTag.ser";
+
+	private static File photoDir = new File("TestMediatorPhotos");
+
+	private PhotoManager pManager;
+
+	private TagManager tManager;
+
+	private Mediator mediator;
+
+	private List<Photo> photos;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		deleteFiles();
+		photoDir.mkdir();
+		pManager = new PhotoManager(photoFile);
+		tManager = new TagManager(tagFile);
+		mediator = Mediator.getInstance(tManager, pManager);
+		photos = new ArrayList<Photo>();
+		for(String name : Arrays.asList("Cat.jpeg", "Dog.jpeg", "Man.jpeg")){
+			File f = new File(photoDir, name);
+			f.createNewFile();
+			Photo p = new Photo(name, f.getPath(), f);
+			pManager.addPhoto(p);
+			photos.add(p);
+		}
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		pManager.closeHandler();
+		tManager.closeHandler();
+		deleteFiles();
+	}
+
+
+	/**
+	 * Delete every file the tests may have left behind
+	 */
+	private static void deleteFiles() {
+		// The data files with their journals and segments
+		for(File f : new File(".").listFiles()){
+			if(f.getName().startsWith(photoFile) || f.getName().startsWith(tagFile))
+				f.delete();
+		}
+		if(photoDir.exists()){
+			for(File f : photoDir.listFiles())
+				f.delete();
+			photoDir.delete();
+		}
+	}
+
+
+	/**
+	 * Test tagging many photos at once
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAddTagsToPhotos() throws Exception {
+		BatchReport report = mediator.addTagsToPhotos(photos, Arrays.asList("Beach", "2019"));
+		assertTrue(report.isSuccessful());
+		assertEquals(3, report.getResults(BatchReport.Status.RENAMED).size());
+		assertEquals("@2019 @Beach Cat.jpeg", photos.get(0).getName());
+		assertTrue(new File(photoDir, "@2019 @Beach Cat.jpeg").exists());
+		assertEquals(3, tManager.findTag("Beach").getPhotos().size());
+		assertEquals(3, tManager.findTag("2019").getPhotos().size());
+
+		// Tagging again changes nothing
+		report = mediator.addTagsToPhotos(photos, Arrays.asList("Beach"));
+		assertEquals(3, report.getResults(BatchReport.Status.UNCHANGED).size());
+		assertEquals(3, tManager.findTag("Beach").getPhotos().size());
+
+		// The batch is kept in the journal
+		pManager.closeHandler();
+		pManager = new PhotoManager(photoFile);
+		Photo read = pManager.findPhoto(new File(photoDir, "@2019 @Beach Dog.jpeg").getPath());
+		assertNotNull(read);
+		assertEquals(2, read.getTags().size());
+	}
+
+
+	/**
+	 * Test that a photo that cannot be renamed fails alone
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAddTagsToPhotosFailure() throws Exception {
+		new File(photoDir, "@Beach Dog.jpeg").createNewFile();
+		BatchReport report = mediator.addTagsToPhotos(photos, Arrays.asList("Beach"));
+		assertEquals(2, report.getResults(BatchReport.Status.RENAMED).size());
+		assertEquals(1, report.getResults(BatchReport.Status.FAILED).size());
+		assertEquals("Dog.jpeg", report.getResults().get(1).getOldName());
+		assertEquals("Dog.jpeg", photos.get(1).getName());
+		assertTrue(photos.get(1).getTags().isEmpty());
+		assertEquals(2, tManager.findTag("Beach").getPhotos().size());
+	}
+
+
+	/**
+	 * Test that a bad tag name stops the batch before any tag is created
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAddTagsToPhotosInvalidName() throws Exception {
+		try{
+			mediator.addTagsToPhotos(photos, Arrays.asList("Beach", ""));
+			fail("Empty tag name should be refused");
+		}catch(InvalidTagNameException e){
+			assertNull(tManager.findTag("Beach"));
+			assertEquals("Cat.jpeg", photos.get(0).getName());
+		}
+	}
+
+
+	/**
+	 * Test finding photos by tag queries
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFindPhotos() throws Exception {
+		Photo cat = photos.get(0), dog = photos.get(1), man = photos.get(2);
+		mediator.addTagsToPhotos(Arrays.asList(cat, dog), Arrays.asList("Beach"));
+		mediator.addTagsToPhotos(Arrays.asList(dog, man), Arrays.asList("2019"));
+
+		assertEquals(Arrays.asList(dog), mediator.findPhotos("@Beach AND @2019"));
+		assertEquals(3, mediator.findPhotos("@Beach OR @2019").size());
+		assertEquals(Arrays.asList(man), mediator.findPhotos("NOT @Beach"));
+		assertEquals(Arrays.asList(man), mediator.findPhotos("@2019 not @Beach"));
+		assertEquals(Arrays.asList(cat, man), 
+				mediator.findPhotos("(@Beach OR @2019) AND NOT (@Beach @2019)"));
+		assertTrue(mediator.findPhotos("@Unknown").isEmpty());
+	}
+
+
+	/**
+	 * Test that a query that cannot be understood is refused
+	 *
+	 * @throws Exception
+	 */
+	@Test(expected = InvalidQueryException.class)
+	public void testFindPhotosInvalid() throws Exception {
+		mediator.findPhotos("(@Beach OR");
+	}
+
+
+	/**
+	 * Test that photos spilled to the ser file keep their ids, and so
+	 * are still found by their tags
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testTagAfterSpill() throws Exception {
+		Photo cat = photos.get(0), dog = photos.get(1);
+		mediator.addTagsToPhotos(Arrays.asList(cat), Arrays.asList("Beach"));
+		pManager.spillToCatalog();
+
+		List<Photo> tagged = tManager.findTag("Beach").getPhotos();
+		assertEquals(1, tagged.size());
+		assertEquals(cat.getId(), tagged.get(0).getId());
+		assertEquals(cat.getPath(), tagged.get(0).getPath());
+		assertEquals(1, mediator.findPhotos("@Beach").size());
+
+		// Tagging a spilled photo, and spilling again
+		Photo read = pManager.findPhoto(dog.getPath());
+		assertEquals(dog.getId(), read.getId());
+		mediator.addTagsToPhotos(Arrays.asList(read), Arrays.asList("Beach"));
+		pManager.spillToCatalog();
+		assertEquals(2, tManager.findTag("Beach").getPhotos().size());
+		assertEquals(Arrays.asList(photos.get(2).getPath()), 
+				pathsOf(mediator.findPhotos("NOT @Beach")));
+
+		// Reverting and untagging photos read back after a spill
+		mediator.revertToPreName(pManager.findPhoto(cat.getPath()), "Cat.jpeg");
+		assertEquals(Arrays.asList(read.getPath()), pathsOf(tManager.findTag("Beach").getPhotos()));
+		assertEquals(1, mediator.findPhotos("@Beach").size());
+		pManager.spillToCatalog();
+		mediator.removeTagFromPhoto(pManager.findPhoto(read.getPath()), "Beach");
+		assertEquals(0, tManager.findTag("Beach").getPhotos().size());
+		assertEquals(0, mediator.findPhotos("@Beach").size());
+		assertEquals(3, mediator.findPhotos("NOT @Beach").size());
+	}
+
+
+	/**
+	 * Get the paths of photos
+	 */
+	private static List<String> pathsOf(List<Photo> photos) {
+		List<String> paths = new ArrayList<String>();
+		for(Photo p : photos)
+			paths.add(p.getPath());
+		return paths;
+	}
+}
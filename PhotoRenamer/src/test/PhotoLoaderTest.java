@@ -0,0 +1,318 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Photo;
+import model.PhotoLoader;
+import model.PhotoManager;
+import model.PhotoScanner;
+import model.ScanFilter;
+import model.ScanReport;
+
+/**
+ * This class tests PhotoLoader class
+ *
+ */
+public class PhotoLoaderTest {
+
+	private static String photoFile = "TestLoaderPhoto.ser";
+
+	private static File photoDir = new File("TestLoaderPhotos");
+
+	private PhotoManager pManager;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		deleteFiles();
+		photoDir.mkdir();
+		new File(photoDir, "sub").mkdir();
+		for(String name : new String[]{"Cat.jpeg", "Dog.jpeg", "sub/Man.jpeg"}){
+			write(new File(photoDir, name), 10);
+		}
+		pManager = new PhotoManager(photoFile);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		pManager.closeHandler();
+		deleteFiles();
+	}
+
+
+	/**
+	 * Delete every file the tests may have left behind
+	 */
+	private static void deleteFiles() {
+		// The data files with their journals and segments
+		for(File f : new File(".").listFiles()){
+			if(f.getName().startsWith(photoFile))
+				f.delete();
+		}
+		if(photoDir.exists())
+			delete(photoDir);
+	}
+
+
+	/**
+	 * Delete a file, or a directory with everything in it, without 
+	 * following links
+	 */
+	private static void delete(File f) {
+		if(f.isDirectory() && !Files.isSymbolicLink(f.toPath())){
+			for(File child : f.listFiles())
+				delete(child);
+		}
+		f.delete();
+	}
+
+
+	/**
+	 * Write a file of the given size
+	 */
+	private static void write(File f, int size) throws IOException {
+		try(FileOutputStream out = new FileOutputStream(f)){
+			out.write(new byte[size]);
+		}
+	}
+
+
+	/**
+	 * Test that the fork-join scan finds the same photos as the 
+	 * sequential walk, in a tree with many directories
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		for(int i = 0; i < 8; i++){
+			File dir = new File(photoDir, "sub/d" + i + "/e" + i % 3);
+			dir.mkdirs();
+			for(int j = 0; j < 5; j++){
+				write(new File(dir, "p" + j + ".jpeg"), 10);
+			}
+			write(new File(dir.getParentFile(), "q" + i + ".jpeg"), 10);
+			write(new File(dir, "Notes.txt"), 10);
+		}
+		PhotoLoader.loadPhotos(pManager, photoDir);
+		Set<String> sequential = pathsOf(pManager.getPhotos());
+		assertEquals(3 + 8 * 6, sequential.size());
+
+		PhotoManager parallel = new PhotoManager(photoFile + ".parallel");
+		try{
+			ScanReport report = PhotoLoader.loadPhotosParallel(parallel, photoDir, 4);
+			assertEquals(sequential.size(), report.getPhotosLoaded());
+			assertEquals(sequential, pathsOf(parallel.getPhotos()));
+		}finally{
+			parallel.closeHandler();
+		}
+	}
+
+
+	/**
+	 * Get the paths of photos
+	 */
+	private static Set<String> pathsOf(Iterable<Photo> photos) {
+		Set<String> paths = new HashSet<String>();
+		for(Photo p : photos)
+			paths.add(p.getPath());
+		return paths;
+	}
+
+
+	/**
+	 * Test that a rescan only does work for files that changed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRescan() throws Exception {
+		ScanReport report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null);
+		assertEquals(3, pManager.getPhotos().size());
+		assertEquals(0, report.getPhotosUpdated());
+		pManager.saveToFile();
+		pManager.closeHandler();
+
+		// Nothing changed
+		pManager = new PhotoManager(photoFile);
+		report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null);
+		assertEquals(3, report.getPhotosLoaded());
+		assertEquals(0, report.getPhotosUpdated());
+		assertEquals(0, report.getPhotosRemoved());
+		assertEquals(3, pManager.getPhotos().size());
+
+		// One file changed, one is gone
+		File cat = new File(photoDir, "Cat.jpeg");
+		write(cat, 20);
+		assertTrue(new File(photoDir, "sub/Man.jpeg").delete());
+		report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null);
+		assertEquals(1, report.getPhotosUpdated());
+		assertEquals(1, report.getPhotosRemoved());
+		assertEquals(2, pManager.getPhotos().size());
+		assertEquals(-1, pManager.getPhotoId(new File(photoDir, "sub/Man.jpeg").getAbsolutePath()));
+		assertEquals(20, pManager.findPhoto(cat.getAbsolutePath()).getFileSize());
+
+		// The changes are in the journal
+		pManager.closeHandler();
+		pManager = new PhotoManager(photoFile);
+		assertEquals(2, pManager.getPhotos().size());
+		assertEquals(20, pManager.findPhoto(cat.getAbsolutePath()).getFileSize());
+		report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null);
+		assertEquals(0, report.getPhotosUpdated());
+		assertEquals(0, report.getPhotosRemoved());
+	}
+
+
+	/**
+	 * Test that a rescan of one directory keeps photos of others
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRescanSubdirectory() throws Exception {
+		PhotoLoader.rescanParallel(pManager, photoDir, 2, null);
+		ScanReport report = PhotoLoader.rescanParallel(pManager, new File(photoDir, "sub"), 2, null);
+		assertEquals(1, report.getPhotosLoaded());
+		assertEquals(0, report.getPhotosRemoved());
+		assertEquals(3, pManager.getPhotos().size());
+	}
+
+
+	/**
+	 * Test that excluded files are not scanned, and not removed either
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFilter() throws Exception {
+		write(new File(photoDir, "Notes.txt"), 10);
+		ScanFilter filter = new ScanFilter();
+		filter.addExclude("sub");
+		filter.addExclude("Dog.*");
+		ScanReport report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null, filter);
+		assertEquals(1, report.getPhotosLoaded());
+		assertTrue(pManager.getPhotoId(new File(photoDir, "Cat.jpeg").getAbsolutePath()) >= 0);
+
+		PhotoLoader.rescanParallel(pManager, photoDir, 2, null);
+		assertEquals(3, pManager.getPhotos().size());
+		report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null, filter);
+		assertEquals(0, report.getPhotosRemoved());
+		assertEquals(3, pManager.getPhotos().size());
+
+		filter = new ScanFilter();
+		filter.addInclude("sub/*.jpeg");
+		report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null, filter);
+		assertEquals(1, report.getPhotosLoaded());
+		assertEquals(0, report.getPhotosRemoved());
+	}
+
+
+	/**
+	 * Test that photos can be imported one at a time, and spilled to the
+	 * ser file on the way
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testImportDirectory() throws Exception {
+		write(new File(photoDir, "Notes.txt"), 10);
+		try(PhotoScanner scanner = new PhotoScanner(photoDir)){
+			int count = 0;
+			while(scanner.hasNext()){
+				assertTrue(scanner.next().getPath().endsWith(".jpeg"));
+				count++;
+			}
+			assertEquals(3, count);
+			assertEquals(4, scanner.getFilesScanned());
+		}
+
+		ScanReport report = PhotoLoader.importDirectory(pManager, photoDir, new ScanFilter(), 2, null);
+		assertEquals(3, report.getPhotosLoaded());
+		assertEquals(3, pManager.getPhotos().size());
+		assertTrue(pManager.getPhotoId(new File(photoDir, "sub/Man.jpeg").getAbsolutePath()) >= 0);
+
+		// Nothing new the second time
+		report = PhotoLoader.importDirectory(pManager, photoDir, new ScanFilter(), 2, null);
+		assertEquals(0, report.getPhotosLoaded());
+		assertEquals(3, pManager.getPhotos().size());
+		pManager.closeHandler();
+		pManager = new PhotoManager(photoFile);
+		assertEquals(3, pManager.getPhotos().size());
+	}
+
+
+	/**
+	 * Test that a large import saves each photo only a few times, with
+	 * or without spills, rather than the whole catalog every batch
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testImportBounded() throws Exception {
+		int n = 3 * PhotoLoader.IMPORT_BATCH;
+		PhotoLoader.importPhotos(pManager, photos("a", n).iterator(), 0, null);
+		// Saving everything at each batch would write about 2n
+		assertTrue(pManager.getEntriesWritten() <= n);
+
+		long before = pManager.getEntriesWritten();
+		PhotoLoader.importPhotos(pManager, photos("b", n).iterator(), 100, null);
+		// Rewriting the catalog at each spill would write about 135k
+		assertTrue(pManager.getEntriesWritten() - before < 6 * n);
+		assertEquals(2 * n, pManager.getPhotos().size());
+
+		pManager.closeHandler();
+		pManager = new PhotoManager(photoFile);
+		assertEquals(2 * n, pManager.getPhotos().size());
+	}
+
+
+	/**
+	 * Make photos of files that are not there.
+	 */
+	private static List<Photo> photos(String prefix, int n) throws IOException {
+		List<Photo> photos = new ArrayList<Photo>(n);
+		for(int i = 0; i < n; i++){
+			File f = new File(photoDir, prefix + i + ".jpeg");
+			photos.add(new Photo(f.getName(), f.getPath(), f));
+		}
+		return photos;
+	}
+
+
+	/**
+	 * Test that a link back to a parent directory is not followed forever
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testLinkLoop() throws Exception {
+		Files.createSymbolicLink(new File(photoDir, "sub/loop").toPath(), photoDir.getAbsoluteFile().toPath());
+		ScanReport report = PhotoLoader.rescanParallel(pManager, photoDir, 2, null);
+		assertEquals(3, report.getPhotosLoaded());
+		assertEquals(3, pManager.getPhotos().size());
+		PhotoLoader.loadPhotos(pManager, photoDir);
+		assertEquals(3, pManager.getPhotos().size());
+	}
+}
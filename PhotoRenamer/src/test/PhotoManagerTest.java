@@ -46,7 +46,7 @@ public class PhotoManagerTest {
 	public static void tearDownAfterClass() throws Exception {
 		File currDir = new File(System.getProperty("user.dir"));
 		for(File f : currDir.listFiles()){
-			if(f.getName().startsWith("Photo.log") || f.getName().endsWith(".ser")){
+			if(f.getName().startsWith("Photo.log") || f.getName().endsWith(".ser") || f.getName().contains(".ser.")){
 				DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
 				if(!f.delete())
 					System.out.println("Delete unsuccessful");
@@ -73,7 +73,7 @@ public class PhotoManagerTest {
 		pManager.saveToFile();
 		File currDir = new File(System.getProperty("user.dir"));
 		for(File f : currDir.listFiles()){
-			if(f.getName().startsWith("Photo.log") || f.getName().endsWith(".ser")){
+			if(f.getName().startsWith("Photo.log") || f.getName().endsWith(".ser") || f.getName().contains(".ser.")){
 				DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
 				if(!f.delete())
 					System.out.println("Delete unsuccessful");
@@ -6,8 +6,13 @@ package test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.After;
@@ -146,5 +151,74 @@ public class PhotoTest {
 	}
 	
 	
+	@Test
+	public void testTagsSortedById() {
+		Tag a = new Tag("SortedA");
+		Tag b = new Tag("SortedB");
+		Tag c = new Tag("SortedC");
+		assertTrue(a.getId() < b.getId() && b.getId() < c.getId());
+		p.addTag(c);
+		p.addTag(a);
+		p.addTag(b);
+		p.addTag(a);
+		assertEquals(Arrays.asList(a, b, c), p.getTags());
+		
+		p.removeTag(b);
+		assertEquals(Arrays.asList(a, c), p.getTags());
+		p.removeTag(b);
+		assertEquals(2, p.getTags().size());
+	}
+	
+	
+	@Test
+	public void testHasTag() {
+		Tag t = new Tag("HasTag");
+		List<Tag> view = p.getTags();
+		assertTrue(!p.hasTag(t));
+		p.addTag(t);
+		assertTrue(p.hasTag(t));
+		assertTrue(p.hasTag(new Tag("HasTag")));
+		assertTrue(view.contains(t));
+		assertTrue(!p.hasTag(new Tag("HasNotTag")));
+		p.removeTag(new Tag("HasTag"));
+		assertTrue(!p.hasTag(t));
+		assertTrue(view.isEmpty());
+	}
+	
+	
+	@Test
+	public void testSetTagsDuplicates() {
+		Tag a = new Tag("SetA");
+		Tag b = new Tag("SetB");
+		a.getId();
+		p.addTag(new Tag("SetC"));
+		p.setTags(Arrays.asList(b, a, b));
+		assertEquals(Arrays.asList(a, b), p.getTags());
+	}
+	
+	
+	@Test
+	public void testSerializeTags() throws Exception {
+		Tag a = new Tag("SerialA");
+		Tag b = new Tag("SerialB");
+		a.getId();
+		p.addTag(b);
+		p.addTag(a);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)){
+			out.writeObject(p);
+		}
+		Photo read;
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))){
+			read = (Photo) in.readObject();
+		}
+		assertEquals(2, read.getTags().size());
+		assertEquals("SerialA", read.getTags().get(0).getName());
+		assertEquals("SerialB", read.getTags().get(1).getName());
+		assertTrue(read.hasTag(b));
+		assertEquals(p, read);
+	}
+	
+	
 
 }
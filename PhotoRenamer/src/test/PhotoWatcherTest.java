@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Photo;
+import model.PhotoLoader;
+import model.PhotoManager;
+import model.PhotoWatcher;
+import model.WatchListener;
+
+/**
+ * This class tests PhotoWatcher class
+ *
+ */
+public class PhotoWatcherTest {
+
+	private static String photoFile = "TestWatcherPhoto.ser";
+
+	private static File photoDir = new File("TestWatcherPhotos");
+
+	private PhotoManager pManager;
+
+	private PhotoWatcher watcher;
+
+	private List<Photo> removed = Collections.synchronizedList(new ArrayList<Photo>());
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		deleteFiles();
+		photoDir.mkdir();
+		write(new File(photoDir, "Cat.jpeg"), 10);
+		pManager = new PhotoManager(photoFile);
+		PhotoLoader.rescanParallel(pManager, photoDir, 1, null);
+		watcher = new PhotoWatcher(pManager, new WatchListener() {
+			@Override
+			public void photosChanged(List<Photo> photos) {
+				removed.addAll(photos);
+			}
+		});
+		watcher.watch(photoDir);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		watcher.close();
+		pManager.closeHandler();
+		deleteFiles();
+	}
+
+
+	/**
+	 * Delete every file the tests may have left behind
+	 */
+	private static void deleteFiles() {
+		// The data files with their journals and segments
+		for(File f : new File(".").listFiles()){
+			if(f.getName().startsWith(photoFile))
+				f.delete();
+		}
+		if(photoDir.exists()){
+			for(File f : photoDir.listFiles())
+				f.delete();
+			photoDir.delete();
+		}
+	}
+
+
+	/**
+	 * Write a file of the given size
+	 */
+	private static void write(File f, int size) throws IOException {
+		try(FileOutputStream out = new FileOutputStream(f)){
+			out.write(new byte[size]);
+		}
+	}
+
+
+	/**
+	 * Wait until a photo is tracked at the path, or no longer is
+	 */
+	private int waitFor(File f, boolean tracked) throws InterruptedException {
+		String path = f.getAbsolutePath();
+		for(int i = 0; i < 100 && (pManager.getPhotoId(path) >= 0) != tracked; i++)
+			Thread.sleep(100);
+		return pManager.getPhotoId(path);
+	}
+
+
+	/**
+	 * Test that files created, renamed and deleted are followed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCreateRenameDelete() throws Exception {
+		File cat = new File(photoDir, "Cat.jpeg");
+		int id = pManager.getPhotoId(cat.getAbsolutePath());
+		assertTrue(id >= 0);
+
+		File dog = new File(photoDir, "Dog.jpeg");
+		write(dog, 20);
+		assertTrue(waitFor(dog, true) >= 0);
+		assertEquals(2, pManager.getPhotos().size());
+
+		// A rename keeps the photo
+		File kitten = new File(photoDir, "Kitten.jpeg");
+		Files.move(cat.toPath(), kitten.toPath());
+		assertEquals(id, waitFor(kitten, true));
+		assertEquals(-1, pManager.getPhotoId(cat.getAbsolutePath()));
+		assertEquals("Kitten.jpeg", pManager.getPhoto(id).getName());
+		assertTrue(removed.isEmpty());
+
+		assertTrue(dog.delete());
+		assertEquals(-1, waitFor(dog, false));
+		assertEquals(1, pManager.getPhotos().size());
+		for(int i = 0; i < 100 && removed.isEmpty(); i++)
+			Thread.sleep(100);
+		assertEquals(1, removed.size());
+		assertEquals(dog.getAbsolutePath(), removed.get(0).getPath());
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Photo;
+import util.PreviewListener;
+import util.PreviewService;
+
+/**
+ * This class tests PreviewService class
+ *
+ */
+public class PreviewServiceTest {
+
+	private static File image = new File("TestPreview.png");
+
+	private PreviewService previews;
+
+	private Photo photo;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		ImageIO.write(new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB), "png", image);
+		photo = new Photo(image.getName(), image.getAbsolutePath(), image);
+		photo.setFileStat(image.length(), image.lastModified());
+		previews = new PreviewService(1, 16L * 1024 * 1024);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		image.delete();
+	}
+
+
+	/**
+	 * Test that a preview fits the box and is cached
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetPreview() throws Exception {
+		assertNull(previews.getCached(photo, 400, 400));
+		BufferedImage preview = previews.getPreview(photo, 400, 400);
+		assertEquals(400, preview.getWidth());
+		assertEquals(200, preview.getHeight());
+		assertSame(preview, previews.getCached(photo, 400, 400));
+		assertNull(previews.getCached(photo, 800, 800));
+
+		// A changed file is rendered again
+		photo.setFileStat(image.length() + 1, image.lastModified());
+		assertNull(previews.getCached(photo, 400, 400));
+	}
+
+
+	/**
+	 * Test that a request tells its listener
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRequest() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final BufferedImage[] result = new BufferedImage[1];
+		previews.request(photo, 100, 100, new PreviewListener() {
+			@Override
+			public void previewReady(Photo p, BufferedImage preview) {
+				result[0] = preview;
+				done.countDown();
+			}
+
+			@Override
+			public void previewFailed(Photo p, IOException e) {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(100, result[0].getWidth());
+		assertEquals(50, result[0].getHeight());
+	}
+
+
+	/**
+	 * Test that prefetched previews end up cached, and that asking for
+	 * one being prefetched gets the same image
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testPrefetch() throws Exception {
+		previews.prefetch(Arrays.asList(photo), 300, 300);
+		BufferedImage preview = previews.getPreview(photo, 300, 300);
+		long deadline = System.currentTimeMillis() + 10000;
+		while(previews.getCached(photo, 300, 300) == null && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+		assertSame(preview, previews.getCached(photo, 300, 300));
+
+		// Cancelled before it could run, or run; either way nothing breaks
+		previews.prefetch(Arrays.asList(photo), 50, 50);
+		previews.cancelPrefetch();
+		assertEquals(50, previews.getPreview(photo, 50, 50).getWidth());
+	}
+}
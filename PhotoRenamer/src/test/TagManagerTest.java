@@ -11,6 +11,10 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Base64;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -39,6 +43,25 @@ public class TagManagerTest {
 	
 	private static File testDir = new File("PhotosForTest");
 	
+	/** 
+	 * A Tag.ser written by the version that kept a photo's tags in an
+	 * ArrayList, with tags Beach and Dog, and Cat.jpeg tagged Beach.
+	 */
+	private static final String BASELINE_SER = 
+			"rO0ABXNyABFqYXZhLnV0aWwuSGFzaE1hcAUH2sHDFmDRAwACRgAKbG9hZEZhY3RvckkACXRo" +
+			"cmVzaG9sZHhwP0AAAAAAAAx3CAAAABAAAAACdAAFQmVhY2hzcgAJbW9kZWwuVGFnL5uwpxzn" +
+			"qrkCAAJMAARuYW1ldAASTGphdmEvbGFuZy9TdHJpbmc7TAAGcGhvdG9zdAAVTGphdmEvdXRp" +
+			"bC9BcnJheUxpc3Q7eHBxAH4AAnNyABNqYXZhLnV0aWwuQXJyYXlMaXN0eIHSHZnHYZ0DAAFJ" +
+			"AARzaXpleHAAAAABdwQAAAABc3IAC21vZGVsLlBob3RvYIexxb8ug5gCAAZMAARmaWxldAAO" +
+			"TGphdmEvaW8vRmlsZTtMAARuYW1lcQB+AARMAARwYXRocQB+AARMAAxwcmV2aW91c05hbWV0" +
+			"ABZMamF2YS91dGlsL0NvbGxlY3Rpb247TAAEdGFnc3EAfgAFTAAFdGh1bWJ0ABBMdXRpbC9U" +
+			"aHVtYm5haWw7eHBzcgAMamF2YS5pby5GaWxlBC2kRQ4N5P8DAAFMAARwYXRocQB+AAR4cHQA" +
+			"FlBob3Rvc0ZvclRlc3QvQ2F0LmpwZWd3AgAveHQACENhdC5qcGVncQB+ABBzcQB+AAcAAAAA" +
+			"dwQAAAAAeHNxAH4ABwAAAAF3BAAAAAFxAH4ABnhzcgAOdXRpbC5UaHVtYm5haWypDzgjkhvY" +
+			"HQIAAkwABHBhdGhxAH4ABEwABXBob3RvdAANTG1vZGVsL1Bob3RvO3hwdAAadGh1bWJuYWls" +
+			"cy9DYXQuX3RodW1iLmpwZWdxAH4ADXh0AANEb2dzcQB+AANxAH4AGHNxAH4ABwAAAAB3BAAA" +
+			"AAB4eA==";
+	
 	/**
 	 * @throws java.lang.Exception
 	 */
@@ -56,7 +79,7 @@ public class TagManagerTest {
 	public static void tearDownAfterClass() throws Exception {
 		File currDir = new File(System.getProperty("user.dir"));
 		for(File f : currDir.listFiles()){
-			if(f.getName().startsWith("Tag.log") || f.getName().endsWith(".ser")){
+			if(f.getName().startsWith("Tag.log") || f.getName().endsWith(".ser") || f.getName().contains(".ser.")){
 				DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
 				if(!f.delete())
 					System.out.println("Delete unsuccessful");
@@ -82,7 +105,7 @@ public class TagManagerTest {
 		tManager.saveToFile();
 		File currDir = new File(System.getProperty("user.dir"));
 		for(File f : currDir.listFiles()){
-			if(f.getName().startsWith("Tag.log") || f.getName().endsWith(".ser")){
+			if(f.getName().startsWith("Tag.log") || f.getName().endsWith(".ser") || f.getName().contains(".ser.")){
 				DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
 //				f.setWritable(true);
 				if(!f.delete())
@@ -317,4 +340,60 @@ public class TagManagerTest {
 		tManager.addAllTag(testPhoto2);
 		assertEquals(t1, tManager.findMostCommonTag());
 	}
+	
+	
+	/**
+	 * Test findMostUsedTags() method
+	 * 
+	 * @throws DuplicateTagException
+	 * @throws InvalidTagNameException
+	 * @throws TagNotExistException
+	 * @throws IOException
+	 */
+	@Test
+	public void testFindMostUsedTags() 
+			throws DuplicateTagException, InvalidTagNameException, TagNotExistException, IOException {
+		Tag t1 = tManager.createTag("Cat1");
+		Tag t2 = tManager.createTag("Cat2");
+		Tag t3 = tManager.createTag("Cat3");
+		Photo testPhoto2 = new Photo("Cats.jpg", "PhotosForTest/Cats.jpg", new File("PhotosForTest/Cats.jpg"));
+		tManager.addPhoto("Cat2", testPhoto);
+		tManager.addPhoto("Cat2", testPhoto2);
+		tManager.addPhoto("Cat1", testPhoto);
+		assertEquals(Arrays.asList(t2, t1), tManager.findMostUsedTags(2));
+		assertEquals(Arrays.asList(t2, t1, t3), tManager.findMostUsedTags(5));
+		
+		tManager.removePhoto("Cat2", testPhoto);
+		tManager.removePhoto("Cat2", testPhoto2);
+		assertEquals(t1, tManager.findMostCommonTag());
+		tManager.deleteTag("Cat1");
+		assertEquals(2, tManager.findMostUsedTags(5).size());
+	}
+	
+	
+	/**
+	 * Test reading a ser file written by an older version, whose tags 
+	 * and photos refer to each other, and saving it in the new format.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadBaselineSer() throws Exception {
+		Files.write(Paths.get("TestBaseline.ser"), Base64.getDecoder().decode(BASELINE_SER));
+		TagManager old = new TagManager("TestBaseline.ser");
+		assertEquals(2, old.getTags().size());
+		Tag beach = old.findTag("Beach");
+		assertEquals(1, beach.getPhotos().size());
+		Photo cat = beach.getPhotos().get(0);
+		assertEquals("Cat.jpeg", cat.getName());
+		assertEquals(Arrays.asList(beach), cat.getTags());
+		assertTrue(cat.hasTag(beach));
+		assertTrue(!cat.hasTag(old.findTag("Dog")));
+		assertEquals(0, old.findTag("Dog").getPhotos().size());
+		
+		old.saveToFile();
+		TagManager reopened = new TagManager("TestBaseline.ser");
+		assertNotNull(reopened.findTag("Beach"));
+		assertNotNull(reopened.findTag("Dog"));
+	}
 }
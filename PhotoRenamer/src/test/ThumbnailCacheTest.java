@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Photo;
+import util.Thumbnail;
+import util.ThumbnailCache;
+import util.ThumbnailStore;
+
+/**
+ * This class tests ThumbnailCache class
+ *
+ */
+public class ThumbnailCacheTest {
+
+	private static File image = new File("TestThumbnailCache.png");
+
+	private static File renamed = new File("TestThumbnailCacheRenamed.png");
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "png", image);
+		assertTrue(image.setLastModified(1000000000000L));
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		image.delete();
+		renamed.delete();
+	}
+
+
+	/**
+	 * Test that the key changes with the file's size, modification time
+	 * and variant, and not with its name when the file system has file keys
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testKey() throws Exception {
+		String key = ThumbnailCache.keyFor(image);
+		assertEquals(40, key.length());
+		assertEquals(key, ThumbnailCache.keyFor(image));
+		assertFalse(key.equals(ThumbnailCache.keyFor(image, "128")));
+		assertFalse(ThumbnailCache.keyFor(image, "128").equals(ThumbnailCache.keyFor(image, "256")));
+
+		assertTrue(image.setLastModified(1000000001000L));
+		String touched = ThumbnailCache.keyFor(image);
+		assertFalse(key.equals(touched));
+
+		long modified = image.lastModified();
+		ImageIO.write(new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB), "png", image);
+		assertTrue(image.setLastModified(modified));
+		assertFalse(touched.equals(ThumbnailCache.keyFor(image)));
+
+		if(Files.readAttributes(image.toPath(), BasicFileAttributes.class).fileKey() != null){
+			String before = ThumbnailCache.keyFor(image);
+			assertTrue(image.renameTo(renamed));
+			assertEquals(before, ThumbnailCache.keyFor(renamed));
+		}
+	}
+
+
+	/**
+	 * Test that a thumbnail made again after its file changed gets a
+	 * new key, and the old thumbnail is removed from the store
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testChangedSourceInvalidates() throws Exception {
+		Thumbnail thumb = new Photo(image.getName(), image.getPath(), image).getThumb();
+		thumb.generate();
+		assertTrue(thumb.isValid());
+		String old = thumb.getKey();
+		ThumbnailStore store = ThumbnailStore.getInstance();
+		assertTrue(store.contains(old));
+
+		ImageIO.write(new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB), "png", image);
+		assertTrue(image.setLastModified(1000000002000L));
+		assertFalse(thumb.isValid());
+		thumb.generate();
+		assertTrue(thumb.isValid());
+		assertFalse(old.equals(thumb.getKey()));
+		assertFalse(store.contains(old));
+		assertTrue(store.contains(thumb.getKey()));
+		assertTrue(thumb.readThumbImage() != null);
+	}
+}
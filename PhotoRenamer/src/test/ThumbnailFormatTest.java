@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import util.ThumbnailFormat;
+
+/**
+ * This class tests ThumbnailFormat class
+ *
+ */
+public class ThumbnailFormatTest {
+
+	private BufferedImage thumb;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		thumb = new BufferedImage(128, 64, BufferedImage.TYPE_INT_ARGB);
+		for(int y = 0; y < 64; y++){
+			for(int x = 0; x < 128; x++){
+				thumb.setRGB(x, y, x < 64 ? 0xFFFF0000 : 0xFF0000FF);
+			}
+		}
+	}
+
+
+	/**
+	 * Test that a thumbnail with alpha is written as JPEG and read back
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testJpeg() throws Exception {
+		byte[] bytes = new ThumbnailFormat(128, 0.9f, false).encode(thumb);
+		assertEquals(0xFF, bytes[0] & 0xFF);
+		assertEquals(0xD8, bytes[1] & 0xFF);
+		BufferedImage read = ThumbnailFormat.decode(bytes);
+		assertEquals(128, read.getWidth());
+		assertEquals(64, read.getHeight());
+		assertTrue(new Color(read.getRGB(10, 10)).getRed() > 200);
+
+		// Lower quality, fewer bytes
+		assertTrue(new ThumbnailFormat(128, 0.1f, false).encode(thumb).length <= bytes.length);
+	}
+
+
+	/**
+	 * Test that raw thumbnails keep every pixel
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRaw() throws Exception {
+		byte[] bytes = new ThumbnailFormat(128, 0.9f, true).encode(thumb);
+		assertEquals(12 + 128 * 64 * 3, bytes.length);
+		BufferedImage read = ThumbnailFormat.decode(bytes);
+		assertEquals(128, read.getWidth());
+		assertEquals(0xFFFF0000, read.getRGB(10, 10));
+		assertEquals(0xFF0000FF, read.getRGB(100, 60));
+	}
+
+
+	/**
+	 * Test that thumbnails in other formats, e.g. from before, are still read
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testDecodeOther() throws Exception {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(thumb, "png", png);
+		assertEquals(0xFF0000FF, ThumbnailFormat.decode(png.toByteArray()).getRGB(100, 60));
+	}
+
+
+	/**
+	 * Test that formats tell their thumbnails apart
+	 */
+	@Test
+	public void testVariant() {
+		String jpeg = new ThumbnailFormat(128, 0.85f, false).getVariant();
+		assertFalse(jpeg.equals(new ThumbnailFormat(128, 0.5f, false).getVariant()));
+		assertFalse(jpeg.equals(new ThumbnailFormat(256, 0.85f, false).getVariant()));
+		assertFalse(jpeg.equals(new ThumbnailFormat(128, 0.85f, true).getVariant()));
+	}
+
+
+	/**
+	 * Test that a quality out of range is refused
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadQuality() {
+		new ThumbnailFormat(128, 1.5f, false);
+	}
+}
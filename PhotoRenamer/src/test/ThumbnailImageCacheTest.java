@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import util.ThumbnailImageCache;
+
+/**
+ * This class tests ThumbnailImageCache class
+ *
+ */
+public class ThumbnailImageCacheTest {
+
+	/** Bytes of a 10 x 10 image, 4 bytes a pixel */
+	private static final int IMAGE_SIZE = 400;
+
+	private ThumbnailImageCache cache;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		cache = new ThumbnailImageCache(1000);
+	}
+
+
+	/**
+	 * Get a new 10 x 10 image
+	 */
+	private static BufferedImage image() {
+		return new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+	}
+
+
+	/**
+	 * Test that the least recently used image is evicted once the
+	 * budget is exceeded
+	 */
+	@Test
+	public void testEvictionOrder() {
+		BufferedImage a = image();
+		cache.put("a", a);
+		cache.put("b", image());
+		assertEquals(2 * IMAGE_SIZE, cache.getSize());
+
+		// a is now used more recently than b
+		assertTrue(cache.get("a") == a);
+		cache.put("c", image());
+		assertNull(cache.get("b"));
+		assertTrue(cache.get("c") != null);
+		assertTrue(cache.get("a") == a);
+		assertEquals(2 * IMAGE_SIZE, cache.getSize());
+
+		// c is now the eldest
+		cache.put("d", image());
+		assertNull(cache.get("c"));
+		assertTrue(cache.get("a") == a);
+	}
+
+
+	/**
+	 * Test the byte bound: replacing and removing images, and an image
+	 * bigger than the budget
+	 */
+	@Test
+	public void testByteBound() {
+		cache.put("a", image());
+		cache.put("a", image());
+		assertEquals(IMAGE_SIZE, cache.getSize());
+		cache.put("b", image());
+		cache.remove("a");
+		cache.remove("a");
+		assertEquals(IMAGE_SIZE, cache.getSize());
+
+		// Kept alone, as the image just added is never evicted
+		BufferedImage big = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+		cache.put("big", big);
+		assertNull(cache.get("b"));
+		assertTrue(cache.get("big") == big);
+		assertEquals(4 * IMAGE_SIZE, cache.getSize());
+
+		cache.put("c", image());
+		assertNull(cache.get("big"));
+		assertEquals(IMAGE_SIZE, cache.getSize());
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Photo;
+import util.Thumbnail;
+import util.ThumbnailListener;
+import util.ThumbnailPipeline;
+
+/**
+ * This class tests ThumbnailPipeline class
+ *
+ */
+public class ThumbnailPipelineTest {
+
+	private static File photoDir = new File("TestPipelinePhotos");
+
+	private ThumbnailPipeline pipeline;
+
+	/** Released to let the pipeline's thread finish its first job */
+	private CountDownLatch release;
+
+	/** Counted down when the pipeline's thread has started its first job */
+	private CountDownLatch started;
+
+	/** Names of the photos whose job ran on the submitting thread */
+	private Set<String> onCaller;
+
+	/** Counted down when a job is done */
+	private CountDownLatch done;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		photoDir.mkdir();
+		pipeline = new ThumbnailPipeline(1, 1);
+		release = new CountDownLatch(1);
+		started = new CountDownLatch(1);
+		onCaller = Collections.synchronizedSet(new HashSet<String>());
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		release.countDown();
+		pipeline.shutdown(10000);
+		for(File f : photoDir.listFiles())
+			f.delete();
+		photoDir.delete();
+	}
+
+
+	/**
+	 * Test that background work is queued up to the capacity, and that
+	 * beyond it the submitting thread generates the thumbnail itself,
+	 * while thumbnails requested first are always queued
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFallbackToCaller() throws Exception {
+		done = new CountDownLatch(4);
+		final Thread caller = Thread.currentThread();
+
+		// Keeps the only thread busy
+		pipeline.submit(thumbOf("Busy.jpeg"), listener(caller, true));
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		pipeline.submit(thumbOf("Queued.jpeg"), listener(caller, false));
+		assertEquals(1, pipeline.getPending());
+
+		// The queue is full
+		pipeline.submit(thumbOf("Caller.jpeg"), listener(caller, false));
+		assertEquals(Collections.singleton("Caller.jpeg"), onCaller);
+		assertEquals(1, pipeline.getPending());
+
+		pipeline.submitFirst(thumbOf("First.jpeg"), listener(caller, false));
+		assertEquals(2, pipeline.getPending());
+
+		release.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(Collections.singleton("Caller.jpeg"), onCaller);
+	}
+
+
+	/**
+	 * Get the thumbnail of a new photo of a small image
+	 */
+	private static Thumbnail thumbOf(String name) throws IOException {
+		File f = new File(photoDir, name);
+		ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "jpeg", f);
+		return new Photo(name, f.getPath(), f).getThumb();
+	}
+
+
+	/**
+	 * Get a listener that records jobs run on the caller thread, and
+	 * may wait to be released
+	 */
+	private ThumbnailListener listener(final Thread caller, final boolean block) {
+		return new ThumbnailListener() {
+			@Override
+			public void thumbnailReady(Thumbnail thumb) {
+				if(Thread.currentThread() == caller)
+					onCaller.add(thumb.getPhoto().getName());
+				if(block){
+					started.countDown();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				done.countDown();
+			}
+
+			@Override
+			public void thumbnailFailed(Thumbnail thumb, IOException e) {
+				thumbnailReady(thumb);
+			}
+		};
+	}
+}
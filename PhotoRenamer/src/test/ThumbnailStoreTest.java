@@ -0,0 +1,226 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.ThumbnailStore;
+
+/**
+ * This class tests ThumbnailStore class
+ *
+ */
+public class ThumbnailStoreTest {
+
+	private static Path dir = Paths.get("TestThumbnailStore");
+
+	private static String keyA = "00112233445566778899aabbccddeeff00112233";
+
+	private static String keyB = "ffeeddccbbaa99887766554433221100ffeeddcc";
+
+	private ThumbnailStore store;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		store = new ThumbnailStore(dir);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		for(File f: dir.toFile().listFiles()){
+			f.delete();
+		}
+		Files.delete(dir);
+	}
+
+
+	/**
+	 * Test adding, reading, replacing and removing thumbnails
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testPutGet() throws Exception {
+		assertNull(store.get(keyA));
+		store.put(keyA, new byte[]{1, 2, 3});
+		store.put(keyB, new byte[]{4, 5});
+		assertArrayEquals(new byte[]{1, 2, 3}, store.get(keyA));
+		assertArrayEquals(new byte[]{4, 5}, store.get(keyB));
+
+		store.put(keyA, new byte[]{6});
+		assertArrayEquals(new byte[]{6}, store.get(keyA));
+		assertEquals(3, store.getWasted());
+
+		store.remove(keyB);
+		assertFalse(store.contains(keyB));
+		assertEquals(1, store.size());
+	}
+
+
+	/**
+	 * Test that a store opened again has the same thumbnails, ignoring
+	 * half of an index entry
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReopen() throws Exception {
+		store.put(keyA, new byte[]{1, 2, 3});
+		store.put(keyB, new byte[]{4, 5});
+		store.remove(keyB);
+		store.close();
+		try(FileChannel index = FileChannel.open(store.getIndexFile(),
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)){
+			index.write(ByteBuffer.wrap(new byte[]{9, 9, 9}));
+		}
+
+		store = new ThumbnailStore(dir);
+		assertArrayEquals(new byte[]{1, 2, 3}, store.get(keyA));
+		assertFalse(store.contains(keyB));
+		assertEquals(2, store.getWasted());
+
+		// Still appends after the dropped half entry
+		store.put(keyB, new byte[]{7});
+		store.close();
+		store = new ThumbnailStore(dir);
+		assertArrayEquals(new byte[]{7}, store.get(keyB));
+	}
+
+
+	/**
+	 * Test that compacting gives back the space of removed thumbnails
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCompact() throws Exception {
+		store.put(keyA, new byte[100]);
+		store.put(keyB, new byte[]{4, 5});
+		store.remove(keyA);
+		assertEquals(100, store.getWasted());
+
+		store.compact();
+		assertEquals(0, store.getWasted());
+		assertEquals(2, Files.size(store.getDataFile()));
+		assertArrayEquals(new byte[]{4, 5}, store.get(keyB));
+		assertFalse(store.contains(keyA));
+		// The new data and index files and the generation file
+		assertEquals(3, dir.toFile().list().length);
+
+		store.close();
+		store = new ThumbnailStore(dir);
+		assertArrayEquals(new byte[]{4, 5}, store.get(keyB));
+		assertFalse(store.contains(keyA));
+	}
+
+
+	/**
+	 * Test that a compaction stopped before switching to the new files
+	 * leaves the old ones in use, and its files are deleted
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCompactInterrupted() throws Exception {
+		store.put(keyA, new byte[]{1, 2, 3});
+		Path data = store.getDataFile();
+		store.close();
+		// Half written files of the next generation
+		Path next = dir.resolve("thumbs.1.dat");
+		Files.write(next, new byte[]{9});
+		Files.write(dir.resolve("thumbs.1.idx"), new byte[40]);
+
+		store = new ThumbnailStore(dir);
+		assertEquals(data, store.getDataFile());
+		assertArrayEquals(new byte[]{1, 2, 3}, store.get(keyA));
+		assertFalse(Files.exists(next));
+	}
+
+
+	/**
+	 * Test that the store compacts by itself once mostly wasted
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCompactWhenWasted() throws Exception {
+		store.close();
+		store = new ThumbnailStore(dir, 100);
+		store.put(keyA, new byte[60]);
+		store.put(keyB, new byte[60]);
+		store.remove(keyA);
+		// 60 of 120 bytes wasted, not more than half
+		assertEquals(60, store.getWasted());
+
+		store.put(keyB, new byte[50]);
+		assertEquals(0, store.getWasted());
+		assertEquals(50, Files.size(store.getDataFile()));
+		assertEquals(50, store.get(keyB).length);
+	}
+
+
+	/**
+	 * Test that index entries are appended in groups, and that a store
+	 * opened after the application stopped has the synced thumbnails only
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSyncGrouped() throws Exception {
+		for(int i = 1; i < ThumbnailStore.SYNC_EVERY; i++){
+			store.put(key(i), new byte[]{(byte) i});
+		}
+		assertEquals(0, Files.size(store.getIndexFile()));
+		assertArrayEquals(new byte[]{1}, store.get(key(1)));
+
+		store.put(key(ThumbnailStore.SYNC_EVERY), new byte[]{9});
+		long synced = Files.size(store.getIndexFile());
+		assertTrue(synced > 0);
+		store.put(keyA, new byte[]{1, 2, 3});
+		assertEquals(synced, Files.size(store.getIndexFile()));
+
+		// Opened again without closing, as after a crash
+		ThumbnailStore crashed = store;
+		store = new ThumbnailStore(dir);
+		assertEquals(ThumbnailStore.SYNC_EVERY, store.size());
+		assertArrayEquals(new byte[]{9}, store.get(key(ThumbnailStore.SYNC_EVERY)));
+		assertFalse(store.contains(keyA));
+		store.close();
+
+		crashed.close();
+		store = new ThumbnailStore(dir);
+		assertArrayEquals(new byte[]{1, 2, 3}, store.get(keyA));
+	}
+
+
+	/**
+	 * Get a key made of the given number
+	 */
+	private static String key(int i) {
+		return String.format("%040x", i);
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.TilePyramid;
+
+/**
+ * This class tests TilePyramid class
+ *
+ */
+public class TilePyramidTest {
+
+	private static File image = new File("TestPyramid.png");
+
+	private TilePyramid pyramid;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		// Red on the left, blue on the right
+		BufferedImage in = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = in.createGraphics();
+		g2.setColor(Color.RED);
+		g2.fillRect(0, 0, 500, 600);
+		g2.setColor(Color.BLUE);
+		g2.fillRect(500, 0, 500, 600);
+		g2.dispose();
+		ImageIO.write(in, "png", image);
+		pyramid = new TilePyramid(image);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		Path dir = pyramid.pathFor(0, 0, 0).getParent().getParent();
+		if(Files.exists(dir)){
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+					Files.delete(d);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		image.delete();
+	}
+
+
+	/**
+	 * Test the size of the levels
+	 */
+	@Test
+	public void testLevels() {
+		assertEquals(3, pyramid.getLevels());
+		assertEquals(500, pyramid.getWidth(1));
+		assertEquals(150, pyramid.getHeight(2));
+		assertEquals(4, pyramid.getColumns(0));
+		assertEquals(3, pyramid.getRows(0));
+		assertEquals(1, pyramid.getColumns(2));
+		assertEquals(0, pyramid.getLevelFor(1));
+		assertEquals(1, pyramid.getLevelFor(0.4));
+		assertEquals(2, pyramid.getLevelFor(0.01));
+	}
+
+
+	/**
+	 * Test that a tile is read from its region of the original and stored
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadTile() throws Exception {
+		assertFalse(pyramid.isStored(0, 3, 2));
+		BufferedImage tile = pyramid.readTile(0, 3, 2);
+		assertEquals(1000 - 3 * 256, tile.getWidth());
+		assertEquals(600 - 2 * 256, tile.getHeight());
+		assertTrue(pyramid.isStored(0, 3, 2));
+		assertTrue(new Color(tile.getRGB(10, 10)).getBlue() > 200);
+
+		// Read back from its file
+		tile = pyramid.readTile(0, 3, 2);
+		assertEquals(232, tile.getWidth());
+	}
+
+
+	/**
+	 * Test that every tile is generated and levels are made from the level below
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testGenerate() throws Exception {
+		pyramid.generate();
+		for(int level = 0; level < pyramid.getLevels(); level++){
+			for(int row = 0; row < pyramid.getRows(level); row++){
+				for(int col = 0; col < pyramid.getColumns(level); col++){
+					assertTrue(pyramid.isStored(level, col, row));
+				}
+			}
+		}
+		BufferedImage top = pyramid.readTile(2, 0, 0);
+		assertEquals(250, top.getWidth());
+		assertEquals(150, top.getHeight());
+		Color left = new Color(top.getRGB(20, 75));
+		Color right = new Color(top.getRGB(230, 75));
+		assertTrue(left.getRed() > 200 && left.getBlue() < 60);
+		assertTrue(right.getBlue() > 200 && right.getRed() < 60);
+	}
+}
@@ -0,0 +1,534 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * CompressedBitmap is a set of non-negative ints, stored like a Roaring
+ * bitmap: ints are grouped by their high 16 bits into chunks of 65536,
+ * and each chunk is kept either as a sorted array of its low 16 bits,
+ * while it has at most 4096 of them, or as a 65536-bit bitmap.
+ * Sparse sets take 2 bytes per int and dense ones 1 bit per int, and
+ * and/or/andNot work a chunk at a time.
+ *
+ * and, or and andNot return a new set and never change their operands.
+ * A CompressedBitmap is not thread safe.
+ */
+public class CompressedBitmap {
+
+	/** Most ints a chunk keeps as an array */
+	private static final int ARRAY_MAX = 4096;
+
+	/** Number of longs in a chunk bitmap */
+	private static final int WORDS = 1024;
+
+	/** High 16 bits of each chunk, sorted */
+	private char[] keys;
+
+	/** The chunks, in the order of keys */
+	private Chunk[] chunks;
+
+	/** Number of chunks in use */
+	private int size;
+
+
+	/**
+	 * Create an empty CompressedBitmap.
+	 */
+	public CompressedBitmap(){
+		keys = new char[4];
+		chunks = new Chunk[4];
+	}
+
+
+	/**
+	 * The ints of a CompressedBitmap sharing the same high 16 bits.
+	 */
+	private static class Chunk {
+
+		/** Number of ints in the chunk */
+		private int cardinality;
+
+		/** The sorted low 16 bits, if kept as an array */
+		private char[] array;
+
+		/** The bits, if kept as a bitmap */
+		private long[] bits;
+
+
+		/**
+		 * Create an empty array chunk.
+		 */
+		private Chunk(){
+			array = new char[4];
+		}
+
+
+		/**
+		 * Create a chunk with the given content.
+		 */
+		private Chunk(int cardinality, char[] array, long[] bits){
+			this.cardinality = cardinality;
+			this.array = array;
+			this.bits = bits;
+		}
+
+
+		private boolean contains(char low){
+			if(bits != null)
+				return (bits[low >>> 6] & (1L << low)) != 0;
+			return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+		}
+
+
+		private boolean add(char low){
+			if(bits != null){
+				long before = bits[low >>> 6];
+				bits[low >>> 6] = before | (1L << low);
+				if(before == bits[low >>> 6])
+					return false;
+				cardinality++;
+				return true;
+			}
+			int i = Arrays.binarySearch(array, 0, cardinality, low);
+			if(i >= 0)
+				return false;
+			if(cardinality == ARRAY_MAX){
+				toBitmap();
+				return add(low);
+			}
+			i = -i - 1;
+			if(cardinality == array.length)
+				array = Arrays.copyOf(array, Math.min(ARRAY_MAX, cardinality * 2));
+			System.arraycopy(array, i, array, i + 1, cardinality - i);
+			array[i] = low;
+			cardinality++;
+			return true;
+		}
+
+
+		private boolean remove(char low){
+			if(bits != null){
+				long before = bits[low >>> 6];
+				bits[low >>> 6] = before & ~(1L << low);
+				if(before == bits[low >>> 6])
+					return false;
+				cardinality--;
+				if(cardinality <= ARRAY_MAX / 2)
+					toArray();
+				return true;
+			}
+			int i = Arrays.binarySearch(array, 0, cardinality, low);
+			if(i < 0)
+				return false;
+			System.arraycopy(array, i + 1, array, i, cardinality - i - 1);
+			cardinality--;
+			return true;
+		}
+
+
+		/**
+		 * Switch to a bitmap.
+		 */
+		private void toBitmap(){
+			bits = bitmap();
+			array = null;
+		}
+
+
+		/**
+		 * Switch to an array.
+		 */
+		private void toArray(){
+			array = lows();
+			bits = null;
+		}
+
+
+		/**
+		 * Get the content as bits, sharing them if kept as a bitmap.
+		 */
+		private long[] bitmap(){
+			if(bits != null)
+				return bits;
+			long[] b = new long[WORDS];
+			for(int i = 0; i < cardinality; i++){
+				b[array[i] >>> 6] |= 1L << array[i];
+			}
+			return b;
+		}
+
+
+		/**
+		 * Get the content as a new sorted array of low 16 bits.
+		 */
+		private char[] lows(){
+			if(bits == null)
+				return Arrays.copyOf(array, Math.max(cardinality, 1));
+			char[] a = new char[Math.max(cardinality, 1)];
+			int n = 0;
+			for(int w = 0; w < WORDS; w++){
+				long word = bits[w];
+				while(word != 0){
+					a[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return a;
+		}
+
+
+		private Chunk copy(){
+			return new Chunk(cardinality, array == null ? null : array.clone(),
+					bits == null ? null : bits.clone());
+		}
+
+
+		private Chunk and(Chunk o){
+			if(bits == null || o.bits == null){
+				// Filter the array, the result is at most as large
+				Chunk small = bits == null ? this : o;
+				Chunk other = small == this ? o : this;
+				char[] a = new char[Math.max(small.cardinality, 1)];
+				int n = 0;
+				for(int i = 0; i < small.cardinality; i++){
+					if(other.contains(small.array[i]))
+						a[n++] = small.array[i];
+				}
+				return new Chunk(n, a, null);
+			}
+			long[] b = new long[WORDS];
+			int n = 0;
+			for(int w = 0; w < WORDS; w++){
+				b[w] = bits[w] & o.bits[w];
+				n += Long.bitCount(b[w]);
+			}
+			return fromBits(n, b);
+		}
+
+
+		private Chunk or(Chunk o){
+			if(bits == null && o.bits == null && cardinality + o.cardinality <= ARRAY_MAX){
+				// Merge the sorted arrays
+				char[] a = new char[Math.max(cardinality + o.cardinality, 1)];
+				int i = 0, j = 0, n = 0;
+				while(i < cardinality || j < o.cardinality){
+					if(j == o.cardinality || (i < cardinality && array[i] < o.array[j]))
+						a[n++] = array[i++];
+					else if(i == cardinality || o.array[j] < array[i])
+						a[n++] = o.array[j++];
+					else{
+						a[n++] = array[i++];
+						j++;
+					}
+				}
+				return new Chunk(n, a, null);
+			}
+			long[] b = bitmap().clone();
+			long[] ob = o.bitmap();
+			int n = 0;
+			for(int w = 0; w < WORDS; w++){
+				b[w] |= ob[w];
+				n += Long.bitCount(b[w]);
+			}
+			return fromBits(n, b);
+		}
+
+
+		private Chunk andNot(Chunk o){
+			if(bits == null){
+				char[] a = new char[Math.max(cardinality, 1)];
+				int n = 0;
+				for(int i = 0; i < cardinality; i++){
+					if(!o.contains(array[i]))
+						a[n++] = array[i];
+				}
+				return new Chunk(n, a, null);
+			}
+			long[] b = bits.clone();
+			long[] ob = o.bitmap();
+			int n = 0;
+			for(int w = 0; w < WORDS; w++){
+				b[w] &= ~ob[w];
+				n += Long.bitCount(b[w]);
+			}
+			return fromBits(n, b);
+		}
+
+
+		/**
+		 * Make a chunk of the given bits, as an array if small enough.
+		 */
+		private static Chunk fromBits(int cardinality, long[] bits){
+			Chunk c = new Chunk(cardinality, null, bits);
+			if(cardinality <= ARRAY_MAX)
+				c.toArray();
+			return c;
+		}
+	}
+
+
+	/**
+	 * Tell if the given int is in this set.
+	 *
+	 * @param value
+	 * 			the int
+	 * @return boolean
+	 * 			true if it is in this set
+	 */
+	public boolean contains(int value){
+		int i = find((char) (value >>> 16));
+		return value >= 0 && i >= 0 && chunks[i].contains((char) value);
+	}
+
+
+	/**
+	 * Add an int to this set.
+	 *
+	 * @param value
+	 * 			a non-negative int
+	 * @return boolean
+	 * 			true if it was not in this set before
+	 */
+	public boolean add(int value){
+		if(value < 0)
+			throw new IllegalArgumentException("Negative value: " + value);
+		char key = (char) (value >>> 16);
+		int i = find(key);
+		if(i < 0){
+			i = -i - 1;
+			insert(i, key, new Chunk());
+		}
+		return chunks[i].add((char) value);
+	}
+
+
+	/**
+	 * Add all ints from one to another to this set.
+	 *
+	 * @param from
+	 * 			the first int to add, non-negative
+	 * @param to
+	 * 			the int after the last one to add
+	 */
+	public void addRange(int from, int to){
+		for(int value = from; value < to; ){
+			char key = (char) (value >>> 16);
+			int end = Math.min(to, ((value >>> 16) + 1) << 16);
+			if(end < 0)
+				end = to;
+			if(value == key << 16 && end - value == 1 << 16){
+				// A whole chunk, set every bit at once
+				long[] b = new long[WORDS];
+				Arrays.fill(b, -1L);
+				int i = find(key);
+				if(i >= 0)
+					chunks[i] = new Chunk(1 << 16, null, b);
+				else
+					insert(-i - 1, key, new Chunk(1 << 16, null, b));
+			}else{
+				for(int v = value; v < end; v++){
+					add(v);
+				}
+			}
+			value = end;
+		}
+	}
+
+
+	/**
+	 * Remove an int from this set.
+	 *
+	 * @param value
+	 * 			the int
+	 * @return boolean
+	 * 			true if it was in this set before
+	 */
+	public boolean remove(int value){
+		int i = find((char) (value >>> 16));
+		if(value < 0 || i < 0 || !chunks[i].remove((char) value))
+			return false;
+		if(chunks[i].cardinality == 0){
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+			chunks[--size] = null;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Get the number of ints in this set.
+	 *
+	 * @return int
+	 * 			the number of ints
+	 */
+	public int cardinality(){
+		int n = 0;
+		for(int i = 0; i < size; i++){
+			n += chunks[i].cardinality;
+		}
+		return n;
+	}
+
+
+	/**
+	 * Tell if this set is empty.
+	 *
+	 * @return boolean
+	 * 			true if there is no int in this set
+	 */
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+
+	/**
+	 * Get the ints of this set.
+	 *
+	 * @return int[]
+	 * 			the ints, in increasing order
+	 */
+	public int[] toArray(){
+		int[] result = new int[cardinality()];
+		int n = 0;
+		for(int i = 0; i < size; i++){
+			int high = keys[i] << 16;
+			char[] lows = chunks[i].bits == null ? chunks[i].array : chunks[i].lows();
+			for(int j = 0; j < chunks[i].cardinality; j++){
+				result[n++] = high | lows[j];
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Get a copy of this set.
+	 *
+	 * @return CompressedBitmap
+	 * 			a new set with the same ints
+	 */
+	public CompressedBitmap copy(){
+		CompressedBitmap result = new CompressedBitmap();
+		result.keys = Arrays.copyOf(keys, Math.max(size, 1));
+		result.chunks = new Chunk[Math.max(size, 1)];
+		for(int i = 0; i < size; i++){
+			result.chunks[i] = chunks[i].copy();
+		}
+		result.size = size;
+		return result;
+	}
+
+
+	/**
+	 * Get the ints in both this set and the other one.
+	 *
+	 * @param other
+	 * 			the other set
+	 * @return CompressedBitmap
+	 * 			a new set
+	 */
+	public CompressedBitmap and(CompressedBitmap other){
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0, j = 0;
+		while(i < size && j < other.size){
+			if(keys[i] < other.keys[j])
+				i++;
+			else if(keys[i] > other.keys[j])
+				j++;
+			else
+				result.append(keys[i], chunks[i++].and(other.chunks[j++]));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Get the ints in this set or the other one.
+	 *
+	 * @param other
+	 * 			the other set
+	 * @return CompressedBitmap
+	 * 			a new set
+	 */
+	public CompressedBitmap or(CompressedBitmap other){
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0, j = 0;
+		while(i < size || j < other.size){
+			if(j == other.size || (i < size && keys[i] < other.keys[j]))
+				result.append(keys[i], chunks[i++].copy());
+			else if(i == size || keys[i] > other.keys[j])
+				result.append(other.keys[j], other.chunks[j++].copy());
+			else
+				result.append(keys[i], chunks[i++].or(other.chunks[j++]));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Get the ints in this set but not in the other one.
+	 *
+	 * @param other
+	 * 			the other set
+	 * @return CompressedBitmap
+	 * 			a new set
+	 */
+	public CompressedBitmap andNot(CompressedBitmap other){
+		CompressedBitmap result = new CompressedBitmap();
+		int j = 0;
+		for(int i = 0; i < size; i++){
+			while(j < other.size && other.keys[j] < keys[i])
+				j++;
+			if(j < other.size && other.keys[j] == keys[i])
+				result.append(keys[i], chunks[i].andNot(other.chunks[j]));
+			else
+				result.append(keys[i], chunks[i].copy());
+		}
+		return result;
+	}
+
+
+	@Override
+	public String toString(){
+		return Arrays.toString(toArray());
+	}
+
+
+	/**
+	 * Find the chunk with the given key.
+	 *
+	 * @param key
+	 * 			high 16 bits
+	 * @return int
+	 * 			index of the chunk, or (-(insertion point) - 1)
+	 */
+	private int find(char key){
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+
+	/**
+	 * Insert a chunk at the given index.
+	 */
+	private void insert(int i, char key, Chunk chunk){
+		if(size == keys.length){
+			keys = Arrays.copyOf(keys, size * 2);
+			chunks = Arrays.copyOf(chunks, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(chunks, i, chunks, i + 1, size - i);
+		keys[i] = key;
+		chunks[i] = chunk;
+		size++;
+	}
+
+
+	/**
+	 * Add a chunk after all others, unless it is empty.
+	 */
+	private void append(char key, Chunk chunk){
+		if(chunk.cardinality > 0)
+			insert(size, key, chunk);
+	}
+}
@@ -0,0 +1,238 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * CountHeap keeps a count for each of a set of int keys, e.g. the number
+ * of photos of each tag, in a binary max-heap that also knows where each
+ * key is in it. Changing a count takes O(log n), the largest count is
+ * found in O(1) and the k largest in O(k log k).
+ *
+ * Keys with a count of 0 are not kept. Of keys with equal counts, the
+ * smaller key comes first. Keys should be small, since an array of the
+ * largest key's size is used to find them.
+ *
+ * A CountHeap is not thread safe.
+ */
+public class CountHeap {
+
+	/** The keys, in heap order */
+	private int[] heap;
+
+	/** The count of the key at the same index of heap */
+	private int[] counts;
+
+	/** Number of keys */
+	private int size;
+
+	/** The index in heap of each key, -1 if the key is not kept */
+	private int[] positions;
+
+
+	/**
+	 * Create an empty CountHeap.
+	 */
+	public CountHeap(){
+		heap = new int[16];
+		counts = new int[16];
+		positions = new int[16];
+		Arrays.fill(positions, -1);
+	}
+
+
+	/**
+	 * Set the count of a key.
+	 *
+	 * @param key
+	 * 			a non-negative key
+	 * @param count
+	 * 			its count, 0 to stop keeping the key
+	 */
+	public void set(int key, int count){
+		if(count <= 0){
+			remove(key);
+			return;
+		}
+		int i = key < positions.length ? positions[key] : -1;
+		if(i < 0){
+			if(size == heap.length){
+				heap = Arrays.copyOf(heap, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			if(key >= positions.length){
+				int length = positions.length;
+				positions = Arrays.copyOf(positions, Math.max(key + 1, length * 2));
+				Arrays.fill(positions, length, positions.length, -1);
+			}
+			i = size++;
+			place(i, key, count);
+			siftUp(i);
+		}else{
+			counts[i] = count;
+			siftUp(i);
+			siftDown(positions[key]);
+		}
+	}
+
+
+	/**
+	 * Stop keeping a key.
+	 *
+	 * @param key
+	 * 			the key
+	 */
+	public void remove(int key){
+		int i = key < positions.length ? positions[key] : -1;
+		if(i < 0)
+			return;
+		positions[key] = -1;
+		size--;
+		if(i < size){
+			int last = heap[size];
+			place(i, last, counts[size]);
+			siftUp(i);
+			siftDown(positions[last]);
+		}
+	}
+
+
+	/**
+	 * Get the count of a key.
+	 *
+	 * @param key
+	 * 			the key
+	 * @return int
+	 * 			its count, 0 if it is not kept
+	 */
+	public int getCount(int key){
+		int i = key < positions.length ? positions[key] : -1;
+		return i < 0 ? 0 : counts[i];
+	}
+
+
+	/**
+	 * Get the number of keys kept.
+	 *
+	 * @return int
+	 * 			the number of keys with a count
+	 */
+	public int size(){
+		return size;
+	}
+
+
+	/**
+	 * Get the key with the largest count.
+	 *
+	 * @return int
+	 * 			the key, or -1 if no key is kept
+	 */
+	public int top(){
+		return size == 0 ? -1 : heap[0];
+	}
+
+
+	/**
+	 * Get the keys with the largest counts, largest first. The heap is
+	 * walked from its root with a second heap of the nodes that may come
+	 * next, so only O(k) nodes are looked at.
+	 *
+	 * @param k
+	 * 			the number of keys wanted
+	 * @return int[]
+	 * 			at most k keys
+	 */
+	public int[] top(int k){
+		int[] result = new int[Math.min(k, size)];
+		if(result.length == 0)
+			return result;
+		// Heap indices of the nodes that may come next
+		int[] next = new int[2 * result.length + 1];
+		int n = 0;
+		next[n++] = 0;
+		for(int r = 0; r < result.length; r++){
+			int i = next[0];
+			next[0] = next[--n];
+			for(int j = 0, c; (c = 2 * j + 1) < n; j = c){
+				if(c + 1 < n && before(next[c + 1], next[c]))
+					c++;
+				if(!before(next[c], next[j]))
+					break;
+				swap(next, j, c);
+			}
+			result[r] = heap[i];
+			for(int c = 2 * i + 1; c <= 2 * i + 2 && c < size; c++){
+				int j = n++;
+				next[j] = c;
+				while(j > 0 && before(next[j], next[(j - 1) / 2])){
+					swap(next, j, (j - 1) / 2);
+					j = (j - 1) / 2;
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Tell if the node at heap index a comes before the one at b.
+	 */
+	private boolean before(int a, int b){
+		return counts[a] > counts[b] || (counts[a] == counts[b] && heap[a] < heap[b]);
+	}
+
+
+	/**
+	 * Put a key and its count at a heap index.
+	 */
+	private void place(int i, int key, int count){
+		heap[i] = key;
+		counts[i] = count;
+		positions[key] = i;
+	}
+
+
+	/**
+	 * Move the node at heap index i up while it comes before its parent.
+	 */
+	private void siftUp(int i){
+		while(i > 0 && before(i, (i - 1) / 2)){
+			exchange(i, (i - 1) / 2);
+			i = (i - 1) / 2;
+		}
+	}
+
+
+	/**
+	 * Move the node at heap index i down while a child comes before it.
+	 */
+	private void siftDown(int i){
+		for(int c; (c = 2 * i + 1) < size; i = c){
+			if(c + 1 < size && before(c + 1, c))
+				c++;
+			if(!before(c, i))
+				break;
+			exchange(i, c);
+		}
+	}
+
+
+	/**
+	 * Exchange two nodes of the heap.
+	 */
+	private void exchange(int a, int b){
+		int key = heap[a], count = counts[a];
+		place(a, heap[b], counts[b]);
+		place(b, key, count);
+	}
+
+
+	/**
+	 * Exchange two ints of an array.
+	 */
+	private static void swap(int[] a, int i, int j){
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
@@ -0,0 +1,206 @@
+package util;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * ImageDecoder reads an image file at (about) the size it is going to be
+ * shown, instead of decoding every pixel of the original. It uses an
+ * embedded thumbnail when the file has a big enough one, otherwise it
+ * asks the ImageReader to skip pixels with source subsampling.
+ *
+ * It can also read just a region of an image, e.g. one tile of a
+ * TilePyramid, so that a very large image is never decoded whole.
+ */
+public class ImageDecoder {
+
+	/** Largest difference in aspect ratio for an embedded thumbnail to be used */
+	private static final double aspectTolerance = 0.05;
+
+
+	/**
+	 * Read the image file so that it is at least as big as the w x h box
+	 * (keeping its aspect ratio), skipping pixels that are not needed.
+	 * The result may still be bigger than the box, the caller scales it.
+	 *
+	 * @param f
+	 * 			the image file to read
+	 * @param w
+	 * 			width of the box the image is going to be shown in
+	 * @param h
+	 * 			height of the box the image is going to be shown in
+	 * @return BufferedImage
+	 * 			the decoded image
+	 * @throws IOException
+	 * 			if the file cannot be read or is not a supported image
+	 */
+	public static BufferedImage readScaled(File f, int w, int h) throws IOException{
+		ImageInputStream input = ImageIO.createImageInputStream(f);
+		if(input == null)
+			throw new IOException("Cannot open image: " + f);
+		try{
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if(!readers.hasNext())
+				throw new IOException("Unsupported image: " + f);
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(input, false, false);
+				int srcW = reader.getWidth(0);
+				int srcH = reader.getHeight(0);
+
+				BufferedImage embedded = readEmbeddedThumbnail(reader, srcW, srcH, w, h);
+				if(embedded != null)
+					return embedded;
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				int factor = subsamplingFactor(srcW, srcH, w, h);
+				if(factor > 1)
+					param.setSourceSubsampling(factor, factor, 0, 0);
+				return reader.read(0, param);
+			}finally{
+				reader.dispose();
+			}
+		}finally{
+			input.close();
+		}
+	}
+
+
+	/**
+	 * Get the size of an image without decoding its pixels.
+	 *
+	 * @param f
+	 * 			the image file
+	 * @return Dimension
+	 * 			the width and height of the image
+	 * @throws IOException
+	 * 			if the file cannot be read or is not a supported image
+	 */
+	public static Dimension getSize(File f) throws IOException{
+		return (Dimension) read(f, null, 1, true);
+	}
+
+
+	/**
+	 * Read a region of an image, skipping pixels with source subsampling.
+	 * Only the region is kept in memory, whatever the size of the image.
+	 *
+	 * @param f
+	 * 			the image file to read
+	 * @param region
+	 * 			the region to read, in pixels of the original image
+	 * @param subsampling
+	 * 			keep one pixel out of this many in each direction
+	 * @return BufferedImage
+	 * 			the region, about region / subsampling pixels big
+	 * @throws IOException
+	 * 			if the file cannot be read or is not a supported image
+	 */
+	public static BufferedImage readRegion(File f, Rectangle region, int subsampling) throws IOException{
+		return (BufferedImage) read(f, region, subsampling, false);
+	}
+
+
+	/**
+	 * Open a reader on the image file, and read either its size or a
+	 * region of it.
+	 */
+	private static Object read(File f, Rectangle region, int subsampling,
+			boolean sizeOnly) throws IOException{
+		ImageInputStream input = ImageIO.createImageInputStream(f);
+		if(input == null)
+			throw new IOException("Cannot open image: " + f);
+		try{
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if(!readers.hasNext())
+				throw new IOException("Unsupported image: " + f);
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(input, true, true);
+				if(sizeOnly)
+					return new Dimension(reader.getWidth(0), reader.getHeight(0));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(region);
+				if(subsampling > 1)
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			}finally{
+				reader.dispose();
+			}
+		}finally{
+			input.close();
+		}
+	}
+
+
+	/**
+	 * Compute how many source pixels can be skipped in each direction
+	 * so that the image still covers the w x h box.
+	 *
+	 * @param srcW
+	 * 			width of the original image
+	 * @param srcH
+	 * 			height of the original image
+	 * @param w
+	 * 			width of the box
+	 * @param h
+	 * 			height of the box
+	 * @return int
+	 * 			the subsampling factor, 1 means read every pixel
+	 */
+	public static int subsamplingFactor(int srcW, int srcH, int w, int h){
+		double scale = Math.min(1.0 * w / srcW, 1.0 * h / srcH);
+		if(scale >= 1)
+			return 1;
+		return Math.max(1, (int) Math.floor(1 / scale));
+	}
+
+
+	/**
+	 * Read the smallest embedded thumbnail (e.g. EXIF/JFIF) that still
+	 * covers the box and has the same shape as the original.
+	 *
+	 * @param reader
+	 * 			the reader positioned on the image file
+	 * @param srcW
+	 * 			width of the original image
+	 * @param srcH
+	 * 			height of the original image
+	 * @param w
+	 * 			width of the box
+	 * @param h
+	 * 			height of the box
+	 * @return BufferedImage
+	 * 			the embedded thumbnail, or null if there is no suitable one
+	 * @throws IOException
+	 */
+	private static BufferedImage readEmbeddedThumbnail(ImageReader reader,
+			int srcW, int srcH, int w, int h) throws IOException{
+		if(!reader.readerSupportsThumbnails() || !reader.hasThumbnails(0))
+			return null;
+		double srcAspect = 1.0 * srcW / srcH;
+		int best = -1;
+		int bestArea = Integer.MAX_VALUE;
+		for(int i = 0; i < reader.getNumThumbnails(0); i++){
+			int tw = reader.getThumbnailWidth(0, i);
+			int th = reader.getThumbnailHeight(0, i);
+			double aspect = 1.0 * tw / th;
+			boolean covers = Math.min(1.0 * w / tw, 1.0 * h / th) <= 1;
+			if(covers && Math.abs(aspect - srcAspect) / srcAspect <= aspectTolerance
+					&& tw * th < bestArea){
+				best = i;
+				bestArea = tw * th;
+			}
+		}
+		return (best < 0) ? null : reader.readThumbnail(0, best);
+	}
+}
@@ -0,0 +1,126 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ImageType is a rule that tells one image format apart from other
+ * files: by its file name extensions, and by the signatures ("magic
+ * bytes") its files start with. An ImageTypeDetector holds the rules
+ * it knows; new formats are added by registering more of them.
+ *
+ * A signature is written as a String of ISO-8859-1 characters, one per
+ * byte, where '?' matches any byte, e.g. "RIFF????WEBP". Subclasses
+ * may override matches for formats a signature cannot describe.
+ */
+public class ImageType {
+
+	/** Name of the format, e.g. "jpeg" */
+	private final String name;
+
+	/** Lower case extensions of the format's files, without the dot */
+	private final String[] extensions;
+
+	/** The signatures, one int per byte, -1 for any byte */
+	private final int[][] signatures;
+
+
+	/**
+	 * Create an ImageType.
+	 *
+	 * @param name
+	 * 			name of the format
+	 * @param extensions
+	 * 			extensions of the format's files, without the dot
+	 * @param signatures
+	 * 			what the format's files start with; none if files
+	 * 			are only known by extension
+	 */
+	public ImageType(String name, String[] extensions, String... signatures){
+		this.name = name;
+		this.extensions = new String[extensions.length];
+		for(int i = 0; i < extensions.length; i++){
+			this.extensions[i] = ImageTypeDetector.lowerCase(extensions[i]);
+		}
+		this.signatures = new int[signatures.length][];
+		for(int i = 0; i < signatures.length; i++){
+			byte[] bytes = signatures[i].getBytes(StandardCharsets.ISO_8859_1);
+			int[] signature = new int[bytes.length];
+			for(int j = 0; j < bytes.length; j++){
+				signature[j] = bytes[j] == '?' ? -1 : bytes[j] & 0xFF;
+			}
+			this.signatures[i] = signature;
+		}
+	}
+
+
+	/**
+	 * Get the name of the format.
+	 *
+	 * @return String
+	 * 			the name
+	 */
+	public String getName(){
+		return name;
+	}
+
+
+	/**
+	 * Get the extensions of the format's files.
+	 *
+	 * @return String[]
+	 * 			lower case extensions, without the dot
+	 */
+	public String[] getExtensions(){
+		return extensions.clone();
+	}
+
+
+	/**
+	 * Get the number of bytes from the start of a file that matches
+	 * looks at.
+	 *
+	 * @return int
+	 * 			the length of the longest signature
+	 */
+	public int getHeaderLength(){
+		int length = 0;
+		for(int[] signature: signatures){
+			length = Math.max(length, signature.length);
+		}
+		return length;
+	}
+
+
+	/**
+	 * Tell if a file's first bytes are those of this format.
+	 *
+	 * @param head
+	 * 			the first bytes of the file, from position 0 to its
+	 * 			limit; not changed
+	 * @return boolean
+	 * 			true if a signature matches
+	 */
+	public boolean matches(ByteBuffer head){
+		for(int[] signature: signatures){
+			if(signature.length > head.limit())
+				continue;
+			int i = 0;
+			while(i < signature.length && (signature[i] < 0 || signature[i] == (head.get(i) & 0xFF)))
+				i++;
+			if(i == signature.length)
+				return true;
+		}
+		return false;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return name + " " + Arrays.toString(extensions);
+	}
+}
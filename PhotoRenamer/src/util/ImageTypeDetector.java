@@ -0,0 +1,246 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ImageTypeDetector tells if a file is an image, for scans that look
+ * at many files. Its tables are shared and built once, so classifying
+ * a file is a lookup of its extension. A file whose extension is not
+ * known is sniffed: only its first few bytes are read and compared to
+ * the signatures of the known formats, so images with a missing or
+ * wrong extension are found too. Extensions of files that are never
+ * images can be registered so such files are not opened.
+ *
+ * Formats are ImageType rules; more can be registered at any time, e.g.
+ * for camera RAW formats. Lookups do not lock: registering replaces the
+ * tables instead of changing them.
+ */
+public class ImageTypeDetector {
+
+	/** The shared instance */
+	private static ImageTypeDetector instance;
+
+	/** Formats by lower case extension */
+	private volatile Map<String, ImageType> byExtension = new HashMap<String, ImageType>();
+
+	/** Lower case extensions of files that are not images */
+	private volatile Set<String> others = new HashSet<String>();
+
+	/** Formats with signatures, in the order they were registered */
+	private volatile ImageType[] sniffed = new ImageType[0];
+
+	/** Bytes read from a file to sniff it */
+	private volatile int headerLength;
+
+	/** Whether files of unknown extension are sniffed */
+	private volatile boolean sniffing = true;
+
+	/** A buffer for the first bytes of a file, per thread */
+	private final ThreadLocal<ByteBuffer> heads = new ThreadLocal<ByteBuffer>();
+
+
+	/**
+	 * Create an ImageTypeDetector that knows no format.
+	 */
+	public ImageTypeDetector(){
+	}
+
+
+	/**
+	 * Get the shared ImageTypeDetector, which knows the common formats.
+	 *
+	 * @return ImageTypeDetector
+	 * 			the shared instance
+	 */
+	public static synchronized ImageTypeDetector getInstance(){
+		if(instance == null){
+			instance = new ImageTypeDetector();
+			instance.registerDefaults();
+		}
+		return instance;
+	}
+
+
+	/**
+	 * Register the common image formats, and extensions of common files
+	 * that are not images.
+	 */
+	public void registerDefaults(){
+		register(new ImageType("jpeg", new String[]{"jpg", "jpeg", "jpe", "jfif"}, "\u00FF\u00D8\u00FF"));
+		register(new ImageType("png", new String[]{"png"}, "\u0089PNG\r\n\u001A\n"));
+		register(new ImageType("gif", new String[]{"gif"}, "GIF87a", "GIF89a"));
+		register(new ImageType("bmp", new String[]{"bmp", "dib"}, "BM????\0\0\0\0"));
+		register(new ImageType("tiff", new String[]{"tif", "tiff"}, "II*\0", "MM\0*"));
+		register(new ImageType("webp", new String[]{"webp"}, "RIFF????WEBP"));
+		register(new ImageType("heif", new String[]{"heic", "heif", "hif"},
+				"????ftypheic", "????ftypheix", "????ftyphevc", "????ftypmif1", "????ftypmsf1"));
+		// Most RAW files start like TIFF ones, so they are known by extension
+		register(new ImageType("raw", new String[]{"dng", "cr2", "cr3", "nef", "nrw", "arw",
+				"orf", "rw2", "raf", "srw", "pef"}));
+		registerOthers("txt", "log", "pdf", "doc", "docx", "xls", "xlsx", "ppt", "pptx",
+				"htm", "html", "xml", "json", "csv", "ini", "ser", "journal", "zip", "gz",
+				"rar", "7z", "exe", "dll", "so", "class", "jar", "java", "mp3", "wav",
+				"aac", "flac", "mp4", "mov", "avi", "mkv", "wmv", "db");
+	}
+
+
+	/**
+	 * Register an image format. A format registered later wins for an
+	 * extension both have.
+	 *
+	 * @param type
+	 * 			the format
+	 */
+	public synchronized void register(ImageType type){
+		Map<String, ImageType> extensions = new HashMap<String, ImageType>(byExtension);
+		Set<String> otherExtensions = new HashSet<String>(others);
+		for(String e: type.getExtensions()){
+			extensions.put(e, type);
+			otherExtensions.remove(e);
+		}
+		if(type.getHeaderLength() > 0){
+			List<ImageType> types = new ArrayList<ImageType>(Arrays.asList(sniffed));
+			types.add(type);
+			sniffed = types.toArray(new ImageType[types.size()]);
+			headerLength = Math.max(headerLength, type.getHeaderLength());
+		}
+		byExtension = extensions;
+		others = otherExtensions;
+	}
+
+
+	/**
+	 * Register extensions of files that are never images, so that they
+	 * are not sniffed.
+	 *
+	 * @param extensions
+	 * 			the extensions, without the dot
+	 */
+	public synchronized void registerOthers(String... extensions){
+		Set<String> otherExtensions = new HashSet<String>(others);
+		for(String e: extensions){
+			e = lowerCase(e);
+			if(!byExtension.containsKey(e))
+				otherExtensions.add(e);
+		}
+		others = otherExtensions;
+	}
+
+
+	/**
+	 * Turn sniffing of files of unknown extension on or off. It is on by
+	 * default; when off, only extensions are looked at.
+	 *
+	 * @param sniffing
+	 * 			true to sniff files of unknown extension
+	 */
+	public void setSniffing(boolean sniffing){
+		this.sniffing = sniffing;
+	}
+
+
+	/**
+	 * Tell if the file is an image.
+	 *
+	 * @param f
+	 * 			the file
+	 * @return boolean
+	 * 			true if it is of a known image format
+	 */
+	public boolean isImage(File f){
+		return detect(f.toPath()) != null;
+	}
+
+
+	/**
+	 * Find the format of a file: by its extension, otherwise, if the
+	 * extension is not one of files that are never images, by its first
+	 * bytes.
+	 *
+	 * @param file
+	 * 			the file
+	 * @return ImageType
+	 * 			the format, or null if the file is not a known image
+	 */
+	public ImageType detect(Path file){
+		Path fileName = file.getFileName();
+		String extension = fileName == null ? "" : extensionOf(fileName.toString());
+		ImageType type = byExtension.get(extension);
+		if(type != null || !sniffing || others.contains(extension))
+			return type;
+		return sniff(file);
+	}
+
+
+	/**
+	 * Find the format of a file by its first bytes only.
+	 *
+	 * @param file
+	 * 			the file
+	 * @return ImageType
+	 * 			the format, or null if no signature matches or the file
+	 * 			cannot be read
+	 */
+	public ImageType sniff(Path file){
+		ImageType[] types = sniffed;
+		ByteBuffer head = heads.get();
+		if(head == null || head.capacity() < headerLength){
+			head = ByteBuffer.allocate(headerLength);
+			heads.set(head);
+		}
+		head.clear();
+		head.limit(headerLength);
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			while(head.hasRemaining() && channel.read(head) >= 0);
+		}catch(IOException e){
+			return null;
+		}
+		head.flip();
+		for(ImageType type: types){
+			if(type.matches(head))
+				return type;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Get the lower case extension of a file name.
+	 *
+	 * @param name
+	 * 			the file name
+	 * @return String
+	 * 			what follows the last dot, "" if there is none
+	 */
+	public static String extensionOf(String name){
+		int dot = name.lastIndexOf('.');
+		return dot < 0 ? "" : lowerCase(name.substring(dot + 1));
+	}
+
+
+	/**
+	 * Lower case a String of ASCII letters without a Locale, and without
+	 * copying one that is lower case already.
+	 */
+	static String lowerCase(String s){
+		for(int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			if(c >= 'A' && c <= 'Z')
+				return s.toLowerCase(Locale.ROOT);
+		}
+		return s;
+	}
+}
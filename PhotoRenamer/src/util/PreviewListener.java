@@ -0,0 +1,34 @@
+package util;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import model.Photo;
+
+/**
+ * A listener that is told when PreviewService has rendered a preview.
+ * Note that it is called on a preview thread, not on the Swing event
+ * dispatch thread.
+ */
+public interface PreviewListener {
+
+	/**
+	 * Called when the preview is ready.
+	 *
+	 * @param photo
+	 * 			the photo previewed
+	 * @param image
+	 * 			the preview, no bigger than the size asked for
+	 */
+	void previewReady(Photo photo, BufferedImage image);
+
+	/**
+	 * Called when the photo could not be read.
+	 *
+	 * @param photo
+	 * 			the photo previewed
+	 * @param e
+	 * 			the cause of the failure
+	 */
+	void previewFailed(Photo photo, IOException e);
+}
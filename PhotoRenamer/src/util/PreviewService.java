@@ -0,0 +1,342 @@
+package util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import model.Photo;
+
+/**
+ * PreviewService renders photos at the size they are shown in, e.g. the
+ * main window's preview, off the event dispatch thread. A photo is read
+ * with ImageDecoder, which skips the pixels a smaller image does not
+ * need, and scaled to fit the box, so a preview holds about as many
+ * pixels as the screen shows instead of the whole original.
+ *
+ * Previews are kept in a ThumbnailImageCache of their own, bounded by
+ * bytes, so going back to a photo shown recently is instant. They are
+ * keyed by the photo's path, file size and modification time and the
+ * size asked for, so a changed file is rendered again.
+ *
+ * Only the latest request matters when the user clicks through photos:
+ * a request that is still waiting when a newer one comes is dropped.
+ *
+ * Photos the user is likely to look at next, e.g. the neighbors of the
+ * one shown, can be prefetched: their previews are rendered ahead of
+ * time on a pool of low priority threads. A new prefetch cancels the
+ * prefetches still waiting. A request for a preview that is being
+ * prefetched waits for it instead of rendering it again.
+ */
+public class PreviewService {
+
+	/** Default memory budget for previews, in bytes */
+	public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	/** Logger instance for logging use */
+	private static final Logger logger =
+			Logger.getLogger(PreviewService.class.getName());
+
+	/** Singleton instance */
+	private static PreviewService instance = null;
+
+	/** The rendered previews */
+	private ThumbnailImageCache previews;
+
+	/** The executor that renders previews */
+	private ThreadPoolExecutor executor;
+
+	/** Number of the latest request */
+	private AtomicLong latest = new AtomicLong();
+
+	/** The executor that prefetches previews */
+	private ThreadPoolExecutor prefetcher;
+
+	/** Number of the latest prefetch; older ones are cancelled */
+	private AtomicLong latestPrefetch = new AtomicLong();
+
+	/** Previews being rendered, by key */
+	private ConcurrentHashMap<String, FutureTask<BufferedImage>> rendering =
+			new ConcurrentHashMap<String, FutureTask<BufferedImage>>();
+
+
+	/**
+	 * Create a PreviewService.
+	 *
+	 * @param threads
+	 * 			number of threads rendering previews
+	 * @param budget
+	 * 			largest number of bytes of previews kept
+	 */
+	public PreviewService(int threads, long budget){
+		previews = new ThumbnailImageCache(budget);
+		executor = new ThreadPoolExecutor(threads, threads,
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new PreviewThreadFactory("preview-", Thread.NORM_PRIORITY));
+		prefetcher = new ThreadPoolExecutor(threads, threads,
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new PreviewThreadFactory("prefetch-", Thread.MIN_PRIORITY));
+	}
+
+
+	/**
+	 * Get the service shared by the whole application.
+	 *
+	 * @return PreviewService
+	 * 			the shared service
+	 */
+	public static synchronized PreviewService getInstance(){
+		if(instance == null)
+			instance = new PreviewService(1, DEFAULT_BUDGET);
+		return instance;
+	}
+
+
+	/**
+	 * Get the cache key of a photo's preview.
+	 *
+	 * @param photo
+	 * 			the photo
+	 * @param w
+	 * 			width of the box it is shown in
+	 * @param h
+	 * 			height of the box it is shown in
+	 * @return String
+	 * 			the key
+	 */
+	public static String keyFor(Photo photo, int w, int h){
+		return photo.getPath() + "|" + photo.getFileSize() + "|"
+				+ photo.getLastModified() + "|" + w + "x" + h;
+	}
+
+
+	/**
+	 * Get a photo's preview if it has been rendered already.
+	 * This never reads the photo, so it is safe to call on the event
+	 * dispatch thread.
+	 *
+	 * @param photo
+	 * 			the photo
+	 * @param w
+	 * 			width of the box it is shown in
+	 * @param h
+	 * 			height of the box it is shown in
+	 * @return BufferedImage
+	 * 			the preview, or null if it is not cached
+	 */
+	public BufferedImage getCached(Photo photo, int w, int h){
+		return previews.get(keyFor(photo, w, h));
+	}
+
+
+	/**
+	 * Render a photo's preview in background and tell the listener.
+	 * Requests made before that are still waiting are dropped.
+	 *
+	 * @param photo
+	 * 			the photo
+	 * @param w
+	 * 			width of the box it is shown in
+	 * @param h
+	 * 			height of the box it is shown in
+	 * @param listener
+	 * 			told when the preview is ready
+	 */
+	public void request(final Photo photo, final int w, final int h, final PreviewListener listener){
+		final long ticket = latest.incrementAndGet();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(ticket != latest.get())
+					return;
+				try {
+					BufferedImage image = getPreview(photo, w, h);
+					listener.previewReady(photo, image);
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Cannot preview " + photo.getPath(), e);
+					listener.previewFailed(photo, e);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Render the previews of the given photos ahead of time, in order,
+	 * on low priority threads. Prefetches still waiting are cancelled
+	 * first, so the photos should be the ones the user is now most
+	 * likely to look at, nearest first.
+	 *
+	 * @param photos
+	 * 			the photos to prefetch
+	 * @param w
+	 * 			width of the box they are going to be shown in
+	 * @param h
+	 * 			height of the box they are going to be shown in
+	 */
+	public void prefetch(List<Photo> photos, final int w, final int h){
+		final long ticket = cancelPrefetch();
+		for(final Photo photo: photos){
+			if(getCached(photo, w, h) != null)
+				continue;
+			prefetcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					if(ticket != latestPrefetch.get())
+						return;
+					try {
+						getPreview(photo, w, h);
+					} catch (IOException e) {
+						// Not an error until the photo is asked for
+					}
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Cancel the prefetches that are still waiting, e.g. because the
+	 * user moved on. A preview being rendered is still finished and cached.
+	 *
+	 * @return long
+	 * 			the number of the prefetches that may run from now on
+	 */
+	public long cancelPrefetch(){
+		long ticket = latestPrefetch.incrementAndGet();
+		prefetcher.getQueue().clear();
+		return ticket;
+	}
+
+
+	/**
+	 * Get a photo's preview, rendering it on this thread if it is not
+	 * cached. If another thread is rendering it, its result is waited for.
+	 *
+	 * @param photo
+	 * 			the photo
+	 * @param w
+	 * 			width of the box it is shown in
+	 * @param h
+	 * 			height of the box it is shown in
+	 * @return BufferedImage
+	 * 			the preview
+	 * @throws IOException
+	 * 			if the photo cannot be read
+	 */
+	public BufferedImage getPreview(final Photo photo, final int w, final int h) throws IOException{
+		final String key = keyFor(photo, w, h);
+		BufferedImage image = previews.get(key);
+		if(image != null)
+			return image;
+		FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws IOException {
+				BufferedImage rendered = render(ImageDecoder.readScaled(photo.getFile(), w, h), w, h);
+				previews.put(key, rendered);
+				return rendered;
+			}
+		});
+		FutureTask<BufferedImage> running = rendering.putIfAbsent(key, task);
+		if(running == null){
+			running = task;
+			try{
+				task.run();
+			}finally{
+				rendering.remove(key, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for " + photo.getPath());
+		}
+	}
+
+
+	/**
+	 * Scale an image down to fit the w x h box, keeping its aspect
+	 * ratio. An image that fits already is returned as it is.
+	 *
+	 * @param in
+	 * 			the decoded image
+	 * @param w
+	 * 			width of the box
+	 * @param h
+	 * 			height of the box
+	 * @return BufferedImage
+	 * 			the image fitting the box
+	 */
+	public static BufferedImage render(BufferedImage in, int w, int h){
+		double scale = Math.min(1.0 * w / in.getWidth(), 1.0 * h / in.getHeight());
+		if(scale >= 1)
+			return in;
+		int outW = Math.max(1, (int) Math.round(in.getWidth() * scale));
+		int outH = Math.max(1, (int) Math.round(in.getHeight() * scale));
+		BufferedImage out = new BufferedImage(outW, outH, in.getColorModel().hasAlpha()
+				? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = out.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2.drawImage(in, 0, 0, outW, outH, null);
+		g2.dispose();
+		return out;
+	}
+
+
+	/**
+	 * Makes daemon threads, so that previews never keep the application
+	 * alive.
+	 */
+	private static class PreviewThreadFactory implements ThreadFactory {
+
+		/** Counter for naming threads */
+		private AtomicInteger count = new AtomicInteger();
+
+		/** Prefix of the threads' names */
+		private String prefix;
+
+		/** Priority of the threads */
+		private int priority;
+
+		/**
+		 * Create a PreviewThreadFactory.
+		 *
+		 * @param prefix
+		 * 			prefix of the threads' names
+		 * @param priority
+		 * 			priority of the threads
+		 */
+		private PreviewThreadFactory(String prefix, int priority){
+			this.prefix = prefix;
+			this.priority = priority;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(priority);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package util;
+
+/**
+ * StringIntMap maps strings to non-negative ints without boxing them:
+ * keys and values are kept in two parallel arrays using open addressing
+ * with linear probing, so an entry costs one reference and one int.
+ *
+ * A StringIntMap is not thread safe.
+ */
+public class StringIntMap {
+
+	/** The value get returns for a key that is not in the map */
+	public static final int MISSING = -1;
+
+	/** The keys, null for a free slot */
+	private String[] keys;
+
+	/** The value of the key in the same slot */
+	private int[] values;
+
+	/** Number of keys */
+	private int size;
+
+
+	/**
+	 * Create an empty StringIntMap.
+	 */
+	public StringIntMap(){
+		keys = new String[16];
+		values = new int[16];
+	}
+
+
+	/**
+	 * Get the value of a key.
+	 *
+	 * @param key
+	 * 			the key
+	 * @return int
+	 * 			the value, or MISSING if the key is not in the map
+	 */
+	public int get(String key){
+		int mask = keys.length - 1;
+		for(int i = slot(key, mask); keys[i] != null; i = (i + 1) & mask){
+			if(keys[i].equals(key))
+				return values[i];
+		}
+		return MISSING;
+	}
+
+
+	/**
+	 * Set the value of a key.
+	 *
+	 * @param key
+	 * 			the key
+	 * @param value
+	 * 			a non-negative value
+	 */
+	public void put(String key, int value){
+		if((size + 1) * 2 > keys.length)
+			resize(keys.length * 2);
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while(keys[i] != null){
+			if(keys[i].equals(key)){
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+
+
+	/**
+	 * Remove a key.
+	 *
+	 * @param key
+	 * 			the key
+	 * @return int
+	 * 			its value, or MISSING if the key was not in the map
+	 */
+	public int remove(String key){
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while(keys[i] != null && !keys[i].equals(key)){
+			i = (i + 1) & mask;
+		}
+		if(keys[i] == null)
+			return MISSING;
+		int value = values[i];
+
+		// Move later keys of the same run back, so no search stops early
+		int free = i;
+		for(int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask){
+			int home = slot(keys[j], mask);
+			if(((j - home) & mask) >= ((j - free) & mask)){
+				keys[free] = keys[j];
+				values[free] = values[j];
+				free = j;
+			}
+		}
+		keys[free] = null;
+		size--;
+		return value;
+	}
+
+
+	/**
+	 * Get the number of keys.
+	 *
+	 * @return int
+	 * 			the number of keys
+	 */
+	public int size(){
+		return size;
+	}
+
+
+	/**
+	 * Get all values.
+	 *
+	 * @return int[]
+	 * 			the values, in no particular order
+	 */
+	public int[] values(){
+		int[] result = new int[size];
+		int n = 0;
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] != null)
+				result[n++] = values[i];
+		}
+		return result;
+	}
+
+
+	/**
+	 * Get the slot a key is first looked for in.
+	 */
+	private static int slot(String key, int mask){
+		int h = key.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+
+	/**
+	 * Move all keys to arrays of the given length.
+	 */
+	private void resize(int length){
+		String[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new String[length];
+		values = new int[length];
+		size = 0;
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] != null)
+				put(oldKeys[i], oldValues[i]);
+		}
+	}
+}
@@ -7,18 +7,14 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-
-import javax.imageio.ImageIO;
 
 import model.Photo;
 
 /**
  * Create a thumbnail (small) image from a full image. The thumbnail will be
- * written to a specified directory. A future modification could be to save the
- * thumbnail in memory.
+ * encoded in the current ThumbnailFormat, whatever the photo's format, and 
+ * added to the ThumbnailStore under the source file's ThumbnailCache key. 
+ * Images read back are kept in ThumbnailImageCache.
  * 
  */
 
@@ -27,24 +23,25 @@ public class Thumbnail implements Serializable{
 	/** Auto-generated ser ID */
 	private static final long serialVersionUID = -6264726831222761443L;
 	
-	/** this thumbnail's file path */
+	/** where this thumbnail is stored, its key in ThumbnailStore */
 	private String path;
 	
+	/** the ThumbnailCache key of the source file when the thumbnail was written */
+	private String key;
+	
 	/** this thumbnail's corresponding photo */
 	private Photo photo;
 	
 	/**
-	 * Create a thumbnail object
+	 * Create a thumbnail object. The thumbnail image is not written
+	 * yet, it is pending until generate() is called (usually by
+	 * ThumbnailPipeline in background).
 	 * 
-	 * @param f
-	 * 			the photo file that needs a thumbnail
 	 * @param photo
 	 * 			this thumbnail's corresponding photo object
-	 * @throws IOException
 	 */
-	public Thumbnail(File f, Photo photo) throws IOException{
+	public Thumbnail(Photo photo){
 		this.photo = photo;
-		writeThumb(f);
 	}
 		
 	
@@ -107,6 +104,28 @@ public class Thumbnail implements Serializable{
 		this.path = path;
 	}
 	
+	/**
+	 * Get the ThumbnailCache key of the source file 
+	 * when this thumbnail was written
+	 * 
+	 * @return the key, null if not written yet
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	
+	
+	/**
+	 * Set the ThumbnailCache key of the source file, 
+	 * e.g. when restoring a saved thumbnail
+	 * 
+	 * @param key the key to set
+	 */
+	public void setKey(String key) {
+		this.key = key;
+	}
+	
 	/**
 	 * Get this thumbnail's corresponding photo
 	 * 
@@ -128,14 +147,86 @@ public class Thumbnail implements Serializable{
 
 	
 	/**
-	 * Read thumbnail file into memory
+	 * Check if the thumbnail file has been written.
+	 * 
+	 * @return boolean
+	 * 			true if thumbnail is ready to read, false if still pending
+	 */
+	public boolean isReady(){
+		return path != null;
+	}
+	
+	
+	/**
+	 * Check if the thumbnail file still matches the photo's file,
+	 * i.e. the photo has not changed since the thumbnail was written.
+	 * 
+	 * @return boolean
+	 * 			true if thumbnail is up to date
+	 * @throws IOException
+	 */
+	public boolean isValid() throws IOException{
+		return isReady() && key != null 
+				&& key.equals(ThumbnailCache.keyFor(photo.getFile(), 
+						ThumbnailFormat.getInstance().getVariant()))
+				&& ThumbnailStore.getInstance().contains(key);
+	}
+	
+	
+	/**
+	 * Write the thumbnail file for this thumbnail's photo,
+	 * if it has not been written yet or is out of date.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void generate() throws IOException{
+		if(!isValid()){
+			writeThumb(photo.getFile());
+		}
+	}
+	
+	
+	/**
+	 * Drop the thumbnail file and its cached image, e.g. because the
+	 * photo is gone or its file has changed. It is pending again after.
+	 */
+	public synchronized void invalidate(){
+		if(isReady())
+			ThumbnailImageCache.getInstance().remove(path);
+		if(key != null){
+			try {
+				ThumbnailStore.getInstance().remove(key);
+			} catch (IOException e) {
+				// An outdated thumbnail that cannot be removed is just wasted space
+			}
+		}
+		path = null;
+		key = null;
+	}
+	
+	
+	/**
+	 * Read thumbnail file into memory. A pending thumbnail is
+	 * generated first. Images are kept in ThumbnailImageCache, so
+	 * reading the same thumbnail again does not touch the disk.
 	 * 
 	 * @return result
 	 * 			the BufferedImage of thumbnail file
 	 * @throws IOException
 	 */
 	public BufferedImage readThumbImage() throws IOException{
-		BufferedImage result = ImageIO.read(new File(this.path));
+		ThumbnailImageCache cache = ThumbnailImageCache.getInstance();
+		if(isReady()){
+			BufferedImage cached = cache.get(this.path);
+			if(cached != null)
+				return cached;
+		}
+		generate();
+		byte[] bytes = ThumbnailStore.getInstance().get(key);
+		BufferedImage result = (bytes == null) ? null 
+				: ThumbnailFormat.decode(bytes);
+		if(result != null)
+			cache.put(this.path, result);
 		return result;
 	}
 	
@@ -179,7 +270,10 @@ public class Thumbnail implements Serializable{
 	//Taken from StackOverflow
 	//Url: http://stackoverflow.com/questions/30731045/generate-thumbnail-in-java
 	/**
-	 * Write the image file f's thumbnail to hard drive.
+	 * Write the image file f's thumbnail to the ThumbnailStore, in the
+	 * current ThumbnailFormat. Only the pixels needed for the thumbnail 
+	 * are decoded (see ImageDecoder). If the store already has a thumbnail
+	 * for this exact file, it is reused and nothing is decoded.
 	 * 
 	 * @param f
 	 * 			the image file that need a thumbnail
@@ -187,18 +281,25 @@ public class Thumbnail implements Serializable{
 	 * @throws IOException
 	 */
 	public void writeThumb(File f) throws IOException{
-		String in = f.getAbsolutePath();
-		String name = f.getName();
-		String extension = in.substring(in.lastIndexOf(".")+1);
-		name = name.replaceAll(extension, "");
-		new File("thumbnails").mkdir();
-        BufferedImage bi = createThumb(
-        		ImageIO.read(Files.newInputStream(Paths.get(in))), 128, 128);
-
-
-        Path out = Paths.get("thumbnails/" + name + "_thumb." + extension);
-
-        setPath(out.toString());
-        ImageIO.write(bi, extension, Files.newOutputStream(out));
+		ThumbnailFormat format = ThumbnailFormat.getInstance();
+		int size = format.getSize();
+		String newKey = ThumbnailCache.keyFor(f, format.getVariant());
+		ThumbnailStore store = ThumbnailStore.getInstance();
+		
+		if(!store.contains(newKey)){
+	        BufferedImage bi = createThumb(
+	        		ImageDecoder.readScaled(f, size, size), size, size);
+	
+	        store.put(newKey, format.encode(bi));
+		}
+		
+		// Source has changed since last time, old thumbnail is outdated
+		if(path != null && key != null && !key.equals(newKey)){
+			store.remove(key);
+			ThumbnailImageCache.getInstance().remove(path);
+		}
+		
+		key = newKey;
+        setPath(newKey);
 		}
 	}
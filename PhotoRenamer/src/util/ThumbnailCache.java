@@ -0,0 +1,101 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * ThumbnailCache keys thumbnails by a hash of the source file's
+ * identity, size and modification time, so that a thumbnail can be reused
+ * across sessions and is never mixed up between two photos with the same
+ * filename. When the source changes, its key changes and the old
+ * thumbnail is no longer used. The thumbnails themselves are packed
+ * into a ThumbnailStore in the cache directory.
+ *
+ * The identity is the file key (inode) when the file system has one,
+ * otherwise the absolute path. Using the file key means renaming a photo
+ * (which tagging does all the time) keeps its thumbnail.
+ */
+public class ThumbnailCache {
+
+	/** Directory that holds the ThumbnailStore */
+	public static final String cacheDir = "thumbnails";
+
+
+	/**
+	 * Compute the cache key of the given source image file.
+	 *
+	 * @param f
+	 * 			the source image file
+	 * @return String
+	 * 			the hex string key
+	 * @throws IOException
+	 * 			if the file attributes cannot be read
+	 */
+	public static String keyFor(File f) throws IOException{
+		BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		Object fileKey = attrs.fileKey();
+		String identity = (fileKey != null) ? fileKey.toString() : f.getAbsolutePath();
+		String source = identity + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+		return toHex(digest(source));
+	}
+
+
+	/**
+	 * Compute the cache key of the given source image file's thumbnail in
+	 * a given variant, e.g. a ThumbnailFormat's, so that thumbnails of one
+	 * file in two variants get different keys.
+	 *
+	 * @param f
+	 * 			the source image file
+	 * @param variant
+	 * 			what tells this thumbnail from the file's others
+	 * @return String
+	 * 			the hex string key
+	 * @throws IOException
+	 * 			if the file attributes cannot be read
+	 */
+	public static String keyFor(File f, String variant) throws IOException{
+		return toHex(digest(keyFor(f) + "|" + variant));
+	}
+
+
+	/**
+	 * Hash the given string with SHA-1.
+	 *
+	 * @param s
+	 * 			the string to hash
+	 * @return byte[]
+	 * 			the hash
+	 */
+	private static byte[] digest(String s){
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Convert bytes to a lower case hex string.
+	 *
+	 * @param bytes
+	 * 			the bytes to convert
+	 * @return String
+	 * 			the hex string
+	 */
+	private static String toHex(byte[] bytes){
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for(byte b: bytes){
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,244 @@
+package util;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * ThumbnailFormat decides how thumbnails are encoded, whatever the format
+ * of the photo: they are at most size x size pixels, and are either
+ * baseline JPEG at a given quality, small and quick to decode, or raw
+ * pre-scaled BGR pixels, bigger but copied straight into an image
+ * without decoding. Either way, showing a thumbnail costs about the
+ * same for every photo.
+ *
+ * Raw thumbnails start with RAW_MAGIC, so decode() tells them apart from
+ * encoded images, including thumbnails written before this format.
+ * The format's variant is part of the thumbnails' keys, so changing it
+ * makes thumbnails be written again.
+ */
+public class ThumbnailFormat {
+
+	/** Default largest width and height of a thumbnail */
+	public static final int DEFAULT_SIZE = 128;
+
+	/** Default JPEG quality, from 0 to 1 */
+	public static final float DEFAULT_QUALITY = 0.85f;
+
+	/** First bytes of a raw thumbnail */
+	private static final byte[] RAW_MAGIC = {'R', 'G', 'B', 0};
+
+	/** Size of a raw thumbnail's header: magic, width and height */
+	private static final int RAW_HEADER = RAW_MAGIC.length + 4 + 4;
+
+	/** Format used for new thumbnails */
+	private static volatile ThumbnailFormat instance =
+			new ThumbnailFormat(DEFAULT_SIZE, DEFAULT_QUALITY, false);
+
+	/** Largest width and height */
+	private int size;
+
+	/** JPEG quality, from 0 to 1 */
+	private float quality;
+
+	/** Whether pixels are stored raw instead of JPEG */
+	private boolean raw;
+
+
+	/**
+	 * Create a ThumbnailFormat.
+	 *
+	 * @param size
+	 * 			largest width and height of a thumbnail
+	 * @param quality
+	 * 			JPEG quality, from 0 to 1; not used for raw thumbnails
+	 * @param raw
+	 * 			true to store raw pixels instead of JPEG
+	 */
+	public ThumbnailFormat(int size, float quality, boolean raw){
+		if(size <= 0)
+			throw new IllegalArgumentException("Size must be positive: " + size);
+		if(quality < 0 || quality > 1)
+			throw new IllegalArgumentException("Quality must be from 0 to 1: " + quality);
+		this.size = size;
+		this.quality = quality;
+		this.raw = raw;
+	}
+
+
+	/**
+	 * Get the format used for new thumbnails.
+	 *
+	 * @return ThumbnailFormat
+	 * 			the format
+	 */
+	public static ThumbnailFormat getInstance(){
+		return instance;
+	}
+
+
+	/**
+	 * Set the format used for new thumbnails. Thumbnails written in
+	 * another format are written again when next generated.
+	 *
+	 * @param format
+	 * 			the format
+	 */
+	public static void setInstance(ThumbnailFormat format){
+		instance = format;
+	}
+
+
+	/**
+	 * Get the largest width and height of a thumbnail.
+	 *
+	 * @return int
+	 * 			the size in pixels
+	 */
+	public int getSize(){
+		return size;
+	}
+
+
+	/**
+	 * Get the JPEG quality.
+	 *
+	 * @return float
+	 * 			the quality, from 0 to 1
+	 */
+	public float getQuality(){
+		return quality;
+	}
+
+
+	/**
+	 * Tell if pixels are stored raw instead of JPEG.
+	 *
+	 * @return boolean
+	 * 			true for raw pixels
+	 */
+	public boolean isRaw(){
+		return raw;
+	}
+
+
+	/**
+	 * Get what tells thumbnails of this format from others, for their keys.
+	 *
+	 * @return String
+	 * 			e.g. "jpeg:128:0.85" or "raw:128"
+	 */
+	public String getVariant(){
+		return raw ? "raw:" + size : "jpeg:" + size + ":" + quality;
+	}
+
+
+	/**
+	 * Encode a thumbnail in this format.
+	 *
+	 * @param image
+	 * 			the thumbnail, at most getSize() pixels wide and high
+	 * @return byte[]
+	 * 			the encoded thumbnail
+	 * @throws IOException
+	 * 			if there is no JPEG writer
+	 */
+	public byte[] encode(BufferedImage image) throws IOException{
+		return raw ? encodeRaw(image) : encodeJpeg(image);
+	}
+
+
+	/**
+	 * Decode a thumbnail, raw or encoded in any format ImageIO reads.
+	 *
+	 * @param bytes
+	 * 			the thumbnail's bytes
+	 * @return BufferedImage
+	 * 			the thumbnail
+	 * @throws IOException
+	 * 			if the bytes are not a thumbnail
+	 */
+	public static BufferedImage decode(byte[] bytes) throws IOException{
+		if(bytes.length < RAW_HEADER
+				|| !Arrays.equals(RAW_MAGIC, Arrays.copyOf(bytes, RAW_MAGIC.length))){
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+			if(image == null)
+				throw new IOException("Not a thumbnail");
+			return image;
+		}
+		ByteBuffer header = ByteBuffer.wrap(bytes, RAW_MAGIC.length, 8);
+		int w = header.getInt();
+		int h = header.getInt();
+		if(w <= 0 || h <= 0 || bytes.length != RAW_HEADER + 3L * w * h)
+			throw new IOException("Truncated raw thumbnail");
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+		image.getRaster().setDataElements(0, 0, w, h,
+				Arrays.copyOfRange(bytes, RAW_HEADER, bytes.length));
+		return image;
+	}
+
+
+	/**
+	 * Write the pixels as they are, after a header with the size.
+	 */
+	private static byte[] encodeRaw(BufferedImage image){
+		BufferedImage bgr = convert(image, BufferedImage.TYPE_3BYTE_BGR);
+		int w = bgr.getWidth();
+		int h = bgr.getHeight();
+		byte[] pixels = (byte[]) bgr.getRaster().getDataElements(0, 0, w, h, null);
+		ByteBuffer out = ByteBuffer.allocate(RAW_HEADER + pixels.length);
+		out.put(RAW_MAGIC);
+		out.putInt(w);
+		out.putInt(h);
+		out.put(pixels);
+		return out.array();
+	}
+
+
+	/**
+	 * Write the image as baseline JPEG at this format's quality.
+	 */
+	private byte[] encodeJpeg(BufferedImage image) throws IOException{
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		if(!writers.hasNext())
+			throw new IOException("No JPEG writer");
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(ImageOutputStream ios = ImageIO.createImageOutputStream(out)){
+			writer.setOutput(ios);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			// JPEG has no alpha
+			writer.write(null, new IIOImage(convert(image, BufferedImage.TYPE_INT_RGB), null, null), param);
+		}finally{
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+
+
+	/**
+	 * Get the image in the given type, drawing it into a new one if needed.
+	 */
+	private static BufferedImage convert(BufferedImage in, int type){
+		if(in.getType() == type)
+			return in;
+		BufferedImage out = new BufferedImage(in.getWidth(), in.getHeight(), type);
+		Graphics2D g2 = out.createGraphics();
+		g2.drawImage(in, 0, 0, null);
+		g2.dispose();
+		return out;
+	}
+}
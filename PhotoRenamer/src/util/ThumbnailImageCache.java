@@ -0,0 +1,139 @@
+package util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ThumbnailImageCache keeps decoded thumbnail images in memory so that
+ * redrawing the thumbnail grid does not read them from disk again.
+ * It is bounded by the total number of bytes of the images it holds;
+ * when the budget is exceeded the least recently used images are evicted.
+ *
+ * Images are keyed by thumbnail file path. Since thumbnail files are named
+ * by ThumbnailCache key, a changed photo gets a new path and never sees
+ * its outdated image.
+ */
+public class ThumbnailImageCache {
+
+	/** Default memory budget, in bytes */
+	public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	/** Singleton instance */
+	private static ThumbnailImageCache instance = null;
+
+	/** Images in least to most recently used order */
+	private LinkedHashMap<String, BufferedImage> images;
+
+	/** Largest number of bytes this cache may hold */
+	private long budget;
+
+	/** Number of bytes this cache holds now */
+	private long size;
+
+
+	/**
+	 * Create a ThumbnailImageCache with the given memory budget.
+	 *
+	 * @param budget
+	 * 			largest number of bytes the cache may hold
+	 */
+	public ThumbnailImageCache(long budget){
+		this.budget = budget;
+		images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+	}
+
+
+	/**
+	 * Get the cache shared by the whole application.
+	 *
+	 * @return ThumbnailImageCache
+	 * 			the shared cache
+	 */
+	public static synchronized ThumbnailImageCache getInstance(){
+		if(instance == null)
+			instance = new ThumbnailImageCache(DEFAULT_BUDGET);
+		return instance;
+	}
+
+
+	/**
+	 * Get the image of the thumbnail at the given path.
+	 *
+	 * @param path
+	 * 			the thumbnail file path
+	 * @return BufferedImage
+	 * 			the cached image, or null if it is not cached
+	 */
+	public synchronized BufferedImage get(String path){
+		return images.get(path);
+	}
+
+
+	/**
+	 * Cache the image of the thumbnail at the given path, evicting
+	 * least recently used images if the budget is exceeded.
+	 *
+	 * @param path
+	 * 			the thumbnail file path
+	 * @param image
+	 * 			the decoded image
+	 */
+	public synchronized void put(String path, BufferedImage image){
+		BufferedImage old = images.put(path, image);
+		if(old != null)
+			size -= sizeOf(old);
+		size += sizeOf(image);
+
+		Iterator<Map.Entry<String, BufferedImage>> it = images.entrySet().iterator();
+		while(size > budget && it.hasNext()){
+			Map.Entry<String, BufferedImage> eldest = it.next();
+			// Always keep the image that was just added
+			if(eldest.getKey().equals(path))
+				continue;
+			size -= sizeOf(eldest.getValue());
+			it.remove();
+		}
+	}
+
+
+	/**
+	 * Remove the image of the thumbnail at the given path.
+	 *
+	 * @param path
+	 * 			the thumbnail file path
+	 */
+	public synchronized void remove(String path){
+		BufferedImage old = images.remove(path);
+		if(old != null)
+			size -= sizeOf(old);
+	}
+
+
+	/**
+	 * Get number of bytes this cache holds.
+	 *
+	 * @return long
+	 * 			bytes of cached images
+	 */
+	public synchronized long getSize(){
+		return size;
+	}
+
+
+	/**
+	 * Estimate how many bytes an image takes in memory.
+	 *
+	 * @param image
+	 * 			the image
+	 * @return long
+	 * 			number of bytes of the image's pixel data
+	 */
+	private static long sizeOf(BufferedImage image){
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		long elementSize = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		return (long) buffer.getSize() * buffer.getNumBanks() * Math.max(1, elementSize);
+	}
+}
@@ -0,0 +1,29 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * A listener that is told when ThumbnailPipeline finishes
+ * a thumbnail. Note that it is called on a pipeline thread,
+ * not on the Swing event dispatch thread.
+ */
+public interface ThumbnailListener {
+
+	/**
+	 * Called when the thumbnail has been written and is ready to read.
+	 *
+	 * @param thumb
+	 * 			the thumbnail that is ready
+	 */
+	void thumbnailReady(Thumbnail thumb);
+
+	/**
+	 * Called when the thumbnail could not be written.
+	 *
+	 * @param thumb
+	 * 			the thumbnail that failed
+	 * @param e
+	 * 			the cause of the failure
+	 */
+	void thumbnailFailed(Thumbnail thumb, IOException e);
+}
@@ -0,0 +1,196 @@
+package util;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ThumbnailPipeline generates pending thumbnails in background, so that
+ * a photo can be registered right away without paying the image decoding
+ * cost. Background work is bounded: when the queue is full the submitting
+ * thread generates the thumbnail itself, which slows the producer down
+ * instead of letting the queue grow without limit.
+ *
+ * Thumbnails the user is waiting for (e.g. cells in view) are requested
+ * with submitFirst. They go to the front of the queue, ahead of background
+ * work, and never run on the calling thread.
+ */
+public class ThumbnailPipeline {
+
+	/** Default number of queued thumbnails before the producer is slowed down */
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	/** Logger instance for logging use */
+	private static final Logger logger =
+			Logger.getLogger(ThumbnailPipeline.class.getName());
+
+	/** Singleton instance */
+	private static ThumbnailPipeline instance = null;
+
+	/** The executor that runs thumbnail jobs */
+	private ThreadPoolExecutor executor;
+
+	/** The executor's queue, front is taken first */
+	private LinkedBlockingDeque<Runnable> queue;
+
+	/** Number of background jobs that can wait in the queue */
+	private int capacity;
+
+
+	/**
+	 * Create a ThumbnailPipeline.
+	 *
+	 * @param threads
+	 * 			number of threads generating thumbnails
+	 * @param capacity
+	 * 			number of background jobs that can wait in the queue
+	 */
+	public ThumbnailPipeline(int threads, int capacity){
+		this.capacity = capacity;
+		queue = new LinkedBlockingDeque<Runnable>();
+		executor = new ThreadPoolExecutor(threads, threads,
+				0L, TimeUnit.MILLISECONDS, queue,
+				new PipelineThreadFactory());
+		// Workers must be running, as submitFirst puts jobs straight in the queue
+		executor.prestartAllCoreThreads();
+	}
+
+
+	/**
+	 * Get the pipeline shared by the whole application.
+	 *
+	 * @return ThumbnailPipeline
+	 * 			the shared pipeline
+	 */
+	public static synchronized ThumbnailPipeline getInstance(){
+		if(instance == null)
+			instance = new ThumbnailPipeline(
+					Runtime.getRuntime().availableProcessors(),
+					DEFAULT_QUEUE_CAPACITY);
+		return instance;
+	}
+
+
+	/**
+	 * Generate the given thumbnail in background. If the queue is full,
+	 * the thumbnail is generated on this thread instead.
+	 * Nothing is done for a ready thumbnail without listener.
+	 *
+	 * @param thumb
+	 * 			the thumbnail to generate
+	 * @param listener
+	 * 			told when the thumbnail is done, may be null
+	 */
+	public void submit(Thumbnail thumb, ThumbnailListener listener){
+		if(thumb.isReady() && listener == null)
+			return;
+		Runnable job = new Job(thumb, listener);
+		if(queue.size() >= capacity)
+			job.run();
+		else
+			executor.execute(job);
+	}
+
+
+	/**
+	 * Generate the given thumbnail before any background work.
+	 * This never blocks nor runs the job on the calling thread, so it is
+	 * safe to call on the event dispatch thread.
+	 *
+	 * @param thumb
+	 * 			the thumbnail to generate
+	 * @param listener
+	 * 			told when the thumbnail is done, may be null
+	 */
+	public void submitFirst(Thumbnail thumb, ThumbnailListener listener){
+		queue.offerFirst(new Job(thumb, listener));
+	}
+
+
+	/**
+	 * Get number of thumbnails waiting in the queue.
+	 *
+	 * @return int
+	 * 			number of queued thumbnails
+	 */
+	public int getPending(){
+		return queue.size();
+	}
+
+
+	/**
+	 * Stop accepting thumbnails and wait for queued ones to finish.
+	 *
+	 * @param timeout
+	 * 			longest time to wait, in milliseconds
+	 * @throws InterruptedException
+	 */
+	public void shutdown(long timeout) throws InterruptedException{
+		executor.shutdown();
+		executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * A job that generates one thumbnail and tells its listener.
+	 */
+	private static class Job implements Runnable {
+
+		/** The thumbnail to generate */
+		private Thumbnail thumb;
+
+		/** Told when the thumbnail is done, may be null */
+		private ThumbnailListener listener;
+
+		/**
+		 * Create a Job.
+		 *
+		 * @param thumb
+		 * 			the thumbnail to generate
+		 * @param listener
+		 * 			told when the thumbnail is done, may be null
+		 */
+		private Job(Thumbnail thumb, ThumbnailListener listener){
+			this.thumb = thumb;
+			this.listener = listener;
+		}
+
+		@Override
+		public void run() {
+			try {
+				thumb.generate();
+				if(listener != null)
+					listener.thumbnailReady(thumb);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot write thumbnail for "
+						+ thumb.getPhoto().getPath(), e);
+				if(listener != null)
+					listener.thumbnailFailed(thumb, e);
+			}
+		}
+	}
+
+
+	/**
+	 * Makes daemon threads with low priority, so that thumbnail
+	 * generation never keeps the application alive nor starves the GUI.
+	 */
+	private static class PipelineThreadFactory implements ThreadFactory {
+
+		/** Counter for naming threads */
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "thumbnail-" + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	}
+}
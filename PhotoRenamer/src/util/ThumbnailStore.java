@@ -0,0 +1,676 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ThumbnailStore packs all thumbnails into one append-only data file,
+ * instead of one small file per photo. An index file beside it lists,
+ * for each ThumbnailCache key, where its thumbnail is in the data file;
+ * it is read into memory when the store is opened, and appended to as
+ * thumbnails are added or removed.
+ *
+ * The data file is read through memory mapping, in segments of
+ * SEGMENT_SIZE bytes that no thumbnail crosses, so reading a thumbnail
+ * opens no file and costs no system call; thumbnails written together,
+ * e.g. those of one directory, sit next to each other, so a grid page
+ * is read with a few sequential page faults.
+ *
+ * Index entries are kept in memory and appended in groups: every
+ * SYNC_EVERY entries, on sync() and on close(), the data file is forced
+ * to disk, without holding the lock that reads take, and then the
+ * entries are appended. So the index never points at data that was not
+ * written; if the application stops, the thumbnails added since the
+ * last sync are lost and made again when next needed, and the index may
+ * end with half of an entry, which is ignored when opening.
+ *
+ * Removing or replacing a thumbnail only appends to the index; the
+ * space it took is given back by compact(), which is done by itself
+ * once more than half of the data file, and at least minWasted bytes,
+ * is wasted. Compacting writes a new generation of the two files,
+ * named after its number, and then switches to it by replacing the
+ * small generation file that holds the number; a crash at any point
+ * leaves either the old or the new generation whole, and files of
+ * other generations are deleted when the store is opened.
+ */
+public class ThumbnailStore {
+
+	/** Name of the file holding the number of the current generation */
+	public static final String generationFile = "thumbs.gen";
+
+	/** Size of the memory mapped segments of the data file, in bytes */
+	public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/** Largest size of a thumbnail, in bytes */
+	public static final int MAX_LENGTH = 0xFFFFFF;
+
+	/** Default number of wasted bytes below which the store is not compacted */
+	public static final long DEFAULT_MIN_WASTED = 16 * 1024 * 1024;
+
+	/** Number of index entries kept in memory before the store is synced */
+	public static final int SYNC_EVERY = 64;
+
+	/** Size of an index entry: key, offset and length */
+	private static final int ENTRY_SIZE = 20 + 8 + 4;
+
+	/** Names of the data and index files of any generation */
+	private static final Pattern GENERATION_FILE = Pattern.compile("thumbs\\.(\\d+)\\.(dat|idx)");
+
+	/** Singleton instance */
+	private static ThumbnailStore instance = null;
+
+	/** Directory holding the data and index files */
+	private Path dir;
+
+	/** Number of wasted bytes below which the store is not compacted */
+	private long minWasted;
+
+	/** Number of the current generation of the data and index files */
+	private long generation;
+
+	/** The data file */
+	private FileChannel data;
+
+	/** The index file */
+	private FileChannel index;
+
+	/** Offset and length of each thumbnail, by key, packed by entryOf */
+	private Map<String, Long> entries = new HashMap<String, Long>();
+
+	/** The mapped segments of the data file */
+	private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	/** Number of bytes of data that are still used */
+	private long live;
+
+	/** Index entries not appended yet, in the order they were made */
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/** Held while syncing, so that groups of entries are appended in order */
+	private final Object syncLock = new Object();
+
+
+	/**
+	 * Open the store in the given directory, creating it if needed.
+	 *
+	 * @param dir
+	 * 			directory holding the data and index files
+	 * @throws IOException
+	 * 			if the files cannot be opened
+	 */
+	public ThumbnailStore(Path dir) throws IOException{
+		this(dir, DEFAULT_MIN_WASTED);
+	}
+
+
+	/**
+	 * Open the store in the given directory, creating it if needed.
+	 *
+	 * @param dir
+	 * 			directory holding the data and index files
+	 * @param minWasted
+	 * 			number of wasted bytes below which the store is not
+	 * 			compacted by itself
+	 * @throws IOException
+	 * 			if the files cannot be opened
+	 */
+	public ThumbnailStore(Path dir, long minWasted) throws IOException{
+		this.dir = dir;
+		this.minWasted = minWasted;
+		open();
+		compactIfWasteful();
+	}
+
+
+	/**
+	 * Get the store shared by the whole application, in the
+	 * ThumbnailCache directory.
+	 *
+	 * @return ThumbnailStore
+	 * 			the shared store
+	 * @throws IOException
+	 * 			if the files cannot be opened
+	 */
+	public static synchronized ThumbnailStore getInstance() throws IOException{
+		if(instance == null){
+			final ThumbnailStore store = new ThumbnailStore(Paths.get(ThumbnailCache.cacheDir));
+			// Keep the thumbnails added since the last sync when exiting
+			Runtime.getRuntime().addShutdownHook(new Thread(){
+				@Override
+				public void run(){
+					try{
+						store.sync();
+					}catch(IOException e){
+						// They are made again when next needed
+					}
+				}
+			});
+			instance = store;
+		}
+		return instance;
+	}
+
+
+	/**
+	 * Check if the store has a thumbnail for the given key.
+	 *
+	 * @param key
+	 * 			the ThumbnailCache key
+	 * @return boolean
+	 * 			true if the thumbnail is stored
+	 */
+	public synchronized boolean contains(String key){
+		return entries.containsKey(key);
+	}
+
+
+	/**
+	 * Get the number of thumbnails stored.
+	 *
+	 * @return int
+	 * 			the number of thumbnails
+	 */
+	public synchronized int size(){
+		return entries.size();
+	}
+
+
+	/**
+	 * Get the data file of the current generation.
+	 *
+	 * @return Path
+	 * 			the data file
+	 */
+	public synchronized Path getDataFile(){
+		return dir.resolve(dataFileOf(generation));
+	}
+
+
+	/**
+	 * Get the index file of the current generation.
+	 *
+	 * @return Path
+	 * 			the index file
+	 */
+	public synchronized Path getIndexFile(){
+		return dir.resolve(indexFileOf(generation));
+	}
+
+
+	/**
+	 * Read the encoded thumbnail for the given key from the mapped data file.
+	 *
+	 * @param key
+	 * 			the ThumbnailCache key
+	 * @return byte[]
+	 * 			the thumbnail's bytes, or null if it is not stored
+	 * @throws IOException
+	 * 			if the data file cannot be mapped
+	 */
+	public synchronized byte[] get(String key) throws IOException{
+		Long entry = entries.get(key);
+		if(entry == null)
+			return null;
+		long offset = offsetOf(entry);
+		byte[] bytes = new byte[lengthOf(entry)];
+		ByteBuffer segment = segment((int) (offset / SEGMENT_SIZE), offset + bytes.length).duplicate();
+		segment.position((int) (offset % SEGMENT_SIZE));
+		segment.get(bytes);
+		return bytes;
+	}
+
+
+	/**
+	 * Add a thumbnail, replacing the one stored for the same key if any.
+	 * Its bytes are appended to the data file, and its entry is appended
+	 * to the index at the next sync.
+	 *
+	 * @param key
+	 * 			the ThumbnailCache key
+	 * @param bytes
+	 * 			the encoded thumbnail
+	 * @throws IOException
+	 * 			if the files cannot be written
+	 */
+	public void put(String key, byte[] bytes) throws IOException{
+		if(bytes.length > MAX_LENGTH)
+			throw new IOException("Thumbnail too big: " + bytes.length + " bytes");
+		boolean full;
+		synchronized(this){
+			long offset = append(data, bytes);
+			full = addPending(key, offset, bytes.length);
+			Long old = entries.put(key, entryOf(offset, bytes.length));
+			live += bytes.length;
+			if(old != null){
+				live -= lengthOf(old);
+				compactIfWasteful();
+			}
+		}
+		if(full)
+			sync();
+	}
+
+
+	/**
+	 * Remove the thumbnail for the given key, if any. Its bytes stay in
+	 * the data file until the store is compacted.
+	 *
+	 * @param key
+	 * 			the ThumbnailCache key
+	 * @throws IOException
+	 * 			if the index cannot be written
+	 */
+	public void remove(String key) throws IOException{
+		boolean full = false;
+		synchronized(this){
+			Long old = entries.remove(key);
+			if(old != null){
+				full = addPending(key, 0, -1);
+				live -= lengthOf(old);
+				compactIfWasteful();
+			}
+		}
+		if(full)
+			sync();
+	}
+
+
+	/**
+	 * Force the data of the thumbnails added since the last sync to disk,
+	 * then append their index entries. Thumbnails can be read meanwhile.
+	 *
+	 * @throws IOException
+	 * 			if the files cannot be written
+	 */
+	public void sync() throws IOException{
+		synchronized(syncLock){
+			FileChannel synced;
+			byte[] batch;
+			synchronized(this){
+				if(pending.size() == 0)
+					return;
+				synced = data;
+				batch = pending.toByteArray();
+				pending.reset();
+			}
+			synced.force(false);
+			synchronized(this){
+				// A compaction meanwhile has written them to its own index
+				if(synced != data || !index.isOpen())
+					return;
+				ByteBuffer buffer = ByteBuffer.wrap(batch);
+				while(buffer.hasRemaining()){
+					index.write(buffer);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Get the number of bytes of the data file no thumbnail uses any more.
+	 *
+	 * @return long
+	 * 			the bytes compact() would give back
+	 * @throws IOException
+	 */
+	public synchronized long getWasted() throws IOException{
+		return data.size() - live;
+	}
+
+
+	/**
+	 * Write a new generation of the data and index files with only the
+	 * thumbnails still stored, in the order they were added, and switch
+	 * to it.
+	 *
+	 * @throws IOException
+	 * 			if the files cannot be written
+	 */
+	public synchronized void compact() throws IOException{
+		List<Map.Entry<String, Long>> sorted = new ArrayList<Map.Entry<String, Long>>(entries.entrySet());
+		Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+				return Long.compare(offsetOf(a.getValue()), offsetOf(b.getValue()));
+			}
+		});
+		long next = generation + 1;
+		try(FileChannel newData = create(dir.resolve(dataFileOf(next)));
+				FileChannel newIndex = create(dir.resolve(indexFileOf(next)))){
+			for(Map.Entry<String, Long> e: sorted){
+				byte[] bytes = get(e.getKey());
+				long offset = append(newData, bytes);
+				appendEntry(newIndex, e.getKey(), offset, bytes.length);
+			}
+			newData.force(false);
+			newIndex.force(false);
+		}catch(IOException e){
+			deleteGeneration(next);
+			throw e;
+		}
+		writeGeneration(next);
+
+		// Deletes the old generation, or leaves it for the next open
+		// while its data file is still mapped, e.g. on Windows
+		closeFiles();
+		open();
+	}
+
+
+	/**
+	 * Sync, then close the data and index files. The store cannot be 
+	 * used after.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		sync();
+		synchronized(this){
+			closeFiles();
+		}
+	}
+
+
+	/**
+	 * Close the data and index files, dropping the index entries not
+	 * appended yet.
+	 */
+	private void closeFiles() throws IOException{
+		segments.clear();
+		pending.reset();
+		data.close();
+		index.close();
+	}
+
+
+	/**
+	 * Keep an index entry until the next sync; a negative length removes
+	 * the key.
+	 *
+	 * @return boolean
+	 * 			true if SYNC_EVERY entries are kept and should be synced
+	 */
+	private boolean addPending(String key, long offset, int length){
+		pending.write(fromHex(key), 0, 20);
+		ByteBuffer rest = ByteBuffer.allocate(ENTRY_SIZE - 20);
+		rest.putLong(offset);
+		rest.putInt(length);
+		pending.write(rest.array(), 0, rest.capacity());
+		return pending.size() >= SYNC_EVERY * ENTRY_SIZE;
+	}
+
+
+	/**
+	 * Compact the store if more than half of the data file, and at
+	 * least minWasted bytes, is wasted.
+	 */
+	private void compactIfWasteful() throws IOException{
+		long wasted = getWasted();
+		if(wasted >= minWasted && wasted > live)
+			compact();
+	}
+
+
+	/**
+	 * Open the files of the current generation, delete those of other
+	 * generations, and read the index into memory.
+	 */
+	private void open() throws IOException{
+		Files.createDirectories(dir);
+		generation = readGeneration();
+		deleteOtherGenerations();
+		data = FileChannel.open(getDataFile(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = FileChannel.open(getIndexFile(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		entries.clear();
+		segments.clear();
+		live = 0;
+
+		long dataSize = data.size();
+		long count = index.size() / ENTRY_SIZE;
+		ByteBuffer buffer = index.map(FileChannel.MapMode.READ_ONLY, 0, count * ENTRY_SIZE);
+		byte[] raw = new byte[20];
+		for(long i = 0; i < count; i++){
+			buffer.get(raw);
+			long offset = buffer.getLong();
+			int length = buffer.getInt();
+			String key = toHex(raw);
+			Long old;
+			if(length < 0){
+				old = entries.remove(key);
+			}else if(offset + length <= dataSize){
+				old = entries.put(key, entryOf(offset, length));
+				live += length;
+			}else{
+				// Its data was not written before the application stopped
+				continue;
+			}
+			if(old != null)
+				live -= lengthOf(old);
+		}
+		// Drop half of an entry written when the application stopped
+		index.truncate(count * ENTRY_SIZE);
+		index.position(count * ENTRY_SIZE);
+	}
+
+
+	/**
+	 * Read the number of the current generation, 0 if there is none yet.
+	 */
+	private long readGeneration() throws IOException{
+		Path file = dir.resolve(generationFile);
+		if(!Files.exists(file))
+			return 0;
+		String text = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+		try{
+			return Long.parseLong(text);
+		}catch(NumberFormatException e){
+			throw new IOException("Bad thumbnail generation: " + text, e);
+		}
+	}
+
+
+	/**
+	 * Make the given generation the current one, by writing its number
+	 * to a temporary file and moving it over the generation file.
+	 */
+	private void writeGeneration(long next) throws IOException{
+		Path tmp = dir.resolve(generationFile + ".tmp");
+		try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			ByteBuffer buffer = ByteBuffer.wrap(Long.toString(next).getBytes(StandardCharsets.US_ASCII));
+			while(buffer.hasRemaining()){
+				out.write(buffer);
+			}
+			out.force(true);
+		}
+		Files.move(tmp, dir.resolve(generationFile), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Delete the data and index files of generations other than the
+	 * current one, left by a compaction that stopped half way or whose
+	 * old files could not be deleted then.
+	 */
+	private void deleteOtherGenerations() throws IOException{
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)){
+			for(Path f: files){
+				Matcher m = GENERATION_FILE.matcher(f.getFileName().toString());
+				if(m.matches() && Long.parseLong(m.group(1)) != generation)
+					deleteQuietly(f);
+			}
+		}
+	}
+
+
+	/**
+	 * Delete the data and index files of the given generation, if possible.
+	 */
+	private void deleteGeneration(long gen){
+		deleteQuietly(dir.resolve(dataFileOf(gen)));
+		deleteQuietly(dir.resolve(indexFileOf(gen)));
+	}
+
+
+	/**
+	 * Delete a file; one that cannot be deleted now is deleted the next
+	 * time the store is opened.
+	 */
+	private static void deleteQuietly(Path file){
+		try{
+			Files.deleteIfExists(file);
+		}catch(IOException e){
+			// Deleted when the store is opened again
+		}
+	}
+
+
+	/**
+	 * Create an empty file of a new generation.
+	 */
+	private static FileChannel create(Path file) throws IOException{
+		return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+
+	/**
+	 * Get the name of the data file of the given generation.
+	 */
+	private static String dataFileOf(long gen){
+		return "thumbs." + gen + ".dat";
+	}
+
+
+	/**
+	 * Get the name of the index file of the given generation.
+	 */
+	private static String indexFileOf(long gen){
+		return "thumbs." + gen + ".idx";
+	}
+
+
+	/**
+	 * Append a thumbnail's bytes to a data file, starting a new segment
+	 * rather than crossing into it.
+	 *
+	 * @return long
+	 * 			the offset the bytes were written at
+	 */
+	private static long append(FileChannel file, byte[] bytes) throws IOException{
+		long offset = file.size();
+		if(offset % SEGMENT_SIZE + bytes.length > SEGMENT_SIZE)
+			offset = (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while(buffer.hasRemaining()){
+			file.write(buffer, offset + buffer.position());
+		}
+		return offset;
+	}
+
+
+	/**
+	 * Append an entry to an index file; a negative length removes the key.
+	 */
+	private static void appendEntry(FileChannel file, String key, long offset, int length)
+			throws IOException{
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.put(fromHex(key));
+		entry.putLong(offset);
+		entry.putInt(length);
+		entry.flip();
+		while(entry.hasRemaining()){
+			file.write(entry);
+		}
+	}
+
+
+	/**
+	 * Get a mapped segment of the data file, mapping it again if it does
+	 * not reach the given end yet.
+	 */
+	private MappedByteBuffer segment(int i, long end) throws IOException{
+		while(segments.size() <= i){
+			segments.add(null);
+		}
+		MappedByteBuffer segment = segments.get(i);
+		long start = (long) i * SEGMENT_SIZE;
+		if(segment == null || start + segment.capacity() < end){
+			long size = Math.min(SEGMENT_SIZE, data.size() - start);
+			segment = data.map(FileChannel.MapMode.READ_ONLY, start, size);
+			segments.set(i, segment);
+		}
+		return segment;
+	}
+
+
+	/**
+	 * Pack an offset (up to 2^40) and a length (up to 2^24) into a long.
+	 */
+	private static long entryOf(long offset, int length){
+		return (offset << 24) | length;
+	}
+
+
+	/**
+	 * Get the offset out of a packed entry.
+	 */
+	private static long offsetOf(long entry){
+		return entry >>> 24;
+	}
+
+
+	/**
+	 * Get the length out of a packed entry.
+	 */
+	private static int lengthOf(long entry){
+		return (int) (entry & 0xFFFFFF);
+	}
+
+
+	/**
+	 * Convert a 40 characters hex key to its 20 bytes.
+	 */
+	private static byte[] fromHex(String key){
+		byte[] raw = new byte[20];
+		for(int i = 0; i < raw.length; i++){
+			raw[i] = (byte) Integer.parseInt(key.substring(2 * i, 2 * i + 2), 16);
+		}
+		return raw;
+	}
+
+
+	/**
+	 * Convert bytes to a lower case hex string, like ThumbnailCache keys.
+	 */
+	private static String toHex(byte[] bytes){
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for(byte b: bytes){
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
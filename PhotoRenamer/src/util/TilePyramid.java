@@ -0,0 +1,363 @@
+package util;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import javax.imageio.ImageIO;
+
+/**
+ * TilePyramid stores a very large image as fixed size tiles at several
+ * zoom levels, so that a viewer only ever reads the tiles it shows.
+ * Level 0 is the original size, each next level is half as wide and
+ * high, and the last level fits in a single tile.
+ *
+ * Tiles are written next to the thumbnails, under a directory named by
+ * the source file's ThumbnailCache key, so a changed file gets a new
+ * pyramid. A tile that is not stored yet is made when it is first read:
+ * from the four tiles below it if they are stored, otherwise by reading
+ * only its region of the original (see ImageDecoder.readRegion). Either
+ * way, reading a tile never holds more than a few tiles in memory.
+ */
+public class TilePyramid {
+
+	/** Width and height of a tile, in pixels */
+	public static final int TILE_SIZE = 256;
+
+	/** Directory that holds all pyramids */
+	public static final String cacheDir = "tiles";
+
+	/** Largest number of bytes of the original held while generating */
+	public static final int STRIP_BUDGET = 32 * 1024 * 1024;
+
+	/** Image format of the tiles */
+	private static final String format = "jpg";
+
+	/** The original image file */
+	private File source;
+
+	/** The ThumbnailCache key of the original */
+	private String key;
+
+	/** Width of the original */
+	private int width;
+
+	/** Height of the original */
+	private int height;
+
+	/** Number of levels */
+	private int levels;
+
+
+	/**
+	 * Create the TilePyramid of an image file. Only the file's header
+	 * is read; tiles are made when they are read or generated.
+	 *
+	 * @param source
+	 * 			the image file
+	 * @throws IOException
+	 * 			if the file cannot be read or is not a supported image
+	 */
+	public TilePyramid(File source) throws IOException{
+		this.source = source;
+		this.key = ThumbnailCache.keyFor(source);
+		Dimension size = ImageDecoder.getSize(source);
+		width = size.width;
+		height = size.height;
+		levels = 1;
+		while(Math.max(getWidth(levels - 1), getHeight(levels - 1)) > TILE_SIZE){
+			levels++;
+		}
+	}
+
+
+	/**
+	 * Get the number of levels.
+	 *
+	 * @return int
+	 * 			the number of levels, at least 1
+	 */
+	public int getLevels(){
+		return levels;
+	}
+
+
+	/**
+	 * Get the width of the image at a level.
+	 *
+	 * @param level
+	 * 			the level, 0 for the original size
+	 * @return int
+	 * 			the width in pixels
+	 */
+	public int getWidth(int level){
+		return (int) ((width + (1L << level) - 1) >> level);
+	}
+
+
+	/**
+	 * Get the height of the image at a level.
+	 *
+	 * @param level
+	 * 			the level, 0 for the original size
+	 * @return int
+	 * 			the height in pixels
+	 */
+	public int getHeight(int level){
+		return (int) ((height + (1L << level) - 1) >> level);
+	}
+
+
+	/**
+	 * Get the number of tile columns at a level.
+	 *
+	 * @param level
+	 * 			the level
+	 * @return int
+	 * 			the number of columns
+	 */
+	public int getColumns(int level){
+		return (getWidth(level) + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+
+	/**
+	 * Get the number of tile rows at a level.
+	 *
+	 * @param level
+	 * 			the level
+	 * @return int
+	 * 			the number of rows
+	 */
+	public int getRows(int level){
+		return (getHeight(level) + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+
+	/**
+	 * Get the smallest level that still has at least the pixels needed
+	 * to show the image at the given scale.
+	 *
+	 * @param scale
+	 * 			shown size over original size, e.g. 0.25
+	 * @return int
+	 * 			the level
+	 */
+	public int getLevelFor(double scale){
+		int level = 0;
+		while(level + 1 < levels && 1.0 / (1L << (level + 1)) >= scale){
+			level++;
+		}
+		return level;
+	}
+
+
+	/**
+	 * Get where a tile is stored.
+	 *
+	 * @param level
+	 * 			the tile's level
+	 * @param col
+	 * 			the tile's column
+	 * @param row
+	 * 			the tile's row
+	 * @return Path
+	 * 			the tile's file
+	 */
+	public Path pathFor(int level, int col, int row){
+		return Paths.get(cacheDir, key, Integer.toString(level), col + "_" + row + "." + format);
+	}
+
+
+	/**
+	 * Check if a tile has been stored.
+	 *
+	 * @param level
+	 * 			the tile's level
+	 * @param col
+	 * 			the tile's column
+	 * @param row
+	 * 			the tile's row
+	 * @return boolean
+	 * 			true if the tile's file exists
+	 */
+	public boolean isStored(int level, int col, int row){
+		return Files.isRegularFile(pathFor(level, col, row));
+	}
+
+
+	/**
+	 * Read a tile, making and storing it first if needed. A tile is
+	 * TILE_SIZE pixels wide and high, except for the last column and row.
+	 *
+	 * @param level
+	 * 			the tile's level
+	 * @param col
+	 * 			the tile's column
+	 * @param row
+	 * 			the tile's row
+	 * @return BufferedImage
+	 * 			the tile
+	 * @throws IOException
+	 * 			if the original cannot be read
+	 */
+	public BufferedImage readTile(int level, int col, int row) throws IOException{
+		Path path = pathFor(level, col, row);
+		if(Files.isRegularFile(path)){
+			BufferedImage tile = ImageIO.read(path.toFile());
+			if(tile != null)
+				return tile;
+		}
+		BufferedImage tile;
+		if(level > 0 && hasChildren(level, col, row)){
+			tile = compose(level, col, row);
+		}else{
+			int factor = 1 << level;
+			int x = col * TILE_SIZE * factor;
+			int y = row * TILE_SIZE * factor;
+			Rectangle region = new Rectangle(x, y, Math.min(TILE_SIZE * factor, width - x),
+					Math.min(TILE_SIZE * factor, height - y));
+			tile = toRGB(ImageDecoder.readRegion(source, region, factor));
+		}
+		store(tile, level, col, row);
+		return tile;
+	}
+
+
+	/**
+	 * Make and store every tile of every level that is not stored yet.
+	 * Level 0 is cut from strips of the original, a row of tiles high
+	 * and at most STRIP_BUDGET bytes big; every next level is made from
+	 * the level below, so the original is read about once.
+	 *
+	 * @throws IOException
+	 * 			if the original cannot be read or a tile cannot be written
+	 */
+	public void generate() throws IOException{
+		int cols = getColumns(0);
+		int chunk = Math.max(1, STRIP_BUDGET / (TILE_SIZE * TILE_SIZE * 4));
+		for(int row = 0; row < getRows(0); row++){
+			for(int first = 0; first < cols; first += chunk){
+				int last = Math.min(cols, first + chunk);
+				if(areStored(0, first, last, row))
+					continue;
+				int x = first * TILE_SIZE;
+				int y = row * TILE_SIZE;
+				BufferedImage strip = ImageDecoder.readRegion(source, new Rectangle(x, y,
+						Math.min(last * TILE_SIZE, width) - x, Math.min(TILE_SIZE, height - y)), 1);
+				for(int col = first; col < last; col++){
+					int tx = (col - first) * TILE_SIZE;
+					store(toRGB(strip.getSubimage(tx, 0, Math.min(TILE_SIZE, strip.getWidth() - tx),
+							strip.getHeight())), 0, col, row);
+				}
+			}
+		}
+		for(int level = 1; level < levels; level++){
+			for(int row = 0; row < getRows(level); row++){
+				for(int col = 0; col < getColumns(level); col++){
+					if(!isStored(level, col, row))
+						store(compose(level, col, row), level, col, row);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Check if the tiles of one level from first to last (excluded) in
+	 * a row are all stored.
+	 */
+	private boolean areStored(int level, int first, int last, int row){
+		for(int col = first; col < last; col++){
+			if(!isStored(level, col, row))
+				return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Check if all tiles a tile is made from at the level below are stored.
+	 */
+	private boolean hasChildren(int level, int col, int row){
+		int cols = getColumns(level - 1);
+		int rows = getRows(level - 1);
+		for(int r = 2 * row; r < Math.min(rows, 2 * row + 2); r++){
+			for(int c = 2 * col; c < Math.min(cols, 2 * col + 2); c++){
+				if(!isStored(level - 1, c, r))
+					return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Make a tile by scaling down the (up to) four tiles below it.
+	 */
+	private BufferedImage compose(int level, int col, int row) throws IOException{
+		int tw = Math.min(TILE_SIZE, getWidth(level) - col * TILE_SIZE);
+		int th = Math.min(TILE_SIZE, getHeight(level) - row * TILE_SIZE);
+		int cols = getColumns(level - 1);
+		int rows = getRows(level - 1);
+		BufferedImage tile = new BufferedImage(tw, th, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = tile.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		for(int r = 2 * row; r < Math.min(rows, 2 * row + 2); r++){
+			for(int c = 2 * col; c < Math.min(cols, 2 * col + 2); c++){
+				BufferedImage child = readTile(level - 1, c, r);
+				int x = (c - 2 * col) * TILE_SIZE / 2;
+				int y = (r - 2 * row) * TILE_SIZE / 2;
+				g2.drawImage(child, x, y, x + (child.getWidth() + 1) / 2,
+						y + (child.getHeight() + 1) / 2, 0, 0, child.getWidth(), child.getHeight(), null);
+			}
+		}
+		g2.dispose();
+		return tile;
+	}
+
+
+	/**
+	 * Write a tile, first to a temporary file so that a reader never
+	 * sees half of a tile.
+	 */
+	private void store(BufferedImage tile, int level, int col, int row) throws IOException{
+		Path target = pathFor(level, col, row);
+		Files.createDirectories(target.getParent());
+		Path tmp = Files.createTempFile(target.getParent(), col + "_" + row, ".tmp");
+		try{
+			try(OutputStream os = Files.newOutputStream(tmp)){
+				if(!ImageIO.write(tile, format, os))
+					throw new IOException("No writer for " + format);
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}finally{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+
+	/**
+	 * Copy an image into an RGB image of its own, which any tile format
+	 * can be written from and which does not hold on to a bigger raster.
+	 */
+	private static BufferedImage toRGB(BufferedImage in){
+		BufferedImage out = new BufferedImage(in.getWidth(), in.getHeight(),
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = out.createGraphics();
+		g2.drawImage(in, 0, 0, null);
+		g2.dispose();
+		return out;
+	}
+}